@@ -0,0 +1,62 @@
+package com.example.benchmark;
+
+import com.example.QueueService;
+import com.example.beans.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch push+pull+delete round trip. Throughput is reported in messages per second
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"memory", "bounded", "file", "log", "sqs"})
+    public String engine;
+
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    @Param({"256"})
+    public int payloadSize;
+
+    private QueueService queueService;
+    private String body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        queueService = Engines.create(engine);
+        queueService.clearMessages(Engines.QUEUE);
+        body = Engines.payload(payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public List<Message> batchRoundTrip() {
+        List<Message> pulled = null;
+        //Same number of messages per invocation for every batch size
+        for (int sent = 0; sent < 100; sent += batchSize) {
+            List<Message> messages = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                messages.add(new Message<>(body));
+            }
+            queueService.pushBatch(Engines.QUEUE, messages);
+            pulled = queueService.pullBatch(Engines.QUEUE, batchSize);
+            queueService.deleteBatch(Engines.QUEUE, pulled);
+        }
+        return pulled;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.benchmark;
+
+import com.example.FileQueueService;
+import com.example.InMemoryQueueService;
+import com.example.LogQueueService;
+import com.example.QueueService;
+import com.example.SqsQueueService;
+import com.example.memory.OverflowPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Creates queue services by the name used in benchmark params
+ */
+final class Engines {
+    static final String QUEUE = "bench";
+
+    //Long enough for messages not to be redelivered in the middle of an iteration
+    static final long TIMEOUT = 300000;
+
+    private Engines() {
+    }
+
+    static QueueService create(String engine) throws IOException {
+        switch (engine) {
+            case "memory":
+                return new InMemoryQueueService(TIMEOUT);
+            case "bounded":
+                return new InMemoryQueueService(TIMEOUT, 1 << 20, OverflowPolicy.BLOCK);
+            case "file":
+                return new FileQueueService(TIMEOUT, tempDir(engine));
+            case "log":
+                return new LogQueueService(TIMEOUT, tempDir(engine));
+            case "sqs":
+                return new SqsQueueService(new StubSqsClient(TIMEOUT), TIMEOUT);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown engine [%s]", engine));
+        }
+    }
+
+    static String payload(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    private static String tempDir(String engine) throws IOException {
+        File dir = Files.createTempDirectory("queue-bench-" + engine).toFile();
+        dir.deleteOnExit();
+        return dir.getAbsolutePath();
+    }
+}
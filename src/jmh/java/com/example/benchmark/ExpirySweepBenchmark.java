@@ -0,0 +1,81 @@
+package com.example.benchmark;
+
+import com.example.InMemoryQueueService;
+import com.example.QueueService;
+import com.example.beans.Message;
+import com.example.timer.TimerWheel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of visibility timeout tracking with a large number of in flight messages.
+ * sweep measures the expiry pass alone, roundTrip measures a queue operation
+ * while the background sweeper works through inFlight pending messages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpirySweepBenchmark {
+    private static final long HORIZON = TimeUnit.MINUTES.toMillis(5);
+
+    @Param({"1000", "100000", "1000000"})
+    public int inFlight;
+
+    private TimerWheel<Integer> wheel;
+    private List<TimerWheel.Entry<Integer>> entries;
+    private QueueService queueService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wheel = new TimerWheel<>(1, HORIZON);
+        entries = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            entries.add(wheel.schedule(i, randomDelay()));
+        }
+
+        //Deadlines are far enough not to fire during a trial, sweeper only visits buckets
+        queueService = new InMemoryQueueService(HORIZON, 1);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < inFlight; i++) {
+            messages.add(new Message<>("in flight"));
+        }
+        queueService.pushBatch(Engines.QUEUE, messages);
+        queueService.pullBatch(Engines.QUEUE, inFlight);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    /**
+     * Reschedule one random entry as a heartbeat would do, then sweep elapsed ticks
+     */
+    @Benchmark
+    public int sweep(Blackhole blackhole) {
+        int index = ThreadLocalRandom.current().nextInt(inFlight);
+        wheel.cancel(entries.get(index));
+        entries.set(index, wheel.schedule(index, randomDelay()));
+        return wheel.expire(blackhole::consume);
+    }
+
+    @Benchmark
+    public Message roundTrip() {
+        queueService.push(Engines.QUEUE, new Message<>("message"));
+        Message message = queueService.pull(Engines.QUEUE);
+        queueService.delete(Engines.QUEUE, message);
+        return message;
+    }
+
+    private static long randomDelay() {
+        return HORIZON / 2 + ThreadLocalRandom.current().nextLong(HORIZON / 2);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.benchmark;
+
+import com.example.QueueService;
+import com.example.beans.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent producers and consumers sharing a queue.
+ * Consumers poll without waiting, so an empty pull is counted as an operation too:
+ * compare push rates and successful pull rates separately in the results.
+ * Ratios are chosen with -tg, e.g. -tg 4,1 for four producers per consumer
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerConsumerBenchmark {
+
+    @Param({"memory", "bounded", "file", "log", "sqs"})
+    public String engine;
+
+    @Param({"256"})
+    public int payloadSize;
+
+    private QueueService queueService;
+    private String body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        queueService = Engines.create(engine);
+        queueService.clearMessages(Engines.QUEUE);
+        body = Engines.payload(payloadSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pulls {
+        public long received;
+        public long empty;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            received = 0;
+            empty = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public void balancedPush() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public void balancedPull(Pulls pulls) {
+        pull(pulls);
+    }
+
+    @Benchmark
+    @Group("producers")
+    @GroupThreads(4)
+    public void producersPush() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+    }
+
+    @Benchmark
+    @Group("producers")
+    @GroupThreads(1)
+    public void producersPull(Pulls pulls) {
+        pull(pulls);
+    }
+
+    @Benchmark
+    @Group("consumers")
+    @GroupThreads(1)
+    public void consumersPush() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+    }
+
+    @Benchmark
+    @Group("consumers")
+    @GroupThreads(4)
+    public void consumersPull(Pulls pulls) {
+        pull(pulls);
+    }
+
+    private void pull(Pulls pulls) {
+        Message message = queueService.pull(Engines.QUEUE);
+        if (message == null) {
+            pulls.empty++;
+            return;
+        }
+        queueService.delete(Engines.QUEUE, message);
+        pulls.received++;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.benchmark;
+
+import com.example.QueueService;
+import com.example.beans.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip cost against a queue that already holds depth messages.
+ * Every invocation pushes one message and consumes one, so the depth stays constant
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueDepthBenchmark {
+
+    @Param({"memory", "bounded", "file", "log", "sqs"})
+    public String engine;
+
+    @Param({"0", "1000", "10000"})
+    public int depth;
+
+    private QueueService queueService;
+    private String body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        queueService = Engines.create(engine);
+        queueService.clearMessages(Engines.QUEUE);
+        body = Engines.payload(256);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < depth; i++) {
+            messages.add(new Message<>(body));
+            if (messages.size() == 100) {
+                queueService.pushBatch(Engines.QUEUE, messages);
+                messages = new ArrayList<>();
+            }
+        }
+        if (!messages.isEmpty()) {
+            queueService.pushBatch(Engines.QUEUE, messages);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    @Benchmark
+    public Message roundTrip() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+        Message message = queueService.pull(Engines.QUEUE);
+        queueService.delete(Engines.QUEUE, message);
+        return message;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.benchmark;
+
+import com.example.QueueService;
+import com.example.beans.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded push, pull and push+pull+delete for every engine and payload size.
+ * Pull benchmarks keep the queue non empty by pushing a message first,
+ * push benchmark drains the queue every iteration to keep the depth bounded
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    @Param({"memory", "bounded", "file", "log", "sqs"})
+    public String engine;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private QueueService queueService;
+    private String body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        queueService = Engines.create(engine);
+        queueService.clearMessages(Engines.QUEUE);
+        body = Engines.payload(payloadSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        queueService.clearMessages(Engines.QUEUE);
+    }
+
+    @Benchmark
+    public void push() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+    }
+
+    @Benchmark
+    public Message pushPull() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+        return queueService.pull(Engines.QUEUE);
+    }
+
+    @Benchmark
+    public Message roundTrip() {
+        queueService.push(Engines.QUEUE, new Message<>(body));
+        Message message = queueService.pull(Engines.QUEUE);
+        queueService.delete(Engines.QUEUE, message);
+        return message;
+    }
+}
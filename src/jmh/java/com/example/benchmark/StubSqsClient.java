@@ -0,0 +1,159 @@
+package com.example.benchmark;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+import com.example.InMemoryQueueService;
+import com.example.QueueService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for SQS backed by InMemoryQueueService.
+ * Lets SqsQueueService be benchmarked without network: marshalling and
+ * request building costs are measured, round trip latency is not
+ */
+public class StubSqsClient extends AbstractAmazonSQS {
+    private static final String URL_PREFIX = "https://sqs.stub/queue/";
+
+    private final QueueService queues;
+    private final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public StubSqsClient(long timeout) {
+        queues = new InMemoryQueueService(timeout);
+    }
+
+    @Override
+    public CreateQueueResult createQueue(CreateQueueRequest request) {
+        names.add(request.getQueueName());
+        return new CreateQueueResult().withQueueUrl(URL_PREFIX + request.getQueueName());
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(String queueName) {
+        return getQueueUrl(new GetQueueUrlRequest(queueName));
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+        if (!names.contains(request.getQueueName())) {
+            throw new QueueDoesNotExistException(request.getQueueName());
+        }
+        return new GetQueueUrlResult().withQueueUrl(URL_PREFIX + request.getQueueName());
+    }
+
+    @Override
+    public ListQueuesResult listQueues() {
+        List<String> urls = new ArrayList<>();
+        for (String name : names) {
+            urls.add(URL_PREFIX + name);
+        }
+        return new ListQueuesResult().withQueueUrls(urls);
+    }
+
+    @Override
+    public void deleteQueue(String queueUrl) {
+        String name = name(queueUrl);
+        queues.clearMessages(name);
+        names.remove(name);
+    }
+
+    @Override
+    public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+        return sendMessage(new SendMessageRequest(queueUrl, messageBody));
+    }
+
+    @Override
+    public SendMessageResult sendMessage(SendMessageRequest request) {
+        com.example.beans.Message<String> message = new com.example.beans.Message<>(request.getMessageBody());
+        queues.push(name(request.getQueueUrl()), message);
+        return new SendMessageResult().withMessageId(message.getUuid());
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        List<com.example.beans.Message> messages = new ArrayList<>();
+        List<SendMessageBatchResultEntry> entries = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            com.example.beans.Message<String> message = new com.example.beans.Message<>(entry.getMessageBody());
+            messages.add(message);
+            entries.add(new SendMessageBatchResultEntry().withId(entry.getId()).withMessageId(message.getUuid()));
+        }
+        queues.pushBatch(name(request.getQueueUrl()), messages);
+        return new SendMessageBatchResult().withSuccessful(entries);
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        String name = name(request.getQueueUrl());
+        List<com.example.beans.Message> pulled = queues.pullBatch(name, max);
+        if (pulled.isEmpty() && request.getWaitTimeSeconds() != null && request.getWaitTimeSeconds() > 0) {
+            com.example.beans.Message message = queues.pull(name, request.getWaitTimeSeconds(), TimeUnit.SECONDS);
+            pulled = message == null ? Collections.emptyList() : Collections.singletonList(message);
+        }
+        List<Message> messages = new ArrayList<>();
+        for (com.example.beans.Message message : pulled) {
+            messages.add(new Message().withMessageId(message.getUuid()).withReceiptHandle(message.getUuid())
+                    .withBody((String) message.getBody()));
+        }
+        return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public void deleteMessage(DeleteMessageRequest request) {
+        queues.delete(name(request.getQueueUrl()), receipt(request.getReceiptHandle()));
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        List<com.example.beans.Message> messages = new ArrayList<>();
+        List<DeleteMessageBatchResultEntry> entries = new ArrayList<>();
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            messages.add(receipt(entry.getReceiptHandle()));
+            entries.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+        }
+        queues.deleteBatch(name(request.getQueueUrl()), messages);
+        return new DeleteMessageBatchResult().withSuccessful(entries);
+    }
+
+    @Override
+    public void changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        queues.changeVisibility(name(request.getQueueUrl()), receipt(request.getReceiptHandle()),
+                request.getVisibilityTimeout(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(String queueUrl, List<String> attributeNames) {
+        return getQueueAttributes(new GetQueueAttributesRequest(queueUrl, attributeNames));
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+        String name = name(request.getQueueUrl());
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(QueueAttributeName.ApproximateNumberOfMessages.toString(), Long.toString(queues.messagesInQueue(name)));
+        attributes.put(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), Long.toString(queues.pendingMessages(name)));
+        return new GetQueueAttributesResult().withAttributes(attributes);
+    }
+
+    /**
+     * Both urls and plain queue names are accepted
+     */
+    private String name(String queueUrl) {
+        return queueUrl.startsWith(URL_PREFIX) ? queueUrl.substring(URL_PREFIX.length()) : queueUrl;
+    }
+
+    /**
+     * Receipt handle is a message uuid, in-memory queues match pending messages by uuid
+     */
+    private com.example.beans.Message receipt(String receiptHandle) {
+        return new com.example.beans.Message<>(null).withUuid(receiptHandle);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example;
+
+import com.example.beans.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of QueueService.
+ * Operations return immediately, futures are completed once the operation is done,
+ * so many operations can be in flight on a few threads.
+ * Futures fail with the same exceptions the blocking methods throw.
+ */
+public interface AsyncQueueService {
+
+    CompletableFuture<Void> push(String queueName, Message message);
+
+    /**
+     * @return future of a message or null if the queue is empty
+     */
+    CompletableFuture<Message> pull(String queueName);
+
+    /**
+     * Wait for a message up to waitTime without blocking a thread
+     * @return future of a message or null if nothing was pushed in time
+     */
+    CompletableFuture<Message> pull(String queueName, long waitTime, TimeUnit unit);
+
+    CompletableFuture<Void> delete(String queueName, Message message);
+
+    CompletableFuture<Void> pushBatch(String queueName, List<Message> messages);
+
+    CompletableFuture<List<Message>> pullBatch(String queueName, int max);
+
+    CompletableFuture<Void> deleteBatch(String queueName, List<Message> messages);
+
+    CompletableFuture<Void> changeVisibility(String queueName, Message message, long timeout, TimeUnit unit);
+}
@@ -1,5 +1,17 @@
 package com.example;
 
+import com.example.beans.Message;
+import com.example.beans.PendingMessage;
+import com.example.beans.RedrivePolicy;
+import com.example.dedup.DeduplicationCache;
+import com.example.lock.PushSignal;
+import com.example.timer.DelayScheduler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -9,6 +21,20 @@ import java.util.concurrent.TimeUnit;
 public abstract class BaseQueueService implements QueueService {
 
     private final long timeout;
+    private final PushSignal pushSignal = new PushSignal();
+    private final Map<String, RedrivePolicy> redrivePolicies = new ConcurrentHashMap<>();
+    private final List<QueueEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    //Messages pushed with a delay, pushed to their queues once due.
+    //Deduplication id was taken by the delayed push, so it is released for the actual one
+    private final DelayScheduler<PendingMessage> delayed = new DelayScheduler<>(
+            getClass().getSimpleName() + "-delays", pending -> {
+                forgetDeduplication(pending.getQueuName(), Collections.singletonList(pending.getMessage()));
+                push(pending.getQueuName(), pending.getMessage());
+            });
+
+    //Ids of recently pushed messages, deduplication is disabled if null
+    private volatile DeduplicationCache deduplication;
 
     /**
      * Creates a scheduled cleanup thread that will move delayed pending
@@ -17,17 +43,193 @@ public abstract class BaseQueueService implements QueueService {
      * @param timeout
      */
     public BaseQueueService(long timeout) {
+        this(timeout, timeout);
+    }
+
+    /**
+     * @param timeout
+     * @param sweepInterval - how often pending messages are checked for expiry
+     */
+    public BaseQueueService(long timeout, long sweepInterval) {
         this.timeout = timeout;
-        Executors.newScheduledThreadPool(1).scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                clearPending();
-            }
-        }, timeout, timeout, TimeUnit.MILLISECONDS);
+        if (timeout > 0) {
+            Executors.newScheduledThreadPool(1).scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long started = System.nanoTime();
+                    clearPending();
+                    if (!listeners.isEmpty()) {
+                        long duration = System.nanoTime() - started;
+                        for (QueueEventListener listener : listeners) {
+                            listener.onSweep(duration);
+                        }
+                    }
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     protected abstract void clearPending();
 
+    /**
+     * Hold a message in process memory and push it once the delay is over.
+     * Delayed messages are not persisted, services with a storage override this
+     */
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            push(queueName, message);
+            return;
+        }
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        delayed.schedule(new PendingMessage(queueName, message), System.currentTimeMillis() + unit.toMillis(delay));
+    }
+
+    /**
+     * Drop messages held for delayed delivery to a queue. Should be called when the queue is cleared
+     */
+    protected void clearDelayed(String queueName) {
+        delayed.removeIf(pending -> pending.getQueuName().equals(queueName));
+    }
+
+    /**
+     * Subscribe to internal events of the service
+     */
+    public void addListener(QueueEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(QueueEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Report messages with expired visibility timeout
+     */
+    protected void expired(String queueName, int count) {
+        for (QueueEventListener listener : listeners) {
+            listener.onExpired(queueName, count);
+        }
+    }
+
+    /**
+     * Move messages of a queue to a dead-letter queue once they were received too many times
+     */
+    public BaseQueueService withRedrivePolicy(String queueName, RedrivePolicy policy) {
+        redrivePolicies.put(queueName, policy);
+        return this;
+    }
+
+    /**
+     * Drop pushes of messages with a "deduplicationId" attribute seen within the window,
+     * e.g. retries of a push that timed out. Ids are kept in process memory
+     */
+    public BaseQueueService withDeduplication(long window, TimeUnit unit) {
+        return withDeduplication(window, unit, DeduplicationCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries - max number of remembered ids, the oldest ones are forgotten early beyond it
+     */
+    public BaseQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        this.deduplication = new DeduplicationCache(window, unit, maxEntries);
+        return this;
+    }
+
+    /**
+     * Remember a deduplication id of a message about to be pushed
+     * @return false if the message should be dropped as a duplicate
+     */
+    protected boolean deduplicate(String queueName, Message message) {
+        DeduplicationCache cache = deduplication;
+        return cache == null || cache.add(queueName, message);
+    }
+
+    /**
+     * Remember deduplication ids of messages about to be pushed
+     * @return messages that are not duplicates
+     */
+    protected List<Message> deduplicate(String queueName, List<Message> messages) {
+        DeduplicationCache cache = deduplication;
+        return cache == null ? messages : cache.unique(queueName, messages);
+    }
+
+    /**
+     * Forget deduplication ids of messages that were not pushed, so a retry is accepted
+     */
+    protected void forgetDeduplication(String queueName, List<Message> messages) {
+        DeduplicationCache cache = deduplication;
+        if (cache != null) {
+            cache.remove(queueName, messages);
+        }
+    }
+
+    /**
+     * Check if a message that is about to become visible again should be dead-lettered
+     * @return policy to apply or null if the message should be redelivered
+     */
+    protected RedrivePolicy deadLetterPolicy(String queueName, int receiveCount) {
+        RedrivePolicy policy = redrivePolicies.get(queueName);
+        return policy != null && receiveCount >= policy.getMaxReceiveCount() ? policy : null;
+    }
+
+    /**
+     * Push a message of a queue to its dead-letter queue. Receive count is reset there
+     */
+    protected void deadLetter(String queueName, RedrivePolicy policy, Message message) {
+        message.getAttributes().remove(RedrivePolicy.RECEIVE_COUNT_KEY);
+        push(policy.getDeadLetterQueue(), message);
+        for (QueueEventListener listener : listeners) {
+            listener.onDeadLettered(queueName, policy.getDeadLetterQueue(), 1);
+        }
+    }
+
+    /**
+     * Pull a message parking the caller until a push signal arrives or waitTime expires
+     */
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        while (true) {
+            //Read the version before checking the queue not to miss a push in between
+            long version = pushSignal.version(queueName);
+            Message message = pull(queueName);
+            if (message != null) {
+                return message;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            pushSignal.await(queueName, version, Math.min(remaining, prepareAwait(queueName)));
+        }
+    }
+
+    /**
+     * Notify consumers waiting on a queue that messages became available.
+     * Should be called after pushes and redeliveries
+     */
+    protected void signal(String queueName) {
+        pushSignal.signal(queueName);
+    }
+
+    /**
+     * Push notifications of this service. Used by asynchronous adapters
+     */
+    PushSignal getPushSignal() {
+        return pushSignal;
+    }
+
+    /**
+     * Called before a consumer parks waiting for a push
+     * @return max time in nanoseconds to park before checking the queue again
+     */
+    protected long prepareAwait(String queueName) {
+        return Long.MAX_VALUE;
+    }
+
     @Override
     public long getTimeout() {
         return timeout;
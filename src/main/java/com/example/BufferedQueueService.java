@@ -0,0 +1,363 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.error.BatchException;
+import com.example.error.QueueException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Client side buffering decorator.
+ * Concurrent pushes and deletes are coalesced into batch calls of the underlying service.
+ * A batch is sent once it is full or the oldest entry has waited for max linger time,
+ * each caller is completed individually when its batch is done, so a failed entry
+ * reported with BatchException fails only its own caller.
+ * Pulls are served from a local bounded buffer that is refilled with batch pulls.
+ * Buffered messages are already in flight, so a message is handed out only while
+ * its visibility timeout is far enough from expiry; older ones are dropped and get redelivered.
+ * Designed for SQS, where every request is a round trip, but works over any service.
+ */
+public class BufferedQueueService extends ForwardingQueueService implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10;
+    public static final long DEFAULT_MAX_LINGER_MILLIS = 5;
+
+    private final ScheduledExecutorService scheduler;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_LINGER_MILLIS);
+    private int prefetchSize = DEFAULT_MAX_BATCH_SIZE;
+    private long prefetchMaxAgeNanos;
+
+    private final Map<String, Batcher> pushes = new ConcurrentHashMap<>();
+    private final Map<String, Batcher> deletes = new ConcurrentHashMap<>();
+    private final Map<String, Deque<Prefetched>> prefetched = new ConcurrentHashMap<>();
+
+    /**
+     * @param scheduler - sends batches that were not filled within max linger time
+     */
+    public BufferedQueueService(QueueService delegate, ScheduledExecutorService scheduler) {
+        super(delegate);
+        this.scheduler = scheduler;
+        //Leave consumers at least a half of the visibility timeout
+        this.prefetchMaxAgeNanos = delegate.getTimeout() > 0 ?
+                TimeUnit.MILLISECONDS.toNanos(delegate.getTimeout()) / 2 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Max number of messages in a batch call. SQS accepts up to 10
+     */
+    public BufferedQueueService withMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Max time a push or delete waits for other calls to fill its batch
+     */
+    public BufferedQueueService withMaxLinger(long linger, TimeUnit unit) {
+        this.maxLingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    /**
+     * Max number of messages pulled ahead per queue, 0 disables prefetching
+     */
+    public BufferedQueueService withPrefetch(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+        return this;
+    }
+
+    /**
+     * Max time a prefetched message can wait in the buffer. Defaults to a half of the visibility timeout
+     */
+    public BufferedQueueService withPrefetchMaxAge(long maxAge, TimeUnit unit) {
+        this.prefetchMaxAgeNanos = unit.toNanos(maxAge);
+        return this;
+    }
+
+    /**
+     * Add a message to the next push batch
+     * @return future completed once the batch was pushed
+     */
+    public CompletableFuture<Void> pushAsync(String queueName, Message message) {
+        return pushes.computeIfAbsent(queueName, name -> new Batcher(name, delegate::pushBatch)).add(message);
+    }
+
+    /**
+     * Add a message to the next delete batch
+     * @return future completed once the batch was deleted
+     */
+    public CompletableFuture<Void> deleteAsync(String queueName, Message message) {
+        return deletes.computeIfAbsent(queueName, name -> new Batcher(name, delegate::deleteBatch)).add(message);
+    }
+
+    /**
+     * Push a message as a part of a batch. Blocks until the batch is pushed
+     */
+    @Override
+    public void push(String queueName, Message message) {
+        await(pushAsync(queueName, message));
+    }
+
+    /**
+     * Delete a message as a part of a batch. Blocks until the batch is deleted
+     */
+    @Override
+    public void delete(String queueName, Message message) {
+        await(deleteAsync(queueName, message));
+    }
+
+    /**
+     * Take a message from the prefetch buffer, refill the buffer with a batch pull if it is empty
+     */
+    @Override
+    public Message pull(String queueName) {
+        if (prefetchSize <= 0) {
+            return delegate.pull(queueName);
+        }
+        Message message = poll(queueName);
+        if (message != null) {
+            return message;
+        }
+        List<Message> messages = delegate.pullBatch(queueName, prefetchSize);
+        if (messages.isEmpty()) {
+            return null;
+        }
+        buffer(queueName, messages.subList(1, messages.size()));
+        return messages.get(0);
+    }
+
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        Message message = pull(queueName);
+        return message != null ? message : delegate.pull(queueName, waitTime, unit);
+    }
+
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        List<Message> messages = new ArrayList<>();
+        Message message;
+        while (messages.size() < max && (message = poll(queueName)) != null) {
+            messages.add(message);
+        }
+        if (messages.size() < max) {
+            messages.addAll(delegate.pullBatch(queueName, max - messages.size()));
+        }
+        return messages;
+    }
+
+    /**
+     * Drop buffered messages and clear the queue
+     */
+    @Override
+    public void clearMessages(String queueName) {
+        Deque<Prefetched> buffer = prefetched.get(queueName);
+        if (buffer != null) {
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+        delegate.clearMessages(queueName);
+    }
+
+    /**
+     * Send all pending batches
+     */
+    public void flush() {
+        for (Batcher batcher : pushes.values()) {
+            batcher.flush();
+        }
+        for (Batcher batcher : deletes.values()) {
+            batcher.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        for (Map.Entry<String, Deque<Prefetched>> entry : prefetched.entrySet()) {
+            List<Prefetched> released;
+            synchronized (entry.getValue()) {
+                released = new ArrayList<>(entry.getValue());
+                entry.getValue().clear();
+            }
+            for (Prefetched message : released) {
+                release(entry.getKey(), message.message);
+            }
+        }
+    }
+
+    /**
+     * Take a buffered message that is still safe to process
+     */
+    private Message poll(String queueName) {
+        Deque<Prefetched> buffer = prefetched.get(queueName);
+        if (buffer == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        synchronized (buffer) {
+            Prefetched message;
+            while ((message = buffer.poll()) != null) {
+                if (now - message.fetched < prefetchMaxAgeNanos) {
+                    return message.message;
+                }
+                //Stale message will be redelivered once its visibility timeout expires
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keep pulled messages for the next pulls. Messages that don't fit are made visible again
+     */
+    private void buffer(String queueName, List<Message> messages) {
+        Deque<Prefetched> buffer = prefetched.computeIfAbsent(queueName, name -> new ArrayDeque<>());
+        long now = System.nanoTime();
+        List<Message> released = new ArrayList<>();
+        synchronized (buffer) {
+            for (Message message : messages) {
+                if (buffer.size() < prefetchSize) {
+                    buffer.add(new Prefetched(message, now));
+                } else {
+                    released.add(message);
+                }
+            }
+        }
+        for (Message message : released) {
+            release(queueName, message);
+        }
+    }
+
+    private void release(String queueName, Message message) {
+        try {
+            delegate.changeVisibility(queueName, message, 0, TimeUnit.MILLISECONDS);
+        } catch (QueueException e) {
+            //Already expired - it is visible anyway
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new QueueException("Batch call failed", e.getCause());
+        }
+    }
+
+    /**
+     * Accumulates calls of a queue into batches
+     */
+    private class Batcher {
+        private final String queueName;
+        private final BiConsumer<String, List<Message>> sender;
+        private List<Entry> entries = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+
+        private Batcher(String queueName, BiConsumer<String, List<Message>> sender) {
+            this.queueName = queueName;
+            this.sender = sender;
+        }
+
+        private CompletableFuture<Void> add(Message message) {
+            Entry entry = new Entry(message);
+            List<Entry> full = null;
+            synchronized (this) {
+                entries.add(entry);
+                if (entries.size() >= maxBatchSize) {
+                    full = take();
+                } else if (timer == null) {
+                    timer = scheduler.schedule(this::flush, maxLingerNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            //A full batch is sent by the thread that filled it
+            if (full != null) {
+                send(full);
+            }
+            return entry.future;
+        }
+
+        private void flush() {
+            List<Entry> batch;
+            synchronized (this) {
+                batch = take();
+            }
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        }
+
+        private List<Entry> take() {
+            List<Entry> batch = entries;
+            entries = new ArrayList<>();
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            return batch;
+        }
+
+        private void send(List<Entry> batch) {
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                messages.add(entry.message);
+            }
+            Set<Message> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+            BatchException batchFailure = null;
+            try {
+                sender.accept(queueName, messages);
+            } catch (BatchException e) {
+                //Only callers of the failed entries see the failure
+                failed.addAll(e.getFailed());
+                batchFailure = e;
+            } catch (RuntimeException e) {
+                for (Entry entry : batch) {
+                    entry.future.completeExceptionally(e);
+                }
+                return;
+            }
+            for (Entry entry : batch) {
+                if (failed.contains(entry.message)) {
+                    entry.future.completeExceptionally(batchFailure);
+                } else {
+                    entry.future.complete(null);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final Message message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Entry(Message message) {
+            this.message = message;
+        }
+    }
+
+    private static class Prefetched {
+        private final Message message;
+        private final long fetched;
+
+        private Prefetched(Message message, long fetched) {
+            this.message = message;
+            this.fetched = fetched;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.blob.BlobStore;
+import com.example.codec.BinaryMessageCodec;
+import com.example.codec.MessageCodec;
+import com.example.error.BatchException;
+import com.example.error.QueueException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claim check decorator. Bodies of large messages are stored in a blob store once
+ * and only a reference travels through the underlying queue, so queue records stay small
+ * and payloads larger than the queue limits can be sent.
+ * Pulled messages get their bodies back transparently.
+ * Blob lifecycle follows the message: a blob is committed once its message is pushed and removed
+ * when the message is deleted or the queue is cleared. Blobs no message references, e.g. of a push
+ * that failed or was interrupted, are removed with reclaimOrphans(), periodically if the service has a scheduler.
+ * A message whose blob is missing is never dropped, pulling it fails and it is redelivered or dead-lettered
+ * by the underlying service.
+ */
+public class ClaimCheckQueueService extends ForwardingQueueService {
+    public static final String CLAIM_CHECK_KEY = "claimCheck";
+
+    //Max number of UTF-8 bytes per char
+    private static final int MAX_CHAR_SIZE = 3;
+
+    private final BlobStore store;
+    private final int threshold;
+    private MessageCodec codec = new BinaryMessageCodec();
+
+    //Queues this service stored or restored blobs of, reclaimed by the scheduler
+    private final Set<String> queueNames = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> reclaim;
+
+    /**
+     * @param threshold - min size of an encoded body in bytes to be offloaded
+     */
+    public ClaimCheckQueueService(QueueService delegate, BlobStore store, int threshold) {
+        this(delegate, store, threshold, null);
+    }
+
+    /**
+     * @param scheduler - runs orphan reclaim enabled with withOrphanReclaim
+     */
+    public ClaimCheckQueueService(QueueService delegate, BlobStore store, int threshold, ScheduledExecutorService scheduler) {
+        super(delegate);
+        this.store = store;
+        this.threshold = threshold;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Set a codec for offloaded bodies. Should be the same for all producers and consumers
+     */
+    public ClaimCheckQueueService withCodec(MessageCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * Reclaim orphaned blobs of queues used by this service every interval.
+     * Replaces a previous schedule
+     * @param maxAge - see reclaimOrphans()
+     */
+    public synchronized ClaimCheckQueueService withOrphanReclaim(long maxAge, long interval, TimeUnit unit) {
+        if (scheduler == null) {
+            throw new IllegalStateException("Orphan reclaim requires a scheduler");
+        }
+        if (reclaim != null) {
+            reclaim.cancel(false);
+        }
+        reclaim = scheduler.scheduleWithFixedDelay(() -> {
+            for (String queueName : queueNames) {
+                try {
+                    reclaimOrphans(queueName, maxAge, unit);
+                } catch (RuntimeException e) {
+                    //Retried on the next run
+                }
+            }
+        }, interval, interval, unit);
+        return this;
+    }
+
+    /**
+     * Push a message offloading its body if it is large.
+     * Blob is removed if the message couldn't be pushed
+     */
+    @Override
+    public void push(String queueName, Message message) {
+        Message sent = offload(queueName, message);
+        try {
+            delegate.push(queueName, sent);
+        } catch (RuntimeException e) {
+            release(sent);
+            throw e;
+        }
+        commit(sent);
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        Message sent = offload(queueName, message);
+        try {
+            delegate.push(queueName, sent, delay, unit);
+        } catch (RuntimeException e) {
+            release(sent);
+            throw e;
+        }
+        commit(sent);
+    }
+
+    /**
+     * Push messages offloading large bodies. Blobs of entries reported failed with BatchException are released.
+     * Blobs are kept on other failures as some messages may have been pushed, unused ones are reclaimed as orphans
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        List<Message> sent = new ArrayList<>(messages.size());
+        for (Message message : messages){
+            sent.add(offload(queueName, message));
+        }
+        try {
+            delegate.pushBatch(queueName, sent);
+        } catch (BatchException e) {
+            //Only failed entries are released, the rest were pushed and reference their blobs
+            Set<Message> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+            failed.addAll(e.getFailed());
+            List<Message> unsent = new ArrayList<>();
+            for (int i = 0; i < sent.size(); i++){
+                if (failed.contains(sent.get(i))){
+                    release(sent.get(i));
+                    unsent.add(messages.get(i));
+                } else {
+                    commit(sent.get(i));
+                }
+            }
+            //Callers match failed entries with the messages they passed
+            throw new BatchException(e.getMessage(), unsent, e);
+        }
+        for (Message message : sent){
+            commit(message);
+        }
+    }
+
+    /**
+     * Pull a message and restore its body
+     * @throws QueueException if the blob of the message is missing, the message stays in flight
+     */
+    @Override
+    public Message pull(String queueName) {
+        Message message = delegate.pull(queueName);
+        if (message != null){
+            restore(queueName, message);
+        }
+        return message;
+    }
+
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        Message message = delegate.pull(queueName, waitTime, unit);
+        if (message != null){
+            restore(queueName, message);
+        }
+        return message;
+    }
+
+    /**
+     * Pull messages and restore their bodies. If a blob is missing, other messages are made visible again
+     * @throws QueueException if the blob of a message is missing, the message stays in flight
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        List<Message> messages = delegate.pullBatch(queueName, max);
+        for (int i = 0; i < messages.size(); i++){
+            try {
+                restore(queueName, messages.get(i));
+            } catch (RuntimeException e) {
+                for (int j = 0; j < messages.size(); j++){
+                    if (j != i){
+                        releaseVisibility(queueName, messages.get(j));
+                    }
+                }
+                throw e;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Delete a message and its blob
+     */
+    @Override
+    public void delete(String queueName, Message message) {
+        delegate.delete(queueName, message);
+        release(message);
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        delegate.deleteBatch(queueName, messages);
+        for (Message message : messages){
+            release(message);
+        }
+    }
+
+    /**
+     * Drop all messages and blobs of the queue
+     */
+    @Override
+    public void clearMessages(String queueName) {
+        delegate.clearMessages(queueName);
+        store.deleteAll(queueName);
+    }
+
+    /**
+     * Remove blobs no pushed message references, stored longer than maxAge ago.
+     * Max age should be longer than a push can take. Blobs of queued messages are kept however long they wait
+     * @return number of removed blobs
+     */
+    public int reclaimOrphans(String queueName, long maxAge, TimeUnit unit) {
+        return store.reclaim(queueName, maxAge, unit);
+    }
+
+    /**
+     * Get a copy of the message referencing a stored body or the message itself if it is small
+     * or its body can't be encoded with the codec
+     */
+    private Message offload(String queueName, Message message) {
+        if (!mayBeLarge(message.getBody())){
+            return message;
+        }
+        byte[] body;
+        try {
+            body = codec.encode(new Message<>(message.getBody()).withUuid(message.getUuid()));
+        } catch (QueueException e) {
+            //Codec has no serializer for the body, the delegate may still be able to send it
+            return message;
+        }
+        if (body.length < threshold){
+            return message;
+        }
+        queueNames.add(queueName);
+        Message reference = new Message<>(null).withUuid(message.getUuid());
+        reference.getAttributes().putAll(message.getAttributes());
+        reference.getAttributes().put(CLAIM_CHECK_KEY, store.put(queueName, body));
+        return reference;
+    }
+
+    /**
+     * Cheap check to skip encoding of small strings and byte arrays
+     */
+    private boolean mayBeLarge(Object body) {
+        if (body == null){
+            return false;
+        }
+        if (body instanceof byte[]){
+            return ((byte[]) body).length >= threshold;
+        }
+        if (body instanceof String){
+            return ((String) body).length() * MAX_CHAR_SIZE >= threshold;
+        }
+        return true;
+    }
+
+    /**
+     * Put the stored body back into a pulled message.
+     * A message referencing a missing blob can't be processed, it is left in flight to be redelivered,
+     * so a redrive policy of the underlying service moves it to the dead-letter queue
+     */
+    @SuppressWarnings("unchecked")
+    private void restore(String queueName, Message message) {
+        String key = (String) message.getAttributes().get(CLAIM_CHECK_KEY);
+        if (key == null){
+            return;
+        }
+        queueNames.add(queueName);
+        byte[] body = store.get(key);
+        if (body == null){
+            throw new QueueException(String.format("Blob [%s] of message [%s] is missing", key, message.getUuid()));
+        }
+        //A push that failed ambiguously may still have queued the message
+        store.commit(key);
+        message.setBody(codec.decode(body).getBody());
+    }
+
+    private void releaseVisibility(String queueName, Message message) {
+        try {
+            delegate.changeVisibility(queueName, message, 0, TimeUnit.MILLISECONDS);
+        } catch (QueueException e) {
+            //Already expired - it is visible anyway
+        }
+    }
+
+    private void commit(Message message) {
+        String key = (String) message.getAttributes().get(CLAIM_CHECK_KEY);
+        if (key != null){
+            store.commit(key);
+        }
+    }
+
+    private void release(Message message) {
+        String key = (String) message.getAttributes().get(CLAIM_CHECK_KEY);
+        if (key != null){
+            store.delete(key);
+        }
+    }
+}
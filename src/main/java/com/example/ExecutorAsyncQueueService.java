@@ -0,0 +1,116 @@
+package com.example;
+
+import com.example.beans.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous adapter running blocking calls of any queue service on a dedicated I/O executor.
+ * Suits the file based services: callers are never blocked by disk I/O and lock waits,
+ * the number of threads doing I/O is bounded by the executor.
+ */
+public class ExecutorAsyncQueueService implements AsyncQueueService, AutoCloseable {
+    private final QueueService delegate;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Run calls on an own pool of daemon threads
+     * @param ioThreads - number of threads doing I/O
+     */
+    public ExecutorAsyncQueueService(QueueService delegate, int ioThreads) {
+        this(delegate, Executors.newFixedThreadPool(ioThreads, new IoThreadFactory()), true);
+    }
+
+    /**
+     * Run calls on a given executor. Executor is not shut down on close
+     */
+    public ExecutorAsyncQueueService(QueueService delegate, ExecutorService executor) {
+        this(delegate, executor, false);
+    }
+
+    private ExecutorAsyncQueueService(QueueService delegate, ExecutorService executor, boolean ownsExecutor) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    @Override
+    public CompletableFuture<Void> push(String queueName, Message message) {
+        return run(() -> delegate.push(queueName, message));
+    }
+
+    @Override
+    public CompletableFuture<Message> pull(String queueName) {
+        return call(() -> delegate.pull(queueName));
+    }
+
+    /**
+     * Waiting occupies an I/O thread, waits should be short compared to the pool size
+     */
+    @Override
+    public CompletableFuture<Message> pull(String queueName, long waitTime, TimeUnit unit) {
+        return call(() -> delegate.pull(queueName, waitTime, unit));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String queueName, Message message) {
+        return run(() -> delegate.delete(queueName, message));
+    }
+
+    @Override
+    public CompletableFuture<Void> pushBatch(String queueName, List<Message> messages) {
+        return run(() -> delegate.pushBatch(queueName, messages));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> pullBatch(String queueName, int max) {
+        return call(() -> delegate.pullBatch(queueName, max));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(String queueName, List<Message> messages) {
+        return run(() -> delegate.deleteBatch(queueName, messages));
+    }
+
+    @Override
+    public CompletableFuture<Void> changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        return run(() -> delegate.changeVisibility(queueName, message, timeout, unit));
+    }
+
+    /**
+     * Shut down the own executor. Submitted operations are completed
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor){
+            executor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, executor);
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "queue-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
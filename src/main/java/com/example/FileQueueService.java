@@ -1,174 +1,774 @@
 package com.example;
 
 import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.codec.BinaryMessageCodec;
+import com.example.codec.BufferCache;
+import com.example.codec.CodecRegistry;
+import com.example.codec.MessageCodec;
 import com.example.error.QueueException;
+import com.example.journal.JournalEntry;
+import com.example.journal.QueueJournal;
+import com.example.lock.LockStats;
+import com.example.lock.QueueLock;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue keeping each message in a file. State of message files is tracked by a journal per queue,
+ * so pulled files stay in place and deletes, visibility changes and expiry don't list directories.
+ * Processes sharing the base directory are synchronised by queue locks.
+ */
 public class FileQueueService extends BaseQueueService{
     private final String baseDir;
     private final String PENDING_PATH = "pending";
-    private final String LOCK_DIR_PATH = ".lock";
+    //Message files that couldn't be decoded are moved aside, so they don't block the queue
+    private final String CORRUPT_PATH = "corrupt";
+    private final String LOCK_FILE_PATH = ".lock";
     private final String MESSAGES_PATH = "messages";
 
-    private final long LOCK_ITERATION_TIMEOUT = 100;
+    //Delayed messages are files <deliver at>-<uuid> in directories named by their delivery second,
+    //so a sweep lists due directories only, not all delayed messages
+    private final String DELAYED_PATH = "delayed";
+    private final char DELIVER_AT_SEPARATOR = '-';
+    private final long DELAYED_SWEEP_INTERVAL = 100;
+    private ScheduledExecutorService delayedSweeper;
+
+    //Delivery seconds of delayed directories are indexed, so a sweep doesn't list future buckets.
+    //An index is rebuilt when its directory is changed by another process. Directory times may be coarse,
+    //so it is also rebuilt periodically. Indexes are changed under queue locks
+    private final long DELAYED_RESCAN_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private final Map<String, DelayedIndex> delayedIndexes = new ConcurrentHashMap<>();
+
+    //Before journaling pulled message files were moved to pending directory as <time>.<receive count>.<uuid>
+    private static final char RECEIVES_SEPARATOR = '.';
+
+    //Journal knows the exact deadlines, so sweeps are frequent and cheap
+    private static final long SWEEP_INTERVAL = 100;
+
+    //Each queue has its own lock
+    private final Map<String, QueueLock> locks = new ConcurrentHashMap<>();
+
+    //Journals of queues used by this service, guarded by queue locks
+    private final Map<String, QueueJournal> journals = new ConcurrentHashMap<>();
+
+    //Directory watches used by blocking pulls
+    private final long WATCH_RECHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private final Map<String, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    //Message files are written with a codec, compact binary codec is used by default
+    //Files are trusted, records written with Java serialization by previous versions are still read
+    private final CodecRegistry codecs = new CodecRegistry(BinaryMessageCodec.withStandardClasses());
+    private final BufferCache buffers = new BufferCache();
 
     /**
      * Constructor
      * Creates a base directory if needed
      */
     public FileQueueService(long timeout, String baseDir) {
-        super(timeout);
+        super(timeout, Math.max(1, Math.min(timeout, SWEEP_INTERVAL)));
         this.baseDir = baseDir;
         File file = new File(baseDir);
         if (!file.exists()){
             file.mkdir();
         }
+        //Deliver messages delayed by other processes or before a restart
+        if (!getDelayedDirs().isEmpty()){
+            startDelayedSweeper();
+        }
     }
 
+    /**
+     * Set a default codec for message files. Should be the same for all services sharing the base directory
+     * Default codec reads Java serialized values of JDK classes only, other classes are allowed with withAllowedClasses
+     */
+    public FileQueueService withCodec(MessageCodec codec) {
+        codecs.setDefault(codec);
+        return this;
+    }
+
+    /**
+     * Replace the default codec with one also allowing Java serialization of body classes matching the patterns,
+     * e.g. "com.acme.events.*". Malformed patterns fail here, bodies of other classes fail on push
+     */
+    public FileQueueService withAllowedClasses(String... patterns) {
+        return withCodec(BinaryMessageCodec.withStandardClasses(patterns));
+    }
+
+    /**
+     * Set a codec for a single queue, e.g. to tune compression of its messages
+     */
+    public FileQueueService withCodec(String queueName, MessageCodec codec) {
+        codecs.register(queueName, codec);
+        return this;
+    }
+
+    @Override
+    public FileQueueService withRedrivePolicy(String queueName, RedrivePolicy policy) {
+        super.withRedrivePolicy(queueName, policy);
+        return this;
+    }
+
+    /**
+     * Ids are remembered by this service only, pushes of other processes sharing the directory are not deduplicated
+     */
+    @Override
+    public FileQueueService withDeduplication(long window, TimeUnit unit) {
+        super.withDeduplication(window, unit);
+        return this;
+    }
+
+    @Override
+    public FileQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        super.withDeduplication(window, unit, maxEntries);
+        return this;
+    }
 
     @Override
     public void push(String queueName, Message message) {
-        //We keep reception time of the message to use it as index for FIFO
-        //will be a part of a filename
-        long now = System.nanoTime();
+        pushBatch(queueName, Collections.singletonList(message));
+    }
+
+    @Override
+    public Message pull(String queueName) {
+        List<Message> messages = pullBatch(queueName, 1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
 
+    @Override
+    public void delete(String queueName, Message message) {
+        deleteBatch(queueName, Collections.singletonList(message));
+    }
+
+    /**
+     * Write all messages under a single lock acquisition.
+     * Duplicates are dropped, messages that failed to be written can be pushed again
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        List<Message> unique = deduplicate(queueName, messages);
+        if (unique.isEmpty()) {
+            return;
+        }
         //Create a directory for the queue if a new queue name received
         File queueDir = getQueueBaseDir(queueName);
         if (!queueDir.exists()){
             queueDir.mkdir();
         }
-
-        //Lock is implemented thorough a hidden directory
-        //Each queue has its own lock
-        File lock = getLock(queueName);
+        int written = 0;
+        QueueLock lock = lockForPush(queueName, unique);
         try {
-            lock(lock);
-            //Serialize message
-            writeToFile(queueName, message, now);
+            QueueJournal journal = getJournal(queueName);
+            File messagesDir = getQueueDir(queueName);
+            if (!messagesDir.exists()){
+                messagesDir.mkdir();
+            }
+            //We keep reception time of the message to use it as index for FIFO
+            //will be a part of a filename.
+            //Keep FIFO order inside the batch even if nanoTime doesn't move between writes
+            long time = 0;
+            for (Message message : unique){
+                time = Math.max(System.nanoTime(), time + 1);
+                String fileName = time + message.getUuid();
+                writeToFile(queueName, message, new File(messagesDir, fileName));
+                journal.enqueue(fileName, 0);
+                written++;
+            }
         } catch (IOException e){
+            forgetDeduplication(queueName, unique.subList(written, unique.size()));
             throw new QueueException("Error occurred while performing file operations", e);
-        }finally {
-            unlock(lock);
+        } catch (RuntimeException e){
+            forgetDeduplication(queueName, unique.subList(written, unique.size()));
+            throw e;
+        } finally {
+            unlock(queueName, lock);
         }
+        signal(queueName);
     }
 
+    /**
+     * Write a message into the delayed directory of its delivery second.
+     * It is moved to the queue by a sweeper once due
+     */
     @Override
-    public Message pull(String queueName) {
-        File lock = getLock(queueName);
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        if (delay <= 0){
+            push(queueName, message);
+            return;
+        }
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        long deliverAt = System.currentTimeMillis() + unit.toMillis(delay);
+        long second = TimeUnit.MILLISECONDS.toSeconds(deliverAt);
+        File delayedDir = getQueueDelayedDir(queueName);
+        File bucket = new File(delayedDir, Long.toString(second));
+        QueueLock lock = lockForPush(queueName, Collections.singletonList(message));
         try {
-            lock(lock);
-
-            //Pull will move file to a pending messages directory
-            //Create a directory if does not exist
-            File pendings = getQueuePendingDir(queueName);
-            if (!pendings.exists()){
-                pendings.mkdir();
-            }
-            File queueDir = getQueueDir(queueName);
-            File[] files = queueDir.listFiles();
-            if (files.length == 0){
-                return null;
+            long modified = delayedDir.lastModified();
+            if (!bucket.exists()){
+                bucket.mkdirs();
             }
+            writeToFile(queueName, message, new File(bucket, Long.toString(deliverAt) + DELIVER_AT_SEPARATOR + message.getUuid()));
+            getDelayedIndex(queueName).add(second, modified, delayedDir.lastModified());
+        } catch (IOException e){
+            forgetDeduplication(queueName, Collections.singletonList(message));
+            throw new QueueException("Error occurred while performing file operations", e);
+        } catch (RuntimeException e){
+            forgetDeduplication(queueName, Collections.singletonList(message));
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        startDelayedSweeper();
+    }
 
-            //Select the file with lowest receive timestamp
-            File messageFile = null;
-            for (File file : files){
-                if (messageFile == null || file.getName().compareTo(messageFile.getName()) < 0){
-                    messageFile = file;
+    /**
+     * Pull up to max messages from the head of the journal with a single lock acquisition.
+     * Message files stay in place, the journal records their visibility deadlines.
+     * Files that can't be decoded are moved to the corrupt directory of the queue and skipped
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        QueueLock lock = getLock(queueName);
+        lock.lock();
+        try {
+            QueueJournal journal = getJournal(queueName);
+            long deadline = deadline(System.currentTimeMillis());
+            List<Message> messages = new ArrayList<>();
+            //Skipped entries leave the journal, so the next entries are taken until the batch is full
+            List<JournalEntry> entries;
+            while (messages.size() < max && !(entries = journal.firstVisible(max - messages.size())).isEmpty()){
+                for (JournalEntry entry : entries){
+                    File messageFile = new File(getQueueDir(queueName), entry.getFileName());
+                    if (!messageFile.exists()){
+                        //A crash between a file removal and its journal record
+                        journal.ack(entry);
+                        continue;
+                    }
+                    byte[] bytes;
+                    try {
+                        bytes = Files.readAllBytes(messageFile.toPath());
+                    } catch (IOException e){
+                        //Messages already marked in flight are handed out, the entry is retried by the next pull
+                        if (messages.isEmpty()){
+                            throw new QueueException("Couldn't read file", e);
+                        }
+                        return messages;
+                    }
+                    Message message;
+                    try {
+                        message = codecs.get(queueName).decode(bytes);
+                    } catch (RuntimeException e){
+                        quarantine(queueName, messageFile);
+                        journal.ack(entry);
+                        continue;
+                    }
+                    int receives = entry.getReceives() + 1;
+                    message.getAttributes().put(RedrivePolicy.RECEIVE_COUNT_KEY, receives);
+                    journal.markInFlight(entry, message.getUuid(), receives, deadline);
+                    messages.add(message);
                 }
             }
+            return messages;
+        } finally {
+            unlock(queueName, lock);
+        }
+    }
 
-            //Deserialize
-            Object message = readFromFile(messageFile);
+    /**
+     * Move a message file that can't be decoded to the corrupt directory of the queue for inspection
+     */
+    private void quarantine(String queueName, File messageFile) {
+        File corruptDir = getQueueCorruptDir(queueName);
+        if (!corruptDir.exists()){
+            corruptDir.mkdirs();
+        }
+        if (!messageFile.renameTo(new File(corruptDir, messageFile.getName()))){
+            messageFile.delete();
+        }
+    }
 
-            //Move message file to pendings
-            messageFile.renameTo(new File(getQueuePendingDir(queueName) + File.separator + messageFile.getName()));
-            return (Message)message;
+    /**
+     * Remove in-flight messages with a single lock acquisition. Files are found by uuid in the journal
+     */
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        QueueLock lock = getLock(queueName);
+        lock.lock();
+        try {
+            QueueJournal journal = getJournal(queueName);
+            for (Message message : messages){
+                JournalEntry entry = journal.getInFlight(message.getUuid());
+                if (entry != null){
+                    journal.ack(entry);
+                    new File(getQueueDir(queueName), entry.getFileName()).delete();
+                }
+            }
         } finally {
-            unlock(lock);
+            unlock(queueName, lock);
         }
     }
 
+    /**
+     * Record a new visibility deadline of an in-flight message or make it visible right away
+     */
     @Override
-    public void delete(String queueName, Message message) {
-        File lock = getLock(queueName);
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        boolean visible = false;
+        RedrivePolicy policy = null;
+        String deadLetter = null;
+        QueueLock lock = getLock(queueName);
+        lock.lock();
         try {
-            lock(lock);
-            //Each message has an UUID
-            //Find a file with corresponding uuid in name and remove it
-            for (File file : getQueuePendingDir(queueName).listFiles()){
-                if (file.getName().contains(message.getUuid())){
-                    file.delete();
-                    return;
+            QueueJournal journal = getJournal(queueName);
+            JournalEntry entry = journal.getInFlight(message.getUuid());
+            if (entry == null){
+                throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()));
+            }
+            long now = System.currentTimeMillis();
+            if (timeout <= 0){
+                policy = deadLetterPolicy(queueName, entry.getReceives());
+                if (policy != null){
+                    claim(journal, entry, now);
+                    deadLetter = entry.getFileName();
+                } else {
+                    journal.expire(entry);
+                    visible = true;
                 }
+            } else {
+                journal.markInFlight(entry, entry.getUuid(), entry.getReceives(), now + unit.toMillis(timeout));
             }
         } finally {
-            unlock(lock);
+            unlock(queueName, lock);
+        }
+        if (visible){
+            signal(queueName);
+        }
+        if (deadLetter != null){
+            deadLetter(queueName, policy, Collections.singletonList(deadLetter));
         }
     }
 
     @Override
     public long messagesInQueue(String queueName) {
-        return getQueueDir(queueName).listFiles().length;
+        return getLoadedJournal(queueName).getVisibleCount();
     }
 
     @Override
     public long pendingMessages(String queueName) {
-        return getQueuePendingDir(queueName).listFiles().length;
+        return getLoadedJournal(queueName).getInFlightCount();
     }
 
+    /**
+     * Make messages with passed visibility deadlines visible again or move them to the dead-letter queue.
+     * Only queues used by this service are swept and only when their earliest deadline has passed
+     */
     @Override
     protected void clearPending() {
-        for (File pendingDir : getPendingDirs()) {
-            for (File file : pendingDir.listFiles()) {
-                if (System.currentTimeMillis() - file.lastModified() > getTimeout()) {
-                    file.renameTo(new File(getQueueDir(pendingDir.getParentFile().getName()) + File.separator + file.getName()));
+        for (Map.Entry<String, QueueJournal> queue : journals.entrySet()) {
+            if (queue.getValue().getNextDeadline() > System.currentTimeMillis()) {
+                continue;
+            }
+            String queueName = queue.getKey();
+            QueueLock lock = getLock(queueName);
+            int expiredCount = 0;
+            RedrivePolicy policy = null;
+            List<String> deadLetters = new ArrayList<>();
+            lock.lock();
+            try {
+                QueueJournal journal = getJournal(queueName);
+                long now = System.currentTimeMillis();
+                for (JournalEntry entry : journal.due(now)) {
+                    expiredCount++;
+                    RedrivePolicy entryPolicy = deadLetterPolicy(queueName, entry.getReceives());
+                    if (entryPolicy != null) {
+                        policy = entryPolicy;
+                        claim(journal, entry, now);
+                        deadLetters.add(entry.getFileName());
+                    } else {
+                        journal.expire(entry);
+                    }
+                }
+            } finally {
+                unlock(queueName, lock);
+            }
+            if (expiredCount > deadLetters.size()) {
+                signal(queueName);
+            }
+            if (expiredCount > 0) {
+                expired(queueName, expiredCount);
+            }
+            if (!deadLetters.isEmpty()) {
+                deadLetter(queueName, policy, deadLetters);
+            }
+        }
+    }
+
+    /**
+     * Move due delayed messages to their queues. Only directories of past seconds are listed,
+     * they are found with the index of the queue
+     */
+    private void deliverDelayed() {
+        for (File delayedDir : getDelayedDirs()) {
+            String queueName = delayedDir.getParentFile().getName();
+            DelayedIndex index = getDelayedIndex(queueName);
+            long now = System.currentTimeMillis();
+            long nowSecond = TimeUnit.MILLISECONDS.toSeconds(now);
+            if (delayedDir.lastModified() != index.modified || now - index.scanned >= DELAYED_RESCAN_INTERVAL) {
+                QueueLock lock = getLock(queueName);
+                lock.lock();
+                try {
+                    index.rebuild(delayedDir, now);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (index.seconds.headSet(nowSecond, true).isEmpty()) {
+                continue;
+            }
+            boolean delivered = false;
+            QueueLock lock = getLock(queueName);
+            lock.lock();
+            try {
+                QueueJournal journal = getJournal(queueName);
+                File messagesDir = getQueueDir(queueName);
+                if (!messagesDir.exists()) {
+                    messagesDir.mkdir();
                 }
+                long modified = delayedDir.lastModified();
+                long time = 0;
+                for (Long second : new ArrayList<>(index.seconds.headSet(nowSecond, true))) {
+                    File bucket = new File(delayedDir, Long.toString(second));
+                    File[] files = bucket.listFiles();
+                    List<File> due = new ArrayList<>();
+                    boolean pending = false;
+                    for (File file : files == null ? new File[0] : files) {
+                        long deliverAt = deliverAt(file.getName());
+                        if (deliverAt < 0) {
+                            //Not a delayed message, left in place
+                            continue;
+                        }
+                        if (deliverAt <= now) {
+                            due.add(file);
+                        } else {
+                            pending = true;
+                        }
+                    }
+                    //Keep the delivery order within a second
+                    due.sort(Comparator.comparing(File::getName));
+                    for (File file : due) {
+                        String uuid = file.getName().substring(file.getName().indexOf(DELIVER_AT_SEPARATOR) + 1);
+                        time = Math.max(System.nanoTime(), time + 1);
+                        if (file.renameTo(new File(messagesDir, time + uuid))) {
+                            journal.enqueue(time + uuid, 0);
+                            delivered = true;
+                        }
+                    }
+                    //Directory is removed only once it is empty
+                    bucket.delete();
+                    if (!pending) {
+                        index.seconds.remove(second);
+                    }
+                }
+                index.update(modified, delayedDir.lastModified());
+            } finally {
+                unlock(queueName, lock);
+            }
+            if (delivered) {
+                signal(queueName);
             }
         }
     }
 
+    /**
+     * Parse delivery time of a delayed message file
+     * @return -1 if the name is not <deliver at>-<uuid>
+     */
+    private long deliverAt(String fileName) {
+        int separator = fileName.indexOf(DELIVER_AT_SEPARATOR);
+        if (separator <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private DelayedIndex getDelayedIndex(String queueName) {
+        return delayedIndexes.computeIfAbsent(queueName, name -> new DelayedIndex());
+    }
+
+    private synchronized void startDelayedSweeper() {
+        if (delayedSweeper == null) {
+            delayedSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "file-queue-delayed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            delayedSweeper.scheduleWithFixedDelay(() -> {
+                try {
+                    deliverDelayed();
+                } catch (RuntimeException e) {
+                    //Retried on the next sweep
+                }
+            }, DELAYED_SWEEP_INTERVAL, DELAYED_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Move claimed in-flight messages to the dead-letter queue.
+     * Messages stay in flight until they are written to the dead-letter queue, so a crash in between
+     * leads to a redelivery rather than a loss. Dead-letter queue is written outside of the queue lock
+     */
+    private void deadLetter(String queueName, RedrivePolicy policy, List<String> fileNames) {
+        List<Message> messages = new ArrayList<>();
+        QueueLock lock = getLock(queueName);
+        lock.lock();
+        try {
+            for (String fileName : fileNames) {
+                File file = new File(getQueueDir(queueName), fileName);
+                if (file.exists()) {
+                    messages.add(readFromFile(queueName, file));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Message message : messages) {
+            deadLetter(queueName, policy, message);
+        }
+        lock.lock();
+        try {
+            QueueJournal journal = getJournal(queueName);
+            for (String fileName : fileNames) {
+                JournalEntry entry = journal.get(fileName);
+                if (entry != null && entry.isInFlight()) {
+                    journal.ack(entry);
+                    new File(getQueueDir(queueName), fileName).delete();
+                }
+            }
+        } finally {
+            unlock(queueName, lock);
+        }
+    }
+
+    /**
+     * Take the queue lock to write pushed messages. Their deduplication ids are forgotten
+     * if the lock can't be taken, so a retry is accepted
+     */
+    private QueueLock lockForPush(String queueName, List<Message> messages) {
+        try {
+            QueueLock lock = getLock(queueName);
+            lock.lock();
+            return lock;
+        } catch (RuntimeException e) {
+            forgetDeduplication(queueName, messages);
+            throw e;
+        }
+    }
+
+    /**
+     * Extend the deadline of a message being moved to the dead-letter queue,
+     * so sweeps don't pick it up again in the meantime
+     */
+    private void claim(QueueJournal journal, JournalEntry entry, long now) {
+        journal.markInFlight(entry, entry.getUuid(), entry.getReceives(), deadline(now));
+    }
+
+    /**
+     * Visibility deadline of a message pulled now. Messages wait for confirmation forever if timeout is 0
+     */
+    private long deadline(long now) {
+        return getTimeout() > 0 ? now + getTimeout() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Drop all messages of the queue. Lock file is kept so processes
+     * sharing the directory keep excluding each other
+     */
     @Override
     public void clearMessages(String queueName) {
         File queueDir = getQueueBaseDir(queueName);
-        if (queueDir.exists()){
+        if (!queueDir.exists()){
+            return;
+        }
+        QueueLock lock = getLock(queueName);
+        lock.lock();
+        try {
+            FileUtils.deleteDirectory(getQueueDir(queueName));
+            FileUtils.deleteDirectory(getQueuePendingDir(queueName));
+            FileUtils.deleteDirectory(getQueueDelayedDir(queueName));
+            FileUtils.deleteDirectory(getQueueCorruptDir(queueName));
+            delayedIndexes.remove(queueName);
+            getJournal(queueName).clear();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't clear file queue [%s]", queueName), e);
+        } finally {
+            unlock(queueName, lock);
+        }
+    }
+
+    /**
+     * Watch the messages directory of a queue, so pushes of other processes
+     * wake up local consumers. Parking is limited to WATCH_RECHECK_INTERVAL
+     * in case an event is missed while the directory is being recreated
+     */
+    @Override
+    protected long prepareAwait(String queueName) {
+        File queueDir = getQueueDir(queueName);
+        if (!queueDir.exists()){
+            queueDir.mkdirs();
+        }
+        WatchKey watchKey = watchKeys.get(queueName);
+        if (watchKey != null && !watchKey.isValid()){
+            watchKeys.remove(queueName, watchKey);
+        }
+        watchKeys.computeIfAbsent(queueName, name -> {
             try {
-                FileUtils.deleteDirectory(queueDir);
+                return queueDir.toPath().register(getWatchService(), StandardWatchEventKinds.ENTRY_CREATE);
             } catch (IOException e) {
-                throw new QueueException(String.format("Couldn't clear file queue [%s]", queueName), e);
+                throw new QueueException(String.format("Couldn't watch file queue [%s]", name), e);
             }
+        });
+        return WATCH_RECHECK_INTERVAL;
+    }
+
+    /**
+     * Get lock acquisition counters of a queue
+     */
+    public LockStats getLockStats(String queueName) {
+        return getLock(queueName).getStats();
+    }
+
+    /**
+     * Create a watch service and a thread translating directory events into push signals
+     */
+    private synchronized WatchService getWatchService() throws IOException {
+        if (watchService == null){
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(() -> {
+                while (true) {
+                    WatchKey key;
+                    try {
+                        key = watchService.take();
+                    } catch (InterruptedException | ClosedWatchServiceException e) {
+                        return;
+                    }
+                    key.pollEvents();
+                    //Key watches queue "messages" directory
+                    String queueName = ((Path) key.watchable()).getParent().getFileName().toString();
+                    signal(queueName);
+                    if (!key.reset()){
+                        watchKeys.remove(queueName, key);
+                    }
+                }
+            }, "file-queue-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return watchService;
+    }
+
+    /**
+     * Get a queue lock. Lock is created once per queue and reused
+     */
+    private QueueLock getLock(String queueName){
+        return locks.computeIfAbsent(queueName, name -> QueueLock.forFile(getLockFile(name)));
+    }
+
+    /**
+     * Get a journal of a queue with records of other processes applied. Should be called under the queue lock.
+     * Files of a queue written before journaling are imported once
+     */
+    private QueueJournal getJournal(String queueName){
+        QueueJournal journal = journals.computeIfAbsent(queueName, name -> new QueueJournal(getQueueBaseDir(name)));
+        journal.refresh();
+        if (journal.isCreated()){
+            importFiles(queueName, journal);
         }
+        return journal;
     }
 
     /**
-     * Locking a queue by creating a directory
-     * @param lock
+     * Get a journal for counters. Loaded journals are read without the lock,
+     * so counters reflect changes of other processes as of the last lock acquisition
      */
-    private void lock(File lock){
-        while (!lock.mkdir()) {
+    private QueueJournal getLoadedJournal(String queueName){
+        QueueJournal journal = journals.get(queueName);
+        if (journal == null){
+            QueueLock lock = getLock(queueName);
+            lock.lock();
             try {
-                Thread.sleep(LOCK_ITERATION_TIMEOUT);
-            } catch (InterruptedException e) {
-                throw new QueueException("Thread was interrupted", e);
+                journal = getJournal(queueName);
+            } finally {
+                unlock(queueName, lock);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Write journal records of a locked section and release the queue lock
+     */
+    private void unlock(String queueName, QueueLock lock){
+        try {
+            QueueJournal journal = journals.get(queueName);
+            if (journal != null){
+                journal.flush();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Removes the locking file
-     * @param lock
+     * Add message files written before journaling. Pulled files are moved back
+     * from the pending directory keeping their receive counts, so they are redelivered
      */
-    private void unlock(File lock) {
-        lock.delete();
+    private void importFiles(String queueName, QueueJournal journal){
+        File messagesDir = getQueueDir(queueName);
+        File[] pendings = getQueuePendingDir(queueName).listFiles();
+        for (File file : pendings == null ? new File[0] : pendings){
+            messagesDir.mkdirs();
+            file.renameTo(new File(messagesDir, file.getName()));
+        }
+        getQueuePendingDir(queueName).delete();
+        File[] files = messagesDir.listFiles();
+        for (File file : files == null ? new File[0] : files){
+            journal.enqueue(file.getName(), receiveCount(file.getName()));
+        }
+        journal.flush();
     }
 
     /////////////Directory path methods///////////////
-    private File getLock(String queueName){
-        return new File(getQueueBaseDirPath(queueName + File.separator + LOCK_DIR_PATH));
+    private File getLockFile(String queueName){
+        return new File(getQueueBaseDirPath(queueName + File.separator + LOCK_FILE_PATH));
     }
 
     private String getQueueBaseDirPath(String queueName){
@@ -195,55 +795,111 @@ public class FileQueueService extends BaseQueueService{
         return new File(getQueuePendingDirPath(queueName));
     }
 
-    private String getMessageDirPath(String queueName, String filename){
-        return getQueueDirPath(queueName) + File.separator + filename;
+    private File getQueueCorruptDir(String queueName){
+        return new File(getQueueBaseDirPath(queueName) + File.separator + CORRUPT_PATH);
+    }
+
+    private File getQueueDelayedDir(String queueName){
+        return new File(getQueueBaseDirPath(queueName) + File.separator + DELAYED_PATH);
     }
+
     ////////////////////////////////////////////////
 
     /**
      * Serialize a message
      */
-    private void writeToFile(String queueName, Message message, long time) throws IOException {
-        File messagesDir = getQueueDir(queueName);
-        if (!messagesDir.exists()){
-            messagesDir.mkdir();
+    private void writeToFile(String queueName, Message message, File file) throws IOException {
+        ByteBuffer buffer = codecs.get(queueName).encode(message, buffers.acquire());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
         }
-        String fileName = time + message.getUuid();
-        FileOutputStream fout = new FileOutputStream(getMessageDirPath(queueName, fileName));
-        ObjectOutputStream oos = new ObjectOutputStream(fout);
-        oos.writeObject(message);
+        buffers.release(buffer);
     }
 
     /**
-     * Deserialize a message
+     * Decode a message
      */
-    private Message readFromFile(File file) {
+    private Message readFromFile(String queueName, File file) {
         try {
-            FileInputStream fin = new FileInputStream(file);
-            ObjectInputStream ois = new ObjectInputStream(fin);
-            Object message = ois.readObject();
-            ois.close();
-            return (Message)message;
-        } catch (Exception e){
+            return codecs.get(queueName).decode(Files.readAllBytes(file.toPath()));
+        } catch (IOException e){
             throw new QueueException("Couldn't read file", e);
         }
     }
 
     /**
-     * Get all pending directories for all queues
+     * Get the number of times a message file written before journaling was pulled, 0 for files that were never pulled
+     */
+    private static int receiveCount(String fileName) {
+        int first = fileName.indexOf(RECEIVES_SEPARATOR);
+        int second = first < 0 ? -1 : fileName.indexOf(RECEIVES_SEPARATOR, first + 1);
+        if (second < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(first + 1, second));
+        } catch (NumberFormatException e) {
+            //A separator belongs to a custom uuid of a file that was never pulled
+            return 0;
+        }
+    }
+
+    /**
+     * Get delayed directories of all queues
      */
-    private List<File> getPendingDirs() {
+    private List<File> getDelayedDirs() {
         List<File> dirs = new ArrayList<>();
-        for (File queueDir : new File(baseDir).listFiles()){
-            if (queueDir.isDirectory()){
-                for (File dir : queueDir.listFiles()){
-                    if (dir.isDirectory() && dir.getName().equals(PENDING_PATH)){
-                        dirs.add(dir);
-                    }
-                    continue;
-                }
+        File[] queueDirs = new File(baseDir).listFiles();
+        for (File queueDir : queueDirs == null ? new File[0] : queueDirs){
+            File delayedDir = new File(queueDir, DELAYED_PATH);
+            if (delayedDir.isDirectory()){
+                dirs.add(delayedDir);
             }
         }
         return dirs;
     }
+
+    /**
+     * Delivery seconds of existing delayed directories of a queue
+     */
+    private static class DelayedIndex {
+        private final NavigableSet<Long> seconds = new ConcurrentSkipListSet<>();
+        //Modification time of the delayed directory the index is up to date with
+        private volatile long modified = -1;
+        private volatile long scanned;
+
+        /**
+         * List the delayed directory. Names that are not delivery seconds are skipped
+         */
+        private void rebuild(File delayedDir, long now) {
+            long dirModified = delayedDir.lastModified();
+            Set<Long> found = new HashSet<>();
+            File[] buckets = delayedDir.listFiles();
+            for (File bucket : buckets == null ? new File[0] : buckets) {
+                try {
+                    found.add(Long.parseLong(bucket.getName()));
+                } catch (NumberFormatException e) {
+                    //Not a bucket, e.g. a file left by a tool
+                }
+            }
+            seconds.retainAll(found);
+            seconds.addAll(found);
+            modified = dirModified;
+            scanned = now;
+        }
+
+        private void add(long second, long before, long after) {
+            seconds.add(second);
+            update(before, after);
+        }
+
+        /**
+         * Follow a directory change made by this service. Changes of others seen before are left for a rebuild
+         */
+        private void update(long before, long after) {
+            if (modified == before) {
+                modified = after;
+            }
+        }
+    }
 }
@@ -0,0 +1,83 @@
+package com.example;
+
+import com.example.beans.Message;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue service that forwards all calls to another one.
+ * Base for decorators adding behaviour on top of any implementation.
+ */
+public abstract class ForwardingQueueService implements QueueService {
+    protected final QueueService delegate;
+
+    protected ForwardingQueueService(QueueService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void push(String queueName, Message message) {
+        delegate.push(queueName, message);
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        delegate.push(queueName, message, delay, unit);
+    }
+
+    @Override
+    public Message pull(String queueName) {
+        return delegate.pull(queueName);
+    }
+
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        return delegate.pull(queueName, waitTime, unit);
+    }
+
+    @Override
+    public void delete(String queueName, Message message) {
+        delegate.delete(queueName, message);
+    }
+
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        delegate.pushBatch(queueName, messages);
+    }
+
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        return delegate.pullBatch(queueName, max);
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        delegate.deleteBatch(queueName, messages);
+    }
+
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        delegate.changeVisibility(queueName, message, timeout, unit);
+    }
+
+    @Override
+    public long messagesInQueue(String queueName) {
+        return delegate.messagesInQueue(queueName);
+    }
+
+    @Override
+    public long pendingMessages(String queueName) {
+        return delegate.pendingMessages(queueName);
+    }
+
+    @Override
+    public void clearMessages(String queueName) {
+        delegate.clearMessages(queueName);
+    }
+
+    @Override
+    public long getTimeout() {
+        return delegate.getTimeout();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.lock.PushSignal;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous adapter of the in-memory service.
+ * In-memory operations never block, so they are run by the caller and return completed futures.
+ * Waiting pulls don't occupy a thread: they are retried on push signals and
+ * completed with null by a scheduler once the wait time is over.
+ */
+public class InMemoryAsyncQueueService implements AsyncQueueService {
+    private final InMemoryQueueService delegate;
+    private final PushSignal pushSignal;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param scheduler - completes waiting pulls that timed out
+     */
+    public InMemoryAsyncQueueService(InMemoryQueueService delegate, ScheduledExecutorService scheduler) {
+        this.delegate = delegate;
+        this.pushSignal = delegate.getPushSignal();
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public CompletableFuture<Void> push(String queueName, Message message) {
+        return run(() -> delegate.push(queueName, message));
+    }
+
+    @Override
+    public CompletableFuture<Message> pull(String queueName) {
+        return call(() -> delegate.pull(queueName));
+    }
+
+    @Override
+    public CompletableFuture<Message> pull(String queueName, long waitTime, TimeUnit unit) {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(queueName, future);
+        waiter.run();
+        if (!future.isDone()){
+            ScheduledFuture<?> timer = scheduler.schedule(() -> {
+                if (future.complete(null)){
+                    pushSignal.removeListener(queueName, waiter);
+                }
+            }, waitTime, unit);
+            future.whenComplete((message, error) -> timer.cancel(false));
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String queueName, Message message) {
+        return run(() -> delegate.delete(queueName, message));
+    }
+
+    @Override
+    public CompletableFuture<Void> pushBatch(String queueName, List<Message> messages) {
+        return run(() -> delegate.pushBatch(queueName, messages));
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> pullBatch(String queueName, int max) {
+        return call(() -> delegate.pullBatch(queueName, max));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(String queueName, List<Message> messages) {
+        return run(() -> delegate.deleteBatch(queueName, messages));
+    }
+
+    @Override
+    public CompletableFuture<Void> changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        return run(() -> delegate.changeVisibility(queueName, message, timeout, unit));
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(operation.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return call(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Pull attempt of a waiting consumer. Registers itself for the next push if the queue is empty
+     */
+    private class Waiter implements Runnable {
+        private final String queueName;
+        private final CompletableFuture<Message> future;
+
+        private Waiter(String queueName, CompletableFuture<Message> future) {
+            this.queueName = queueName;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()){
+                return;
+            }
+            //Read the version before checking the queue not to miss a push in between
+            long version = pushSignal.version(queueName);
+            Message message;
+            try {
+                message = delegate.pull(queueName);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            if (message == null){
+                pushSignal.onChange(queueName, version, this);
+            } else if (!future.complete(message)){
+                //Wait has timed out in the meantime - make the message visible to others again
+                delegate.changeVisibility(queueName, message, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -2,34 +2,98 @@ package com.example;
 
 import com.example.beans.Message;
 import com.example.beans.PendingMessage;
+import com.example.beans.RedrivePolicy;
+import com.example.error.QueueException;
+import com.example.memory.BoundedBuffer;
+import com.example.memory.MessageBuffer;
+import com.example.memory.OverflowPolicy;
+import com.example.memory.UnboundedBuffer;
+import com.example.timer.TimerWheel;
 
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 
 public class InMemoryQueueService extends BaseQueueService{
+    public static final long DEFAULT_TICK = 10;
 
-    //Using Deque to be able to place messages at the beginning of the queue
-    private final Map<String, Deque<Message>> queues = new ConcurrentHashMap<>();
+    //Each queue keeps its messages and its own pending container
+    private final Map<String, MemoryQueue> queues = new ConcurrentHashMap<>();
 
-    //Pending map is used as a container for "invisible" (prefetched) messages
-    private final Map<Message, PendingMessage> pendings = new ConcurrentHashMap<Message, PendingMessage>();
+    //Visibility deadlines of pending messages
+    private final TimerWheel<PendingMessage> expirations;
+
+    //Creates storage for visible messages of a new queue
+    private final Supplier<MessageBuffer> buffers;
 
     public InMemoryQueueService(long timeout) {
-        super(timeout);
+        this(timeout, DEFAULT_TICK);
+    }
+
+    /**
+     * @param tick - precision of visibility timeouts in milliseconds
+     */
+    public InMemoryQueueService(long timeout, long tick) {
+        this(timeout, tick, UnboundedBuffer::new);
+    }
+
+    /**
+     * Bounded mode. Each queue is backed by a preallocated lock-free ring
+     * @param capacity - max number of visible messages in a queue
+     * @param policy - what to do with a push to a full queue
+     */
+    public InMemoryQueueService(long timeout, int capacity, OverflowPolicy policy) {
+        this(timeout, DEFAULT_TICK, () -> new BoundedBuffer(capacity, policy));
+    }
+
+    private InMemoryQueueService(long timeout, long tick, Supplier<MessageBuffer> buffers) {
+        super(timeout, Math.max(1, Math.min(tick, timeout)));
+        this.expirations = new TimerWheel<>(Math.max(1, Math.min(tick, timeout)), timeout);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public InMemoryQueueService withRedrivePolicy(String queueName, RedrivePolicy policy) {
+        super.withRedrivePolicy(queueName, policy);
+        return this;
+    }
+
+    @Override
+    public InMemoryQueueService withDeduplication(long window, TimeUnit unit) {
+        super.withDeduplication(window, unit);
+        return this;
+    }
+
+    @Override
+    public InMemoryQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        super.withDeduplication(window, unit, maxEntries);
+        return this;
     }
 
     /**
      * Add a message to a concurrent queue
      * There is a possibility to add a message to a deleted queue if
-     * queue was removed in the middle of operation by another thread
+     * queue was removed in the middle of operation by another thread.
+     * Bounded queues apply their overflow policy when full.
+     * Duplicates are dropped, a rejected message can be pushed again
      */
     @Override
     public void push(String queueName, Message message) {
-        getQueue(queueName).add(message);
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        try {
+            getQueue(queueName).messages.add(message);
+        } catch (RuntimeException e) {
+            forgetDeduplication(queueName, Collections.singletonList(message));
+            throw e;
+        }
+        signal(queueName);
     }
 
 
@@ -39,14 +103,10 @@ public class InMemoryQueueService extends BaseQueueService{
      */
     @Override
     public Message pull(String queueName) {
-        Message message;
-        try {
-            message = getQueue(queueName).removeFirst();
-        } catch (NoSuchElementException e){
-            return null;
-        }
+        MemoryQueue queue = getQueue(queueName);
+        Message message = queue.messages.poll();
         if (message != null){
-            pendings.put(message, new PendingMessage(queueName));
+            markPending(queue, message);
         }
         return message;
     }
@@ -56,7 +116,81 @@ public class InMemoryQueueService extends BaseQueueService{
      */
     @Override
     public void delete(String queueName, Message message) {
-        pendings.remove(message);
+        removePending(getQueue(queueName), message);
+    }
+
+    /**
+     * Add all messages to the queue waking up consumers once
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        List<Message> unique = deduplicate(queueName, messages);
+        MessageBuffer buffer = getQueue(queueName).messages;
+        int added = 0;
+        try {
+            for (Message message : unique){
+                buffer.add(message);
+                added++;
+            }
+        } catch (RuntimeException e) {
+            forgetDeduplication(queueName, unique.subList(added, unique.size()));
+            throw e;
+        } finally {
+            if (added > 0) {
+                signal(queueName);
+            }
+        }
+    }
+
+    /**
+     * Drain up to max messages from the head of the queue
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        MemoryQueue queue = getQueue(queueName);
+        List<Message> messages = new ArrayList<>(Math.min(max, 16));
+        Message message;
+        while (messages.size() < max && (message = queue.messages.poll()) != null){
+            markPending(queue, message);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        MemoryQueue queue = getQueue(queueName);
+        for (Message message : messages){
+            removePending(queue, message);
+        }
+    }
+
+    /**
+     * Replace visibility deadline of a pending message.
+     * Pending record is replaced as a whole, so a deadline that is firing
+     * concurrently doesn't redeliver the message
+     */
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        MemoryQueue queue = getQueue(queueName);
+        PendingMessage pending = queue.pendings.get(message.getUuid());
+        if (pending == null){
+            throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()));
+        }
+        if (timeout <= 0){
+            if (!queue.pendings.remove(message.getUuid(), pending)){
+                throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()));
+            }
+            cancelExpiry(pending);
+            redeliver(queue, pending.getMessage());
+            return;
+        }
+        PendingMessage replacement = new PendingMessage(queueName, pending.getMessage());
+        if (!queue.pendings.replace(message.getUuid(), pending, replacement)){
+            throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()));
+        }
+        cancelExpiry(pending);
+        replacement.setExpiry(expirations.schedule(replacement, unit.toMillis(timeout)));
     }
 
     /**
@@ -64,7 +198,7 @@ public class InMemoryQueueService extends BaseQueueService{
      */
     @Override
     public long messagesInQueue(String queueName) {
-        return getQueue(queueName).size();
+        return getQueue(queueName).messages.size();
     }
 
     /**
@@ -72,7 +206,7 @@ public class InMemoryQueueService extends BaseQueueService{
      */
     @Override
     public long pendingMessages(String queueName) {
-        return pendings.size();
+        return getQueue(queueName).pendings.size();
     }
 
     /**
@@ -81,33 +215,94 @@ public class InMemoryQueueService extends BaseQueueService{
      */
     @Override
     public void clearMessages(String queueName) {
-        getQueue(queueName).clear();
-        pendings.values().removeIf(message -> message.getQueuName().equals(queueName));
+        MemoryQueue queue = getQueue(queueName);
+        queue.messages.clear();
+        queue.pendings.clear();
+        clearDelayed(queueName);
     }
 
     /**
-     * Goes through pending container. Mark unvisited messages as visited.
-     * Move previously visited to a queue again (GC-like timeout implementation)
+     * Move messages with expired visibility deadlines to the head of their queues.
+     * Only expiring messages are touched
      */
     protected void clearPending() {
-        pendings.entrySet().removeIf(entry -> {
-            if (entry.getValue().isVisited()){
-                getQueue(entry.getValue().getQueuName()).addFirst(entry.getKey());
-                return true;
-            } else {
-                entry.getValue().setVisited(true);
+        expirations.expire(pending -> {
+            MemoryQueue queue = getQueue(pending.getQueuName());
+            //Message could be deleted or pulled again in the meantime
+            if (queue.pendings.remove(pending.getMessage().getUuid(), pending)){
+                expired(queue.name, 1);
+                redeliver(queue, pending.getMessage());
             }
-            return false;
         });
     }
 
+    /**
+     * Return a message to the head of its queue or move it to the dead-letter queue
+     */
+    private void redeliver(MemoryQueue queue, Message message){
+        RedrivePolicy policy = deadLetterPolicy(queue.name, RedrivePolicy.getReceiveCount(message));
+        if (policy != null){
+            deadLetter(queue.name, policy, message);
+            return;
+        }
+        queue.messages.addFirst(message);
+        signal(queue.name);
+    }
+
+    /**
+     * Place a message into pending container and schedule its visibility deadline.
+     * Receive count is kept in message attributes
+     */
+    private void markPending(MemoryQueue queue, Message message){
+        message.getAttributes().put(RedrivePolicy.RECEIVE_COUNT_KEY, RedrivePolicy.getReceiveCount(message) + 1);
+        PendingMessage pending = new PendingMessage(queue.name, message);
+        queue.pendings.put(message.getUuid(), pending);
+        if (getTimeout() > 0){
+            pending.setExpiry(expirations.schedule(pending, getTimeout()));
+        }
+    }
+
+    /**
+     * Remove a message from pending container and cancel its deadline
+     */
+    private void removePending(MemoryQueue queue, Message message){
+        PendingMessage pending = queue.pendings.remove(message.getUuid());
+        if (pending != null){
+            cancelExpiry(pending);
+        }
+    }
+
+    private void cancelExpiry(PendingMessage pending){
+        if (pending.getExpiry() != null){
+            expirations.cancel(pending.getExpiry());
+        }
+    }
+
     /**
      * Get a queue by name
      */
-    private Deque<Message> getQueue(String queueName){
-        //Using ConcurrentLinkedDeque to avoid concurrent modification exceptions and locking
-        queues.putIfAbsent(queueName, new ConcurrentLinkedDeque());
-        return queues.get(queueName);
+    private MemoryQueue getQueue(String queueName){
+        MemoryQueue queue = queues.get(queueName);
+        return queue != null ? queue : queues.computeIfAbsent(queueName, name -> new MemoryQueue(name, buffers.get()));
+    }
+
+    /**
+     * Queue state
+     */
+    private static class MemoryQueue {
+        private final String name;
+
+        //Visible messages. Redelivered messages are placed at the beginning of the queue
+        private final MessageBuffer messages;
+
+        //Pending map is used as a container for "invisible" (prefetched) messages
+        //Keyed by uuid, so a deserialized copy of a message can be deleted too
+        private final Map<String, PendingMessage> pendings = new ConcurrentHashMap<>();
+
+        private MemoryQueue(String name, MessageBuffer messages) {
+            this.name = name;
+            this.messages = messages;
+        }
     }
 
 }
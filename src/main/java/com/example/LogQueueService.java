@@ -0,0 +1,575 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.codec.BinaryMessageCodec;
+import com.example.codec.BufferCache;
+import com.example.codec.CodecRegistry;
+import com.example.codec.MessageCodec;
+import com.example.error.QueueException;
+import com.example.log.LogConfig;
+import com.example.log.RecordLocation;
+import com.example.log.SegmentedLog;
+import com.example.log.SyncPolicy;
+import com.example.timer.TimerWheel;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * File based queue service on top of segmented append-only logs.
+ * Each queue is a directory with log segments and a persistent read cursor.
+ * Push appends a record, pull moves the cursor - both are O(1) regardless of the queue depth.
+ * Pulled messages are kept "in flight" until deleted or timed out, timed out messages
+ * are redelivered before the rest of the queue as FileQueueService does.
+ * Segment I/O mode and durability are defined by LogConfig.
+ * Receive counts used by redrive policies are kept in memory and start over when a log is reopened.
+ * Delayed messages are held in memory until due as well.
+ * Records are encoded with a MessageCodec, compact binary codec is used by default.
+ */
+public class LogQueueService extends BaseQueueService implements AutoCloseable {
+    private final String baseDir;
+    private final LogConfig config;
+    private final Map<String, LogQueue> queues = new ConcurrentHashMap<>();
+    //Background sync of GROUP policy, null for other policies
+    private final ScheduledExecutorService flusher;
+
+    //Copies of records that couldn't be decoded
+    private static final String CORRUPT_PATH = "corrupt";
+
+    //Visibility deadlines of in flight messages
+    private final TimerWheel<InFlight> expirations;
+
+    //Files are trusted, records written with Java serialization by previous versions are still read
+    private final CodecRegistry codecs = new CodecRegistry(BinaryMessageCodec.withStandardClasses());
+    private final BufferCache buffers = new BufferCache();
+
+    public LogQueueService(long timeout, String baseDir) {
+        this(timeout, baseDir, new LogConfig());
+    }
+
+    /**
+     * @param segmentSize - max size of a single log file in bytes
+     */
+    public LogQueueService(long timeout, String baseDir, long segmentSize) {
+        this(timeout, baseDir, new LogConfig().withSegmentSize(segmentSize));
+    }
+
+    /**
+     * Constructor
+     * Creates a base directory if needed.
+     * Starts a background daemon flusher if group sync policy is used, close() stops it
+     */
+    public LogQueueService(long timeout, String baseDir, LogConfig config) {
+        super(timeout, Math.max(1, Math.min(config.getTick(), timeout)));
+        this.expirations = new TimerWheel<>(Math.max(1, Math.min(config.getTick(), timeout)), timeout);
+        this.baseDir = baseDir;
+        this.config = config;
+        File file = new File(baseDir);
+        if (!file.exists()){
+            file.mkdirs();
+        }
+        SyncPolicy syncPolicy = config.getSyncPolicy();
+        if (syncPolicy.getMode() == SyncPolicy.Mode.GROUP){
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "log-queue-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleAtFixedRate(this::syncQueues,
+                    syncPolicy.getIntervalMillis(), syncPolicy.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Set a default codec for records. Should be the same for all services sharing the base directory
+     * Default codec accepts Java serialization of JDK classes only, other classes are allowed with withAllowedClasses
+     */
+    public LogQueueService withCodec(MessageCodec codec) {
+        codecs.setDefault(codec);
+        return this;
+    }
+
+    /**
+     * Replace the default codec with one also allowing Java serialization of body classes matching the patterns,
+     * e.g. "com.acme.events.*". Malformed patterns fail here, bodies of other classes fail on push
+     */
+    public LogQueueService withAllowedClasses(String... patterns) {
+        return withCodec(BinaryMessageCodec.withStandardClasses(patterns));
+    }
+
+    /**
+     * Set a codec for a single queue, e.g. to tune compression of its messages
+     */
+    public LogQueueService withCodec(String queueName, MessageCodec codec) {
+        codecs.register(queueName, codec);
+        return this;
+    }
+
+    @Override
+    public LogQueueService withRedrivePolicy(String queueName, RedrivePolicy policy) {
+        super.withRedrivePolicy(queueName, policy);
+        return this;
+    }
+
+    @Override
+    public LogQueueService withDeduplication(long window, TimeUnit unit) {
+        super.withDeduplication(window, unit);
+        return this;
+    }
+
+    @Override
+    public LogQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        super.withDeduplication(window, unit, maxEntries);
+        return this;
+    }
+
+    /**
+     * Encode a message outside of the lock and append it. Duplicates are dropped
+     */
+    @Override
+    public void push(String queueName, Message message) {
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        ByteBuffer payload;
+        try {
+            payload = codecs.get(queueName).encode(message, buffers.acquire());
+            payload.flip();
+            LogQueue queue = getQueue(queueName);
+            queue.lock.lock();
+            try {
+                queue.log.append(payload);
+            } finally {
+                queue.lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            forgetDeduplication(queueName, Collections.singletonList(message));
+            throw e;
+        }
+        buffers.release(payload);
+        signal(queueName);
+    }
+
+    /**
+     * Pull a message. Timed out messages go first, then the next record after the read cursor.
+     */
+    @Override
+    public Message pull(String queueName) {
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            return next(queue);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledge an in flight message
+     */
+    @Override
+    public void delete(String queueName, Message message) {
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            ack(queue, message);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Append all messages under a single lock acquisition. Duplicates are dropped
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        List<Message> unique = deduplicate(queueName, messages);
+        if (unique.isEmpty()) {
+            return;
+        }
+        int appended = 0;
+        ByteBuffer payloads = buffers.acquire();
+        try {
+            //Messages are encoded one after another into a single buffer
+            MessageCodec codec = codecs.get(queueName);
+            int[] ends = new int[unique.size()];
+            for (int i = 0; i < ends.length; i++){
+                payloads = codec.encode(unique.get(i), payloads);
+                ends[i] = payloads.position();
+            }
+            LogQueue queue = getQueue(queueName);
+            queue.lock.lock();
+            try {
+                int start = 0;
+                for (int end : ends){
+                    payloads.limit(end).position(start);
+                    queue.log.append(payloads);
+                    start = end;
+                    appended++;
+                }
+            } finally {
+                queue.lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            forgetDeduplication(queueName, unique.subList(appended, unique.size()));
+            throw e;
+        }
+        buffers.release(payloads);
+        signal(queueName);
+    }
+
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        List<Message> messages = new ArrayList<>();
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            Message message;
+            while (messages.size() < max && (message = next(queue)) != null){
+                messages.add(message);
+            }
+        } catch (RuntimeException e) {
+            //Messages already in flight are handed out, the failed record is retried by the next pull
+            if (messages.isEmpty()){
+                throw e;
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            for (Message message : messages){
+                ack(queue, message);
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Replace visibility deadline of an in flight message.
+     * In flight record is replaced, so a deadline that is firing concurrently is ignored
+     */
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        LogQueue queue = getQueue(queueName);
+        RedrivePolicy policy = null;
+        InFlight released = null;
+        queue.lock.lock();
+        try {
+            InFlight inFlight = queue.inFlight.remove(message.getUuid());
+            if (inFlight == null){
+                throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()));
+            }
+            if (inFlight.expiry != null){
+                expirations.cancel(inFlight.expiry);
+            }
+            if (timeout <= 0){
+                policy = deadLetterPolicy(queueName, queue.receives.getOrDefault(inFlight.location, 0));
+                if (policy == null){
+                    queue.redelivery.addFirst(inFlight.location);
+                } else {
+                    released = inFlight;
+                }
+            } else {
+                InFlight replacement = new InFlight(queue, inFlight.uuid, inFlight.location);
+                queue.inFlight.put(replacement.uuid, replacement);
+                replacement.expiry = expirations.schedule(replacement, unit.toMillis(timeout));
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+        if (released != null){
+            deadLetter(policy, released);
+        } else if (timeout <= 0){
+            signal(queueName);
+        }
+    }
+
+    @Override
+    public long messagesInQueue(String queueName) {
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            return queue.log.unread() + queue.redelivery.size();
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    @Override
+    public long pendingMessages(String queueName) {
+        LogQueue queue = getQueue(queueName);
+        queue.lock.lock();
+        try {
+            return queue.inFlight.size();
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the queue with all of its segments
+     */
+    @Override
+    public void clearMessages(String queueName) {
+        clearDelayed(queueName);
+        LogQueue queue = queues.remove(queueName);
+        if (queue != null){
+            queue.lock.lock();
+            try {
+                queue.log.close();
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+        File queueDir = getQueueDir(queueName);
+        if (queueDir.exists()){
+            try {
+                FileUtils.deleteDirectory(queueDir);
+            } catch (IOException e) {
+                throw new QueueException(String.format("Couldn't clear log queue [%s]", queueName), e);
+            }
+        }
+    }
+
+    /**
+     * Move in flight messages with expired visibility deadlines to redelivery
+     */
+    @Override
+    protected void clearPending() {
+        expirations.expire(inFlight -> {
+            LogQueue queue = inFlight.queue;
+            RedrivePolicy policy;
+            queue.lock.lock();
+            try {
+                //Message could be acknowledged or pulled again in the meantime
+                if (!queue.inFlight.remove(inFlight.uuid, inFlight)) {
+                    return;
+                }
+                policy = deadLetterPolicy(queue.name, queue.receives.getOrDefault(inFlight.location, 0));
+                if (policy == null) {
+                    queue.redelivery.add(inFlight.location);
+                }
+            } finally {
+                queue.lock.unlock();
+            }
+            expired(queue.name, 1);
+            if (policy != null) {
+                deadLetter(policy, inFlight);
+            } else {
+                signal(queue.name);
+            }
+        });
+    }
+
+    /**
+     * Push a released record to the dead-letter queue and acknowledge it.
+     * The record is neither in flight nor queued for redelivery, so nobody else touches it.
+     * Dead-letter queue is written outside of the queue lock, a crash in between leaves
+     * the record unacknowledged, so it is redelivered rather than lost
+     */
+    private void deadLetter(RedrivePolicy policy, InFlight inFlight){
+        LogQueue queue = inFlight.queue;
+        Message message;
+        queue.lock.lock();
+        try {
+            message = codecs.get(queue.name).decode(queue.log.read(inFlight.location));
+        } finally {
+            queue.lock.unlock();
+        }
+        deadLetter(queue.name, policy, message);
+        queue.lock.lock();
+        try {
+            queue.receives.remove(inFlight.location);
+            queue.log.ack(inFlight.location);
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * Take the next message and mark it in flight. Should be called under the queue lock.
+     * A record that can't be read is put back for the next pull, a record that can't be decoded
+     * is copied to the corrupt directory of the queue and acknowledged, so it doesn't block the queue
+     */
+    private Message next(LogQueue queue){
+        Message message = null;
+        RecordLocation location = null;
+        while (message == null){
+            location = queue.redelivery.poll();
+            if (location == null){
+                location = queue.log.next();
+            }
+            if (location == null){
+                return null;
+            }
+            ByteBuffer record;
+            try {
+                record = queue.log.read(location);
+            } catch (RuntimeException e){
+                queue.redelivery.addFirst(location);
+                throw e;
+            }
+            try {
+                message = codecs.get(queue.name).decode(record.duplicate());
+            } catch (RuntimeException e){
+                quarantine(queue, location, record);
+            }
+        }
+        message.getAttributes().put(RedrivePolicy.RECEIVE_COUNT_KEY, queue.receives.merge(location, 1, Integer::sum));
+        InFlight inFlight = new InFlight(queue, message.getUuid(), location);
+        queue.inFlight.put(message.getUuid(), inFlight);
+        if (getTimeout() > 0){
+            inFlight.expiry = expirations.schedule(inFlight, getTimeout());
+        }
+        return message;
+    }
+
+    /**
+     * Keep a copy of an undecodable record for inspection and acknowledge it
+     */
+    private void quarantine(LogQueue queue, RecordLocation location, ByteBuffer record){
+        File corruptDir = new File(getQueueDir(queue.name), CORRUPT_PATH);
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        try {
+            corruptDir.mkdirs();
+            Files.write(new File(corruptDir, location.getSegmentId() + "-" + location.getPosition()).toPath(), bytes);
+        } catch (IOException e){
+            queue.redelivery.addFirst(location);
+            throw new QueueException(String.format("Couldn't quarantine record [%s] of queue [%s]", location, queue.name), e);
+        }
+        queue.receives.remove(location);
+        queue.log.ack(location);
+    }
+
+    /**
+     * Acknowledge an in flight message. Should be called under the queue lock
+     */
+    private void ack(LogQueue queue, Message message){
+        InFlight inFlight = queue.inFlight.remove(message.getUuid());
+        if (inFlight != null){
+            queue.receives.remove(inFlight.location);
+            queue.log.ack(inFlight.location);
+            if (inFlight.expiry != null){
+                expirations.cancel(inFlight.expiry);
+            }
+        }
+    }
+
+    /**
+     * Stop the flusher, sync and close all open logs.
+     * Messages in flight stay unacknowledged and are redelivered when the logs are reopened
+     */
+    @Override
+    public void close() {
+        if (flusher != null){
+            flusher.shutdown();
+        }
+        for (String queueName : new ArrayList<>(queues.keySet())) {
+            LogQueue queue = queues.remove(queueName);
+            if (queue == null){
+                continue;
+            }
+            queue.lock.lock();
+            try {
+                for (InFlight inFlight : queue.inFlight.values()) {
+                    if (inFlight.expiry != null){
+                        expirations.cancel(inFlight.expiry);
+                    }
+                }
+                queue.log.close();
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Force records that stayed unsynced longer than group sync interval
+     */
+    private void syncQueues() {
+        for (LogQueue queue : queues.values()) {
+            queue.lock.lock();
+            try {
+                queue.log.syncIfDue();
+            } catch (QueueException e) {
+                //Will be retried on the next append or flush
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get a queue by name. Opens the log and schedules redelivery of messages
+     * that were in flight when the log was closed
+     */
+    private LogQueue getQueue(String queueName){
+        return queues.computeIfAbsent(queueName, name -> {
+            SegmentedLog log = new SegmentedLog(getQueueDir(name), config);
+            LogQueue queue = new LogQueue(name, log);
+            queue.redelivery.addAll(log.getUnacked());
+            return queue;
+        });
+    }
+
+    private File getQueueDir(String queueName){
+        return new File(baseDir + File.separator + queueName);
+    }
+
+    /**
+     * Queue state. All fields are guarded by the lock
+     */
+    private static class LogQueue {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final SegmentedLog log;
+        private final Deque<RecordLocation> redelivery = new ArrayDeque<>();
+        private final Map<String, InFlight> inFlight = new HashMap<>();
+        private final Map<RecordLocation, Integer> receives = new HashMap<>();
+
+        private LogQueue(String name, SegmentedLog log) {
+            this.name = name;
+            this.log = log;
+        }
+    }
+
+    private static class InFlight {
+        private final LogQueue queue;
+        private final String uuid;
+        private final RecordLocation location;
+        private TimerWheel.Entry<InFlight> expiry;
+
+        private InFlight(LogQueue queue, String uuid, RecordLocation location) {
+            this.queue = queue;
+            this.uuid = uuid;
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.codec.BinaryMessageCodec;
+import com.example.codec.MessageCodec;
+import com.example.dedup.DeduplicationCache;
+import com.example.error.QueueException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Message group decorator. Messages sharing the "messageGroupId" attribute are handed out
+ * in order with at most one of them in flight, different groups are consumed in parallel.
+ * Messages without a group are handed out as they come.
+ * A pulled message of a busy group is parked: it stays in flight in the underlying queue,
+ * its visibility is extended by a heartbeat and it is handed out once the group message in flight is deleted.
+ * A message returned to the queue or expired keeps its group locked, so it is handed out again before the rest.
+ * A group is unlocked anyway after twice the visibility timeout, e.g. when its message was dead-lettered.
+ * Messages are taken from the underlying queue by one consumer at a time, so they are accepted in queue order.
+ * Groups are tracked by this decorator, so consumers sharing a queue should share the decorator.
+ * Optional content based deduplication drops pushes with a body seen in the same queue within a time window.
+ */
+public class MessageGroupQueueService extends ForwardingQueueService implements AutoCloseable {
+    public static final String GROUP_KEY = "messageGroupId";
+    public static final int DEFAULT_MAX_PARKED = 1000;
+
+    //Blocking pulls of the underlying service are sliced, so groups unlocked by deletes are picked up
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ScheduledExecutorService scheduler;
+    private int maxParked = DEFAULT_MAX_PARKED;
+    private DeduplicationCache deduplication;
+    private MessageCodec contentCodec;
+
+    private final Map<String, Groups> queues = new ConcurrentHashMap<>();
+
+    /**
+     * @param scheduler - extends visibility of parked messages
+     */
+    public MessageGroupQueueService(QueueService delegate, ScheduledExecutorService scheduler) {
+        super(delegate);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Max number of parked messages per queue. Pulls return nothing from the underlying queue once it is reached
+     */
+    public MessageGroupQueueService withMaxParked(int maxParked) {
+        this.maxParked = maxParked;
+        return this;
+    }
+
+    /**
+     * Drop pushes of messages with the same body as a message pushed to the same queue within the window.
+     * Hash of the body encoded by the binary codec is used as a deduplication id,
+     * bodies without a binary serializer, e.g. Maps and beans, are encoded as JSON
+     */
+    public MessageGroupQueueService withContentBasedDeduplication(long window, TimeUnit unit) {
+        return withContentBasedDeduplication(window, unit, new BinaryMessageCodec().withJsonSerialization());
+    }
+
+    /**
+     * @param codec - encodes bodies to be hashed, should support all body types pushed to the queues
+     */
+    public MessageGroupQueueService withContentBasedDeduplication(long window, TimeUnit unit, MessageCodec codec) {
+        this.contentCodec = codec;
+        this.deduplication = new DeduplicationCache(window, unit);
+        return this;
+    }
+
+    @Override
+    public void push(String queueName, Message message) {
+        String id = deduplicate(queueName, message);
+        if (deduplication != null && id == null) {
+            return;
+        }
+        try {
+            delegate.push(queueName, message);
+        } catch (RuntimeException e) {
+            forget(queueName, id);
+            throw e;
+        }
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        String id = deduplicate(queueName, message);
+        if (deduplication != null && id == null) {
+            return;
+        }
+        try {
+            delegate.push(queueName, message, delay, unit);
+        } catch (RuntimeException e) {
+            forget(queueName, id);
+            throw e;
+        }
+    }
+
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        if (deduplication == null) {
+            delegate.pushBatch(queueName, messages);
+            return;
+        }
+        List<Message> unique = new ArrayList<>(messages.size());
+        List<String> ids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String id = deduplicate(queueName, message);
+            if (id != null) {
+                unique.add(message);
+                ids.add(id);
+            }
+        }
+        if (unique.isEmpty()) {
+            return;
+        }
+        try {
+            delegate.pushBatch(queueName, unique);
+        } catch (RuntimeException e) {
+            ids.forEach(id -> forget(queueName, id));
+            throw e;
+        }
+    }
+
+    /**
+     * Hand out a parked message of an unlocked group or pull messages until one can be handed out
+     */
+    @Override
+    public Message pull(String queueName) {
+        Groups groups = getGroups(queueName);
+        Message message = takeParked(queueName, groups);
+        if (message != null) {
+            return message;
+        }
+        groups.intake.lock();
+        try {
+            while (!groups.isFull(maxParked)) {
+                Message pulled = delegate.pull(queueName);
+                if (pulled == null) {
+                    return null;
+                }
+                if (accept(queueName, groups, pulled)) {
+                    return pulled;
+                }
+            }
+            return null;
+        } finally {
+            groups.intake.unlock();
+        }
+    }
+
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        Groups groups = getGroups(queueName);
+        while (true) {
+            Message message = pull(queueName);
+            if (message != null) {
+                return message;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            long slice = Math.min(remaining, POLL_INTERVAL);
+            if (groups.isFull(maxParked)) {
+                sleep(slice);
+                continue;
+            }
+            if (!tryLock(groups.intake, slice)) {
+                continue;
+            }
+            try {
+                message = delegate.pull(queueName, slice, TimeUnit.NANOSECONDS);
+                if (message != null && accept(queueName, groups, message)) {
+                    return message;
+                }
+            } finally {
+                groups.intake.unlock();
+            }
+        }
+    }
+
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        Groups groups = getGroups(queueName);
+        List<Message> messages = new ArrayList<>(Math.min(max, 16));
+        Message message;
+        while (messages.size() < max && (message = takeParked(queueName, groups)) != null) {
+            messages.add(message);
+        }
+        if (messages.size() < max && !groups.isFull(maxParked)) {
+            groups.intake.lock();
+            try {
+                for (Message pulled : delegate.pullBatch(queueName, max - messages.size())) {
+                    if (accept(queueName, groups, pulled)) {
+                        messages.add(pulled);
+                    }
+                }
+            } finally {
+                groups.intake.unlock();
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Delete a message and unlock its group
+     */
+    @Override
+    public void delete(String queueName, Message message) {
+        delegate.delete(queueName, message);
+        unlock(queueName, message);
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        delegate.deleteBatch(queueName, messages);
+        for (Message message : messages) {
+            unlock(queueName, message);
+        }
+    }
+
+    @Override
+    public void clearMessages(String queueName) {
+        Groups groups = queues.remove(queueName);
+        if (groups != null) {
+            synchronized (groups) {
+                for (Group group : groups.groups.values()) {
+                    for (Parked parked : group.parked) {
+                        parked.stop();
+                    }
+                }
+            }
+        }
+        delegate.clearMessages(queueName);
+    }
+
+    /**
+     * Number of pulled messages waiting for their groups
+     */
+    public int getParked(String queueName) {
+        Groups groups = queues.get(queueName);
+        if (groups == null) {
+            return 0;
+        }
+        synchronized (groups) {
+            return groups.parked;
+        }
+    }
+
+    /**
+     * Return parked messages to their queues
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<String, Groups> queue : queues.entrySet()) {
+            List<Parked> released = new ArrayList<>();
+            Groups groups = queue.getValue();
+            synchronized (groups) {
+                for (Group group : groups.groups.values()) {
+                    released.addAll(group.parked);
+                    group.parked.clear();
+                }
+                groups.groups.clear();
+                groups.ready.clear();
+                groups.parked = 0;
+            }
+            for (Parked parked : released) {
+                parked.stop();
+                try {
+                    delegate.changeVisibility(queue.getKey(), parked.message, 0, TimeUnit.SECONDS);
+                } catch (QueueException e) {
+                    //Already expired - will be redelivered anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Decide if a pulled message can be handed out. Messages of busy groups are parked
+     */
+    private boolean accept(String queueName, Groups groups, Message message) {
+        Object groupId = message.getAttributes().get(GROUP_KEY);
+        if (groupId == null) {
+            return true;
+        }
+        synchronized (groups) {
+            Group group = groups.groups.computeIfAbsent(groupId.toString(), Group::new);
+            expireOwner(group);
+            //Message in flight was returned or expired and comes back first
+            if (message.getUuid().equals(group.owner) || (group.owner == null && group.parked.isEmpty())) {
+                lock(group, message);
+                return true;
+            }
+            park(queueName, groups, group, message);
+            if (group.owner == null) {
+                groups.markReady(group);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Take the first parked message of an unlocked group, giving it a full visibility timeout
+     */
+    private Message takeParked(String queueName, Groups groups) {
+        while (true) {
+            Parked next;
+            synchronized (groups) {
+                Group group = groups.ready.poll();
+                if (group == null) {
+                    group = unlockExpired(groups);
+                }
+                if (group == null) {
+                    return null;
+                }
+                group.ready = false;
+                next = group.parked.poll();
+                if (next == null) {
+                    continue;
+                }
+                groups.parked--;
+                lock(group, next.message);
+            }
+            next.stop();
+            if (getTimeout() <= 0) {
+                return next.message;
+            }
+            try {
+                delegate.changeVisibility(queueName, next.message, getTimeout(), TimeUnit.MILLISECONDS);
+                return next.message;
+            } catch (QueueException e) {
+                //Expired while parked. Group stays locked by the message, so it is handed out once redelivered
+            }
+        }
+    }
+
+    /**
+     * Find a group with parked messages whose message in flight was lost.
+     * Lost groups without parked messages are forgotten on the way
+     */
+    private Group unlockExpired(Groups groups) {
+        if (groups.parked == 0) {
+            return null;
+        }
+        for (Iterator<Group> iterator = groups.groups.values().iterator(); iterator.hasNext(); ) {
+            Group group = iterator.next();
+            if (expireOwner(group)) {
+                if (!group.parked.isEmpty()) {
+                    return group;
+                }
+                iterator.remove();
+            }
+        }
+        return null;
+    }
+
+    private void park(String queueName, Groups groups, Group group, Message message) {
+        for (Iterator<Parked> iterator = group.parked.iterator(); iterator.hasNext(); ) {
+            Parked parked = iterator.next();
+            //Parked message expired and was pulled again - keep its place
+            if (parked.message.getUuid().equals(message.getUuid())) {
+                parked.stop();
+                parked.message = message;
+                parked.heartbeat = heartbeat(queueName, message);
+                return;
+            }
+        }
+        group.parked.add(new Parked(message, heartbeat(queueName, message)));
+        groups.parked++;
+    }
+
+    private VisibilityHeartbeat heartbeat(String queueName, Message message) {
+        return getTimeout() > 0 ?
+                VisibilityHeartbeat.start(delegate, scheduler, queueName, message, getTimeout(), TimeUnit.MILLISECONDS) : null;
+    }
+
+    private void lock(Group group, Message message) {
+        group.owner = message.getUuid();
+        group.ownerDeadline = getTimeout() > 0 ?
+                System.nanoTime() + 2 * TimeUnit.MILLISECONDS.toNanos(getTimeout()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Unlock a group if its message in flight is considered lost
+     * @return true if the group is unlocked
+     */
+    private boolean expireOwner(Group group) {
+        if (group.owner != null && group.ownerDeadline != Long.MAX_VALUE && System.nanoTime() - group.ownerDeadline > 0) {
+            group.owner = null;
+        }
+        return group.owner == null;
+    }
+
+    /**
+     * Unlock a group of a deleted message. Groups without parked messages are forgotten
+     */
+    private void unlock(String queueName, Message message) {
+        Object groupId = message.getAttributes().get(GROUP_KEY);
+        Groups groups = queues.get(queueName);
+        if (groupId == null || groups == null) {
+            return;
+        }
+        synchronized (groups) {
+            Group group = groups.groups.get(groupId.toString());
+            if (group == null || !message.getUuid().equals(group.owner)) {
+                return;
+            }
+            group.owner = null;
+            if (group.parked.isEmpty()) {
+                groups.groups.remove(group.id);
+            } else {
+                groups.markReady(group);
+            }
+        }
+    }
+
+    /**
+     * Remember a content based deduplication id of a message pushed to a queue
+     * @return the id or null if it was seen within the window or deduplication is disabled
+     */
+    private String deduplicate(String queueName, Message message) {
+        if (deduplication == null) {
+            return null;
+        }
+        String id = contentHash(message.getBody());
+        return deduplication.add(queueName, id) ? id : null;
+    }
+
+    private void forget(String queueName, String id) {
+        if (id != null) {
+            deduplication.remove(queueName, id);
+        }
+    }
+
+    /**
+     * Hash of an encoded body. Message with the body only and a fixed uuid is encoded, so equal bodies give equal bytes
+     */
+    private String contentHash(Object body) {
+        byte[] bytes = contentCodec.encode(new Message<>(body).withUuid(""));
+        try {
+            StringBuilder hash = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new QueueException("SHA-256 is not supported", e);
+        }
+    }
+
+    private static boolean tryLock(ReentrantLock lock, long nanos) {
+        try {
+            return lock.tryLock(nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        }
+    }
+
+    private Groups getGroups(String queueName) {
+        return queues.computeIfAbsent(queueName, name -> new Groups());
+    }
+
+    /**
+     * Group state of a queue, guarded by itself
+     */
+    private static class Groups {
+        private final Map<String, Group> groups = new HashMap<>();
+
+        //Messages are pulled from the underlying queue one consumer at a time, so they are accepted in queue order
+        private final ReentrantLock intake = new ReentrantLock();
+
+        //Unlocked groups with parked messages
+        private final Deque<Group> ready = new ArrayDeque<>();
+        private int parked;
+
+        private synchronized boolean isFull(int maxParked) {
+            return parked >= maxParked;
+        }
+
+        private void markReady(Group group) {
+            if (!group.ready) {
+                group.ready = true;
+                ready.add(group);
+            }
+        }
+    }
+
+    private static class Group {
+        private final String id;
+        private final Deque<Parked> parked = new ArrayDeque<>();
+        private String owner;
+        private long ownerDeadline;
+        private boolean ready;
+
+        private Group(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class Parked {
+        private Message message;
+        private VisibilityHeartbeat heartbeat;
+
+        private Parked(Message message, VisibilityHeartbeat heartbeat) {
+            this.message = message;
+            this.heartbeat = heartbeat;
+        }
+
+        private void stop() {
+            if (heartbeat != null) {
+                heartbeat.stop();
+            }
+        }
+    }
+}
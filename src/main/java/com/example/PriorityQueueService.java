@@ -0,0 +1,326 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.error.QueueException;
+import com.example.lock.PushSignal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Priority decorator. Each queue is split into a small fixed number of lanes,
+ * every lane is a separate queue of the underlying service named [queue]-p[lane].
+ * Lane is taken from the "priority" message attribute, 0 is the most urgent lane.
+ * Pull serves lanes strictly in priority order by default. With weights lanes are served
+ * by smooth weighted round robin, so bulk lanes keep flowing under a steady urgent load.
+ * An empty lane never blocks the others in both modes.
+ */
+public class PriorityQueueService extends ForwardingQueueService {
+    public static final String PRIORITY_KEY = "priority";
+
+    //Non signalling services are polled while a pull is waiting
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int lanes;
+    private int defaultPriority;
+    private int[] weights;
+
+    //Weighted round robin state per queue
+    private final Map<String, int[]> credits = new ConcurrentHashMap<>();
+
+    /**
+     * @param lanes - number of priority lanes per queue
+     */
+    public PriorityQueueService(QueueService delegate, int lanes) {
+        super(delegate);
+        if (lanes < 1) {
+            throw new IllegalArgumentException("Number of lanes should be positive");
+        }
+        this.lanes = lanes;
+        this.defaultPriority = lanes - 1;
+    }
+
+    /**
+     * Lane of messages without a priority attribute. The least urgent lane by default
+     */
+    public PriorityQueueService withDefaultPriority(int priority) {
+        this.defaultPriority = lane(priority);
+        return this;
+    }
+
+    /**
+     * Serve lanes by weighted round robin instead of strict priority
+     * @param weights - share of pulls per lane, most urgent lane first
+     */
+    public PriorityQueueService withWeights(int... weights) {
+        if (weights.length != lanes) {
+            throw new IllegalArgumentException(String.format("Expected %s weights, got %s", lanes, weights.length));
+        }
+        for (int weight : weights) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("Weights should be positive");
+            }
+        }
+        this.weights = weights.clone();
+        credits.clear();
+        return this;
+    }
+
+    /**
+     * Push a message to its lane. Lane is stored in the message, so it is known on delete
+     */
+    @Override
+    public void push(String queueName, Message message) {
+        delegate.push(laneName(queueName, laneOf(message)), message);
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        delegate.push(laneName(queueName, laneOf(message)), message, delay, unit);
+    }
+
+    @Override
+    public Message pull(String queueName) {
+        for (int lane : order(queueName)) {
+            Message message = delegate.pull(laneName(queueName, lane));
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a message in any lane.
+     * Signalling services wake up the consumer on a push to any lane, others are polled
+     */
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        PushSignal signal = delegate instanceof BaseQueueService ? ((BaseQueueService) delegate).getPushSignal() : null;
+        while (true) {
+            //Read versions before checking lanes not to miss a push in between
+            long[] versions = new long[lanes];
+            for (int lane = 0; lane < lanes && signal != null; lane++) {
+                versions[lane] = signal.version(laneName(queueName, lane));
+            }
+            Message message = pull(queueName);
+            if (message != null) {
+                return message;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            if (signal != null) {
+                await((BaseQueueService) delegate, signal, queueName, versions, remaining);
+            } else {
+                sleep(Math.min(remaining, POLL_INTERVAL));
+            }
+        }
+    }
+
+    @Override
+    public void delete(String queueName, Message message) {
+        delegate.delete(laneName(queueName, laneOf(message)), message);
+    }
+
+    /**
+     * Push messages with a batch call per lane keeping their order within a lane
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        for (Map.Entry<Integer, List<Message>> lane : byLane(messages).entrySet()) {
+            delegate.pushBatch(laneName(queueName, lane.getKey()), lane.getValue());
+        }
+    }
+
+    /**
+     * Pull up to max messages. Strict mode drains lanes in priority order,
+     * weighted mode splits the batch between lanes by weights and fills the rest in priority order
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        int[] quotas = new int[lanes];
+        if (weights == null) {
+            quotas[0] = max;
+        } else {
+            for (int i = 0; i < max; i++) {
+                quotas[nextWeighted(queueName)]++;
+            }
+        }
+        List<Message> messages = new ArrayList<>(Math.min(max, 16));
+        for (int lane = 0; lane < lanes; lane++) {
+            if (quotas[lane] > 0) {
+                messages.addAll(delegate.pullBatch(laneName(queueName, lane), quotas[lane]));
+            }
+        }
+        for (int lane = 0; lane < lanes && messages.size() < max; lane++) {
+            messages.addAll(delegate.pullBatch(laneName(queueName, lane), max - messages.size()));
+        }
+        return messages;
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        for (Map.Entry<Integer, List<Message>> lane : byLane(messages).entrySet()) {
+            delegate.deleteBatch(laneName(queueName, lane.getKey()), lane.getValue());
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        delegate.changeVisibility(laneName(queueName, laneOf(message)), message, timeout, unit);
+    }
+
+    /**
+     * Number of visible messages in all lanes
+     */
+    @Override
+    public long messagesInQueue(String queueName) {
+        long count = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            count += messagesInQueue(queueName, lane);
+        }
+        return count;
+    }
+
+    /**
+     * Number of visible messages in a lane
+     */
+    public long messagesInQueue(String queueName, int priority) {
+        return delegate.messagesInQueue(laneName(queueName, lane(priority)));
+    }
+
+    @Override
+    public long pendingMessages(String queueName) {
+        long count = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            count += pendingMessages(queueName, lane);
+        }
+        return count;
+    }
+
+    /**
+     * Number of in flight messages of a lane
+     */
+    public long pendingMessages(String queueName, int priority) {
+        return delegate.pendingMessages(laneName(queueName, lane(priority)));
+    }
+
+    @Override
+    public void clearMessages(String queueName) {
+        for (int lane = 0; lane < lanes; lane++) {
+            delegate.clearMessages(laneName(queueName, lane));
+        }
+        credits.remove(queueName);
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Lanes in the order they should be checked by the next pull
+     */
+    private int[] order(String queueName) {
+        int[] order = new int[lanes];
+        int first = weights == null ? 0 : nextWeighted(queueName);
+        order[0] = first;
+        for (int lane = 0, i = 1; lane < lanes; lane++) {
+            if (lane != first) {
+                order[i++] = lane;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Smooth weighted round robin: every lane earns its weight, the richest lane is picked and pays the total
+     */
+    private int nextWeighted(String queueName) {
+        int[] credit = credits.computeIfAbsent(queueName, name -> new int[lanes]);
+        synchronized (credit) {
+            int total = 0;
+            int best = 0;
+            for (int lane = 0; lane < lanes; lane++) {
+                credit[lane] += weights[lane];
+                total += weights[lane];
+                if (credit[lane] > credit[best]) {
+                    best = lane;
+                }
+            }
+            credit[best] -= total;
+            return best;
+        }
+    }
+
+    /**
+     * Park until any lane is signalled. Parking is limited as the service asks, e.g. file queues
+     * of other processes are rechecked periodically
+     */
+    private void await(BaseQueueService service, PushSignal signal, String queueName, long[] versions, long remaining) {
+        CountDownLatch changed = new CountDownLatch(1);
+        Runnable listener = changed::countDown;
+        long park = remaining;
+        for (int lane = 0; lane < lanes; lane++) {
+            park = Math.min(park, service.prepareAwait(laneName(queueName, lane)));
+            signal.onChange(laneName(queueName, lane), versions[lane], listener);
+        }
+        try {
+            changed.await(park, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        } finally {
+            for (int lane = 0; lane < lanes; lane++) {
+                signal.removeListener(laneName(queueName, lane), listener);
+            }
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        }
+    }
+
+    /**
+     * Group messages by lanes keeping their order
+     */
+    private Map<Integer, List<Message>> byLane(List<Message> messages) {
+        Map<Integer, List<Message>> byLane = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byLane.computeIfAbsent(laneOf(message), lane -> new ArrayList<>()).add(message);
+        }
+        return byLane;
+    }
+
+    /**
+     * Get a lane of a message. Messages without priority get the default one
+     */
+    private int laneOf(Message message) {
+        Object priority = message.getAttributes().get(PRIORITY_KEY);
+        if (priority instanceof Number) {
+            return lane(((Number) priority).intValue());
+        }
+        message.getAttributes().put(PRIORITY_KEY, defaultPriority);
+        return defaultPriority;
+    }
+
+    private int lane(int priority) {
+        return Math.max(0, Math.min(priority, lanes - 1));
+    }
+
+    private static String laneName(String queueName, int lane) {
+        return queueName + "-p" + lane;
+    }
+}
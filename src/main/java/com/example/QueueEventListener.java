@@ -0,0 +1,27 @@
+package com.example;
+
+/**
+ * Receives events that happen inside a queue service rather than in calls of its clients,
+ * e.g. messages redelivered after their visibility timeout.
+ * Called by service threads, implementations should be fast and must not throw.
+ */
+public interface QueueEventListener {
+
+    /**
+     * Visibility timeout of in flight messages expired, they were redelivered or dead-lettered
+     */
+    default void onExpired(String queueName, int count) {
+    }
+
+    /**
+     * Messages were moved from a queue to its dead-letter queue
+     */
+    default void onDeadLettered(String queueName, String deadLetterQueue, int count) {
+    }
+
+    /**
+     * A sweep of expired visibility deadlines finished
+     */
+    default void onSweep(long durationNanos) {
+    }
+}
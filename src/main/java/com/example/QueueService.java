@@ -2,6 +2,9 @@ package com.example;
 
 import com.example.beans.Message;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 public interface QueueService {
 
   //
@@ -22,10 +25,53 @@ public interface QueueService {
 
     public void push(String queueName, Message message);
 
+    /**
+     * Push a message that becomes visible after a delay
+     */
+    public void push(String queueName, Message message, long delay, TimeUnit unit);
+
+    /**
+     * Push a message that becomes visible at a wall clock time in milliseconds
+     */
+    public default void pushAt(String queueName, Message message, long deliverAt) {
+        push(queueName, message, Math.max(0, deliverAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
     public Message pull(String queueName);
 
+    /**
+     * Retrieve a single message waiting for it up to waitTime if the queue is empty
+     * @return message or null if nothing was pushed in time
+     */
+    public Message pull(String queueName, long waitTime, TimeUnit unit);
+
     public void delete(String queueName, Message message);
 
+    /**
+     * Push several messages at once. Implementations amortize per-call overhead
+     * (locking, round trips) over the whole batch
+     */
+    public void pushBatch(String queueName, List<Message> messages);
+
+    /**
+     * Retrieve up to max messages
+     * @return pulled messages, empty list if the queue is empty
+     */
+    public List<Message> pullBatch(String queueName, int max);
+
+    /**
+     * Delete several messages received by pull() or pullBatch()
+     */
+    public void deleteBatch(String queueName, List<Message> messages);
+
+    /**
+     * Change visibility timeout of a pulled message. Message becomes visible again
+     * after the given timeout counting from now, 0 makes it visible immediately.
+     * Can be called repeatedly to keep a message invisible while it is processed
+     * @throws com.example.error.QueueException if the message is not in flight anymore
+     */
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit);
+
     public long messagesInQueue(String queueName);
 
     public long pendingMessages(String queueName);
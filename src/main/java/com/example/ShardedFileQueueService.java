@@ -0,0 +1,323 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.dedup.DeduplicationCache;
+import com.example.error.QueueException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partitioned file queue. Each queue is spread over a fixed number of shards,
+ * every shard is a separate file queue named [queue]-s[shard] with its own directory and lock,
+ * so producers and consumers of a single queue don't serialize on one critical section.
+ * Shards are assigned to base directories round robin, directories may be on different disks.
+ * Producers pick a shard round robin or by the "shardKey" message attribute, so messages with
+ * the same key keep their order. Consumers start with their home shard and steal from others when it is empty.
+ * Order is kept within a shard only.
+ */
+public class ShardedFileQueueService implements QueueService {
+    public static final String SHARD_KEY = "shardKey";
+    public static final String SHARD = "shard";
+
+    private final long timeout;
+    private final int shards;
+    private final FileQueueService[] services;
+
+    //Next shard for messages without a key
+    private final AtomicLong nextShard = new AtomicLong();
+
+    //Consumer threads are spread over shards
+    private final AtomicInteger nextHome = new AtomicInteger();
+    private final ThreadLocal<Integer> home = ThreadLocal.withInitial(nextHome::getAndIncrement);
+
+    //Ids are remembered per logical queue, a retry may be routed to another shard.
+    //Deduplication is disabled if null
+    private volatile DeduplicationCache deduplication;
+
+    /**
+     * @param shards - number of shards per queue
+     * @param baseDirs - directories to spread shards over, one file queue service is created per directory
+     */
+    public ShardedFileQueueService(long timeout, int shards, String... baseDirs) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Number of shards should be positive");
+        }
+        if (baseDirs.length == 0) {
+            throw new IllegalArgumentException("At least one base directory is required");
+        }
+        this.timeout = timeout;
+        this.shards = shards;
+        this.services = new FileQueueService[Math.min(shards, baseDirs.length)];
+        for (int i = 0; i < services.length; i++) {
+            services[i] = new FileQueueService(timeout, baseDirs[i]);
+        }
+    }
+
+    /**
+     * Drop pushes of messages with a "deduplicationId" attribute seen within the window. Ids are kept in process memory
+     */
+    public ShardedFileQueueService withDeduplication(long window, TimeUnit unit) {
+        return withDeduplication(window, unit, DeduplicationCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    public ShardedFileQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        this.deduplication = new DeduplicationCache(window, unit, maxEntries);
+        return this;
+    }
+
+    /**
+     * Allow Java serialization of body classes matching the patterns in all shards
+     */
+    public ShardedFileQueueService withAllowedClasses(String... patterns) {
+        for (FileQueueService service : services) {
+            service.withAllowedClasses(patterns);
+        }
+        return this;
+    }
+
+    @Override
+    public void push(String queueName, Message message) {
+        push(queueName, message, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        DeduplicationCache cache = deduplication;
+        if (cache != null && !cache.add(queueName, message)) {
+            return;
+        }
+        int shard = shardOf(message);
+        try {
+            service(shard).push(shardName(queueName, shard), message, delay, unit);
+        } catch (RuntimeException e) {
+            if (cache != null) {
+                cache.remove(queueName, Collections.singletonList(message));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Pull from the home shard of the calling thread, then steal from other shards
+     */
+    @Override
+    public Message pull(String queueName) {
+        int first = Math.floorMod(home.get(), shards);
+        for (int i = 0; i < shards; i++) {
+            int shard = (first + i) % shards;
+            Message message = service(shard).pull(shardName(queueName, shard));
+            if (message != null) {
+                message.getAttributes().put(SHARD, shard);
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a message in any shard. A push to any shard wakes up the consumer
+     */
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        while (true) {
+            //Read versions before checking shards not to miss a push in between
+            long[] versions = new long[shards];
+            for (int shard = 0; shard < shards; shard++) {
+                versions[shard] = service(shard).getPushSignal().version(shardName(queueName, shard));
+            }
+            Message message = pull(queueName);
+            if (message != null) {
+                return message;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            await(queueName, versions, remaining);
+        }
+    }
+
+    @Override
+    public void delete(String queueName, Message message) {
+        int shard = pulledShard(message);
+        service(shard).delete(shardName(queueName, shard), message);
+    }
+
+    /**
+     * Push messages with a batch call per shard keeping their order within a shard
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        DeduplicationCache cache = deduplication;
+        Map<Integer, List<Message>> byShard = new LinkedHashMap<>();
+        for (Message message : cache == null ? messages : cache.unique(queueName, messages)) {
+            byShard.computeIfAbsent(shardOf(message), shard -> new ArrayList<>()).add(message);
+        }
+        List<List<Message>> unsent = new ArrayList<>(byShard.values());
+        for (Map.Entry<Integer, List<Message>> shard : byShard.entrySet()) {
+            try {
+                service(shard.getKey()).pushBatch(shardName(queueName, shard.getKey()), shard.getValue());
+            } catch (RuntimeException e) {
+                //Messages of the failed shard may be written partially, a duplicate on retry is preferred to a loss
+                if (cache != null) {
+                    for (List<Message> rest : unsent) {
+                        cache.remove(queueName, rest);
+                    }
+                }
+                throw e;
+            }
+            unsent.remove(0);
+        }
+    }
+
+    /**
+     * Fill the batch from the home shard of the calling thread first, then from other shards
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        List<Message> messages = new ArrayList<>(Math.min(max, 16));
+        int first = Math.floorMod(home.get(), shards);
+        for (int i = 0; i < shards && messages.size() < max; i++) {
+            int shard = (first + i) % shards;
+            for (Message message : service(shard).pullBatch(shardName(queueName, shard), max - messages.size())) {
+                message.getAttributes().put(SHARD, shard);
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        Map<Integer, List<Message>> byShard = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byShard.computeIfAbsent(pulledShard(message), shard -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<Integer, List<Message>> shard : byShard.entrySet()) {
+            service(shard.getKey()).deleteBatch(shardName(queueName, shard.getKey()), shard.getValue());
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        int shard = pulledShard(message);
+        service(shard).changeVisibility(shardName(queueName, shard), message, timeout, unit);
+    }
+
+    /**
+     * Number of visible messages in all shards
+     */
+    @Override
+    public long messagesInQueue(String queueName) {
+        long count = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            count += messagesInQueue(queueName, shard);
+        }
+        return count;
+    }
+
+    /**
+     * Number of visible messages in a shard
+     */
+    public long messagesInQueue(String queueName, int shard) {
+        return service(shard).messagesInQueue(shardName(queueName, shard));
+    }
+
+    @Override
+    public long pendingMessages(String queueName) {
+        long count = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            count += pendingMessages(queueName, shard);
+        }
+        return count;
+    }
+
+    /**
+     * Number of in flight messages of a shard
+     */
+    public long pendingMessages(String queueName, int shard) {
+        return service(shard).pendingMessages(shardName(queueName, shard));
+    }
+
+    @Override
+    public void clearMessages(String queueName) {
+        for (int shard = 0; shard < shards; shard++) {
+            service(shard).clearMessages(shardName(queueName, shard));
+        }
+    }
+
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Get a file queue service holding a shard
+     */
+    public FileQueueService service(int shard) {
+        return services[shard % services.length];
+    }
+
+    /**
+     * Park until any shard is signalled. Parking is limited as file queues ask,
+     * so pushes of other processes are rechecked periodically
+     */
+    private void await(String queueName, long[] versions, long remaining) {
+        CountDownLatch changed = new CountDownLatch(1);
+        Runnable listener = changed::countDown;
+        long park = remaining;
+        for (int shard = 0; shard < shards; shard++) {
+            park = Math.min(park, service(shard).prepareAwait(shardName(queueName, shard)));
+            service(shard).getPushSignal().onChange(shardName(queueName, shard), versions[shard], listener);
+        }
+        try {
+            changed.await(park, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        } finally {
+            for (int shard = 0; shard < shards; shard++) {
+                service(shard).getPushSignal().removeListener(shardName(queueName, shard), listener);
+            }
+        }
+    }
+
+    /**
+     * Pick a shard of a pushed message by its key or round robin. Shard is stored in the message
+     */
+    private int shardOf(Message message) {
+        Object key = message.getAttributes().get(SHARD_KEY);
+        int shard = key != null ? Math.floorMod(key.hashCode(), shards) :
+                (int) Math.floorMod(nextShard.getAndIncrement(), (long) shards);
+        message.getAttributes().put(SHARD, shard);
+        return shard;
+    }
+
+    /**
+     * Get a shard a message was pulled from
+     */
+    private int pulledShard(Message message) {
+        Object shard = message.getAttributes().get(SHARD);
+        if (!(shard instanceof Number) || ((Number) shard).intValue() < 0 || ((Number) shard).intValue() >= shards) {
+            throw new QueueException(String.format("Message [%s] has no shard", message.getUuid()));
+        }
+        return ((Number) shard).intValue();
+    }
+
+    private static String shardName(String queueName, int shard) {
+        return queueName + "-s" + shard;
+    }
+}
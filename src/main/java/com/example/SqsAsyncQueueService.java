@@ -0,0 +1,248 @@
+package com.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.*;
+import com.example.beans.Message;
+import com.example.codec.MessageCodec;
+import com.example.error.QueueException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Asynchronous SQS service on top of the SDK async client.
+ * Requests are sent without blocking the caller, futures are completed by SDK callbacks.
+ * Messages are encoded the same way SqsQueueService does, so both can work with the same queues.
+ * Queue urls are cached; resolving an unknown url is the only blocking call, done once per queue.
+ */
+public class SqsAsyncQueueService implements AsyncQueueService {
+    private final AmazonSQSAsync sqsClient;
+
+    //Url cache and message encoding are shared with the blocking service
+    private final SqsQueueService sync;
+
+    public SqsAsyncQueueService(AmazonSQSAsync sqsClient, long timeout) {
+        this.sqsClient = sqsClient;
+        this.sync = new SqsQueueService(sqsClient, timeout);
+    }
+
+    public SqsAsyncQueueService withCodec(MessageCodec codec) {
+        sync.withCodec(codec);
+        return this;
+    }
+
+    public SqsAsyncQueueService withCodec(String queueName, MessageCodec codec) {
+        sync.withCodec(queueName, codec);
+        return this;
+    }
+
+    /**
+     * Blocking counterpart sharing the url cache and codecs
+     */
+    public SqsQueueService getSync() {
+        return sync;
+    }
+
+    @Override
+    public CompletableFuture<Void> push(String queueName, Message message) {
+        String body = sync.serializeMessage(queueName, message);
+        return withQueueUrl(queueName, queueUrl -> this.<SendMessageRequest, SendMessageResult>send(
+                handler -> sqsClient.sendMessageAsync(new SendMessageRequest(queueUrl, body), handler)))
+                .thenApply(result -> null);
+    }
+
+    @Override
+    public CompletableFuture<Message> pull(String queueName) {
+        return pullBatch(queueName, 1).thenApply(messages -> messages.isEmpty() ? null : messages.get(0));
+    }
+
+    /**
+     * Long polling receive. Waits longer than 20 seconds are split into several requests
+     */
+    @Override
+    public CompletableFuture<Message> pull(String queueName, long waitTime, TimeUnit unit) {
+        return receive(queueName, System.nanoTime() + unit.toNanos(waitTime));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String queueName, Message message) {
+        return withQueueUrl(queueName, queueUrl -> this.<DeleteMessageRequest, Void>send(
+                handler -> sqsClient.deleteMessageAsync(new DeleteMessageRequest(queueUrl,
+                        (String) message.getAttributes().get(SqsQueueService.RECEIPT_HANDLE_KEY)), handler)));
+    }
+
+    /**
+     * Send all chunks of up to 10 messages concurrently
+     */
+    @Override
+    public CompletableFuture<Void> pushBatch(String queueName, List<Message> messages) {
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += SqsQueueService.MAX_BATCH_SIZE) {
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SqsQueueService.MAX_BATCH_SIZE, messages.size()); i++) {
+                entries.add(new SendMessageBatchRequestEntry(Integer.toString(i), sync.serializeMessage(queueName, messages.get(i))));
+            }
+            requests.add(withQueueUrl(queueName, queueUrl -> this.<SendMessageBatchRequest, SendMessageBatchResult>send(
+                    handler -> sqsClient.sendMessageBatchAsync(new SendMessageBatchRequest(queueUrl, entries), handler)))
+                    .thenAccept(result -> SqsQueueService.checkFailed(result.getFailed(), messages)));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()]));
+    }
+
+    /**
+     * Send enough receive requests concurrently to get up to max messages
+     */
+    @Override
+    public CompletableFuture<List<Message>> pullBatch(String queueName, int max) {
+        List<CompletableFuture<List<Message>>> requests = new ArrayList<>();
+        for (int requested = 0; requested < max; requested += SqsQueueService.MAX_BATCH_SIZE) {
+            ReceiveMessageRequest request = new ReceiveMessageRequest()
+                    .withMaxNumberOfMessages(Math.min(max - requested, SqsQueueService.MAX_BATCH_SIZE))
+                    .withAttributeNames(SqsQueueService.RECEIVE_COUNT_ATTRIBUTE);
+            requests.add(withQueueUrl(queueName, queueUrl -> this.<ReceiveMessageRequest, ReceiveMessageResult>send(
+                    handler -> sqsClient.receiveMessageAsync(request.withQueueUrl(queueUrl), handler)))
+                    .thenApply(result -> deserialize(queueName, result)));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()])).thenApply(done -> {
+            List<Message> messages = new ArrayList<>();
+            for (CompletableFuture<List<Message>> request : requests) {
+                messages.addAll(request.join());
+            }
+            return messages;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(String queueName, List<Message> messages) {
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += SqsQueueService.MAX_BATCH_SIZE) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SqsQueueService.MAX_BATCH_SIZE, messages.size()); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i),
+                        (String) messages.get(i).getAttributes().get(SqsQueueService.RECEIPT_HANDLE_KEY)));
+            }
+            requests.add(withQueueUrl(queueName, queueUrl -> this.<DeleteMessageBatchRequest, DeleteMessageBatchResult>send(
+                    handler -> sqsClient.deleteMessageBatchAsync(new DeleteMessageBatchRequest(queueUrl, entries), handler)))
+                    .thenAccept(result -> SqsQueueService.checkFailed(result.getFailed(), messages)));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[requests.size()]));
+    }
+
+    @Override
+    public CompletableFuture<Void> changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        int seconds = SqsQueueService.visibilitySeconds(timeout, unit);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        withQueueUrl(queueName, queueUrl -> this.<ChangeMessageVisibilityRequest, Void>send(
+                handler -> sqsClient.changeMessageVisibilityAsync(new ChangeMessageVisibilityRequest(queueUrl,
+                        (String) message.getAttributes().get(SqsQueueService.RECEIPT_HANDLE_KEY), seconds), handler)))
+                .whenComplete((done, error) -> {
+                    Throwable cause = unwrap(error);
+                    if (cause == null) {
+                        result.complete(null);
+                    } else if (cause instanceof ReceiptHandleIsInvalidException || cause instanceof MessageNotInflightException) {
+                        result.completeExceptionally(new QueueException(
+                                String.format("Message [%s] is not in flight", message.getUuid()), cause));
+                    } else {
+                        result.completeExceptionally(cause);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Message> receive(String queueName, long deadline) {
+        //Round up - SQS accepts whole seconds only
+        long remainingSeconds = (deadline - System.nanoTime() + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        ReceiveMessageRequest request = new ReceiveMessageRequest()
+                .withMaxNumberOfMessages(1)
+                .withAttributeNames(SqsQueueService.RECEIVE_COUNT_ATTRIBUTE)
+                .withWaitTimeSeconds((int) Math.max(0, Math.min(remainingSeconds, SqsQueueService.MAX_WAIT_TIME_SECONDS)));
+        return withQueueUrl(queueName, queueUrl -> this.<ReceiveMessageRequest, ReceiveMessageResult>send(
+                handler -> sqsClient.receiveMessageAsync(request.withQueueUrl(queueUrl), handler)))
+                .thenCompose(result -> {
+                    List<Message> messages = deserialize(queueName, result);
+                    if (!messages.isEmpty()) {
+                        return CompletableFuture.completedFuture(messages.get(0));
+                    }
+                    if (deadline - System.nanoTime() <= 0) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return receive(queueName, deadline);
+                });
+    }
+
+    private List<Message> deserialize(String queueName, ReceiveMessageResult result) {
+        List<Message> messages = new ArrayList<>(result.getMessages().size());
+        for (com.amazonaws.services.sqs.model.Message message : result.getMessages()) {
+            messages.add(sync.deserializeMessage(queueName, message));
+        }
+        return messages;
+    }
+
+    /**
+     * Send a request with a cached queue url. If the queue turns out to be missing,
+     * the url is resolved again, creating the queue, and the request is retried once
+     */
+    private <T> CompletableFuture<T> withQueueUrl(String queueName, Function<String, CompletableFuture<T>> request) {
+        String queueUrl;
+        try {
+            queueUrl = sync.getQueueUri(queueName);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        return request.apply(queueUrl).handle((result, error) -> {
+            Throwable cause = unwrap(error);
+            if (cause == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            if (!(cause instanceof QueueDoesNotExistException)) {
+                return SqsAsyncQueueService.<T>failed(cause);
+            }
+            sync.invalidateQueueUri(queueName, queueUrl);
+            try {
+                return request.apply(sync.getQueueUri(queueName));
+            } catch (RuntimeException e) {
+                return SqsAsyncQueueService.<T>failed(e);
+            }
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Run an SDK call completing a future from its callback
+     */
+    private <REQUEST extends AmazonWebServiceRequest, RESULT> CompletableFuture<RESULT> send(
+            Function<AsyncHandler<REQUEST, RESULT>, ?> call) {
+        CompletableFuture<RESULT> future = new CompletableFuture<>();
+        try {
+            call.apply(new AsyncHandler<REQUEST, RESULT>() {
+                @Override
+                public void onError(Exception exception) {
+                    future.completeExceptionally(exception);
+                }
+
+                @Override
+                public void onSuccess(REQUEST request, RESULT result) {
+                    future.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
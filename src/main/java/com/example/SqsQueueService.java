@@ -1,16 +1,33 @@
 package com.example;
 
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.*;
 import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.codec.BinaryMessageCodec;
+import com.example.codec.BufferCache;
+import com.example.codec.CodecRegistry;
+import com.example.codec.MessageCodec;
+import com.example.dedup.DeduplicationCache;
+import com.example.error.BatchException;
 import com.example.error.QueueException;
+import com.example.timer.DelayScheduler;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
-import static ru.greatbit.utils.serialize.JsonSerializer.marshal;
 import static ru.greatbit.utils.serialize.Serializer.unmarshal;
 
 /**
@@ -18,19 +35,175 @@ import static ru.greatbit.utils.serialize.Serializer.unmarshal;
  */
 public class SqsQueueService implements QueueService {
 
-    private final AmazonSQSClient sqsClient;
+    private final AmazonSQS sqsClient;
     private final long timeout;
 
-    private final String RECEIPT_HANDLE_KEY = "receiptHandle";
+    static final String RECEIPT_HANDLE_KEY = "receiptHandle";
 
-    public SqsQueueService(AmazonSQSClient sqsClient, long timeout) {
+    //SQS limit for batch requests and a single receive
+    static final int MAX_BATCH_SIZE = 10;
+
+    //SQS limit for long polling
+    static final int MAX_WAIT_TIME_SECONDS = 20;
+
+    //Message system attribute requested with every receive
+    static final String RECEIVE_COUNT_ATTRIBUTE = "ApproximateReceiveCount";
+
+    //Redrive policies are kept to be set again on queues recreated after clearMessages
+    private final Map<String, RedrivePolicy> redrivePolicies = new ConcurrentHashMap<>();
+
+    //SQS limit for DelaySeconds. Longer delays are held in process until the rest fits the limit
+    private static final long MAX_DELAY_SECONDS = 900;
+    private final DelayScheduler<HeldMessage> held = new DelayScheduler<>("sqs-queue-delays",
+            message -> send(message.queueName, message.message,
+                    message.deliverAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS));
+
+    //Ids of recently pushed messages, deduplication is disabled if null.
+    //The SDK has no MessageDeduplicationId, so retries are deduplicated in process
+    private volatile DeduplicationCache deduplication;
+
+    //First bytes of a Java serialization stream
+    private static final byte JAVA_MAGIC_HIGH = (byte) 0xAC;
+    private static final byte JAVA_MAGIC_LOW = (byte) 0xED;
+
+    //SQS limit for visibility timeout
+    private static final long MAX_VISIBILITY_TIMEOUT_SECONDS = 43200;
+
+    //Messages are encoded with a codec and sent as Base64 text.
+    //Beans, Maps and Lists are written as JSON like before codecs, they are received as Maps and Lists
+    private final CodecRegistry codecs = new CodecRegistry(new BinaryMessageCodec().withJsonSerialization());
+    private final BufferCache buffers = new BufferCache();
+
+    //Queue urls don't change while a queue exists, entries are dropped once SQS reports a queue missing
+    private final Map<String, String> queueUrls = new ConcurrentHashMap<>();
+
+    //Depth attributes are approximate in SQS anyway, so they are cached for a short time
+    private static final long DEFAULT_ATTRIBUTES_TTL = TimeUnit.SECONDS.toNanos(1);
+    private static final List<String> DEPTH_ATTRIBUTES = Arrays.asList(
+            QueueAttributeName.ApproximateNumberOfMessages.toString(),
+            QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString());
+    private final Map<String, CachedAttributes> attributes = new ConcurrentHashMap<>();
+    private long attributesTtl = DEFAULT_ATTRIBUTES_TTL;
+
+    public SqsQueueService(AmazonSQS sqsClient, long timeout) {
         this.timeout = timeout;
         this.sqsClient = sqsClient;
     }
 
+    /**
+     * Set a default codec for message bodies. Should be the same for all producers and consumers of a queue.
+     * Bodies come from a remote service, Java serialization should not be enabled for classes unsafe to instantiate
+     */
+    public SqsQueueService withCodec(MessageCodec codec) {
+        codecs.setDefault(codec);
+        return this;
+    }
+
+    /**
+     * Set a codec for a single queue, e.g. to tune compression of its messages
+     */
+    public SqsQueueService withCodec(String queueName, MessageCodec codec) {
+        codecs.register(queueName, codec);
+        return this;
+    }
+
+    /**
+     * Set RedrivePolicy of a queue. SQS counts receives and moves messages to the dead-letter queue itself
+     */
+    public SqsQueueService withRedrivePolicy(String queueName, RedrivePolicy policy) {
+        redrivePolicies.put(queueName, policy);
+        withQueueUrl(queueName, queueUrl -> {
+            sqsClient.setQueueAttributes(queueUrl, Collections.singletonMap(
+                    QueueAttributeName.RedrivePolicy.toString(), redrivePolicy(policy)));
+            return null;
+        });
+        return this;
+    }
+
+    /**
+     * Set how long queue depth attributes are cached, 0 disables caching
+     */
+    public SqsQueueService withAttributesTtl(long ttl, TimeUnit unit) {
+        this.attributesTtl = unit.toNanos(ttl);
+        return this;
+    }
+
+    /**
+     * Drop pushes of messages with a "deduplicationId" attribute seen within the window,
+     * e.g. retries of a send that timed out. Ids are kept in process memory,
+     * pushes of other producers are not deduplicated
+     */
+    public SqsQueueService withDeduplication(long window, TimeUnit unit) {
+        return withDeduplication(window, unit, DeduplicationCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries - max number of remembered ids, the oldest ones are forgotten early beyond it
+     */
+    public SqsQueueService withDeduplication(long window, TimeUnit unit, int maxEntries) {
+        this.deduplication = new DeduplicationCache(window, unit, maxEntries);
+        return this;
+    }
+
     @Override
     public void push(String queueName, Message message) {
-        sqsClient.sendMessage(getQueueUri(queueName), serializeMessage(message));
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        try {
+            String body = serializeMessage(queueName, message);
+            withQueueUrl(queueName, queueUrl -> sqsClient.sendMessage(queueUrl, body));
+        } catch (RuntimeException e) {
+            if (!isAmbiguous(e)) {
+                forgetDeduplication(queueName, Collections.singletonList(message));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send a message with DelaySeconds. Delays beyond the SQS limit of 15 minutes are held
+     * in process memory until the rest fits the limit, such messages are lost if the process stops
+     */
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        if (unit.toMillis(delay) <= 0) {
+            push(queueName, message);
+            return;
+        }
+        if (!deduplicate(queueName, message)) {
+            return;
+        }
+        try {
+            send(queueName, message, delay, unit);
+        } catch (RuntimeException e) {
+            if (!isAmbiguous(e)) {
+                forgetDeduplication(queueName, Collections.singletonList(message));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send a delayed message, held messages are sent again once the rest of their delay fits the limit
+     */
+    private void send(String queueName, Message message, long delay, TimeUnit unit) {
+        long delayMillis = unit.toMillis(delay);
+        if (delayMillis <= 0) {
+            String body = serializeMessage(queueName, message);
+            withQueueUrl(queueName, queueUrl -> sqsClient.sendMessage(queueUrl, body));
+            return;
+        }
+        if (delayMillis > TimeUnit.SECONDS.toMillis(MAX_DELAY_SECONDS)) {
+            long deliverAt = System.currentTimeMillis() + delayMillis;
+            held.schedule(new HeldMessage(queueName, message, deliverAt), deliverAt - TimeUnit.SECONDS.toMillis(MAX_DELAY_SECONDS));
+            return;
+        }
+        //Round up not to deliver early
+        int delaySeconds = (int) ((delayMillis + 999) / 1000);
+        String body = serializeMessage(queueName, message);
+        withQueueUrl(queueName, queueUrl -> sqsClient.sendMessage(
+                new SendMessageRequest(queueUrl, body).withDelaySeconds(delaySeconds)));
     }
 
     /**
@@ -40,10 +213,36 @@ public class SqsQueueService implements QueueService {
      */
     @Override
     public Message pull(String queueName) {
-        ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(sqsClient.getQueueUrl(queueName).getQueueUrl());
-        receiveMessageRequest.setMaxNumberOfMessages(1);
-        List<com.amazonaws.services.sqs.model.Message> messages = sqsClient.receiveMessage(queueName).getMessages();
-        return messages.size() < 1 ? null : deserializeMessage(messages.get(0));
+        List<Message> messages = pullBatch(queueName, 1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Long polling receive. SQS waits up to 20 seconds per request,
+     * longer waits are split into several requests
+     */
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        return withQueueUrl(queueName, queueUrl -> receive(queueName, queueUrl, deadline));
+    }
+
+    private Message receive(String queueName, String queueUrl, long deadline) {
+        while (true) {
+            //Round up - SQS accepts whole seconds only
+            long remainingSeconds = (deadline - System.nanoTime() + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+            ReceiveMessageRequest receiveMessageRequest = new ReceiveMessageRequest(queueUrl)
+                    .withMaxNumberOfMessages(1)
+                    .withAttributeNames(RECEIVE_COUNT_ATTRIBUTE)
+                    .withWaitTimeSeconds((int) Math.max(0, Math.min(remainingSeconds, MAX_WAIT_TIME_SECONDS)));
+            List<com.amazonaws.services.sqs.model.Message> messages = sqsClient.receiveMessage(receiveMessageRequest).getMessages();
+            if (!messages.isEmpty()) {
+                return deserializeMessage(queueName, messages.get(0));
+            }
+            if (deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+        }
     }
 
     /**
@@ -53,15 +252,141 @@ public class SqsQueueService implements QueueService {
      */
     @Override
     public void delete(String queueName, Message message) {
-        sqsClient.deleteMessage(new DeleteMessageRequest(sqsClient.getQueueUrl(queueName).getQueueUrl(),
-                (String) message.getAttributes().get(RECEIPT_HANDLE_KEY)));
+        withQueueUrl(queueName, queueUrl -> {
+            sqsClient.deleteMessage(new DeleteMessageRequest(queueUrl,
+                    (String) message.getAttributes().get(RECEIPT_HANDLE_KEY)));
+            return null;
+        });
+    }
+
+    /**
+     * Send messages with SendMessageBatch requests of up to 10 entries.
+     * Duplicates are dropped. Failed entries and entries of requests not sent can be pushed again,
+     * entries of a request that may have been accepted are still deduplicated.
+     * @throws BatchException listing failed entries once all requests are sent
+     */
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        List<Message> unique = deduplicate(queueName, messages);
+        //Later chunks are still sent when some entries fail, failures are reported together
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (int from = 0; from < unique.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, unique.size());
+            try {
+                List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    entries.add(new SendMessageBatchRequestEntry(Integer.toString(i), serializeMessage(queueName, unique.get(i))));
+                }
+                failed.addAll(withQueueUrl(queueName, queueUrl ->
+                        sqsClient.sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries)).getFailed()));
+            } catch (RuntimeException e) {
+                forgetDeduplication(queueName, failedMessages(failed, unique));
+                forgetDeduplication(queueName, unique.subList(isAmbiguous(e) ? to : from, unique.size()));
+                throw e;
+            }
+        }
+        forgetDeduplication(queueName, failedMessages(failed, unique));
+        checkFailed(failed, unique);
+    }
+
+    /**
+     * Check if a failed send may still have been accepted by SQS, e.g. a client timeout after the request was sent.
+     * Ids of such messages are kept, so a retry is dropped. Errors returned by SQS are definite rejections
+     */
+    private static boolean isAmbiguous(RuntimeException e) {
+        return e instanceof AmazonClientException && !(e instanceof AmazonServiceException);
+    }
+
+    /**
+     * Remember a deduplication id of a message about to be pushed
+     * @return false if the message should be dropped as a duplicate
+     */
+    private boolean deduplicate(String queueName, Message message) {
+        DeduplicationCache cache = deduplication;
+        return cache == null || cache.add(queueName, message);
     }
 
+    private List<Message> deduplicate(String queueName, List<Message> messages) {
+        DeduplicationCache cache = deduplication;
+        return cache == null ? messages : cache.unique(queueName, messages);
+    }
+
+    private void forgetDeduplication(String queueName, List<Message> messages) {
+        DeduplicationCache cache = deduplication;
+        if (cache != null) {
+            cache.remove(queueName, messages);
+        }
+    }
+
+    /**
+     * Receive up to max messages. Each ReceiveMessage call returns at most 10 messages,
+     * receiving stops as soon as the queue returns less than requested
+     */
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        List<Message> result = new ArrayList<>();
+        while (result.size() < max) {
+            int requested = Math.min(max - result.size(), MAX_BATCH_SIZE);
+            List<com.amazonaws.services.sqs.model.Message> messages = withQueueUrl(queueName, queueUrl ->
+                    sqsClient.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                            .withMaxNumberOfMessages(requested).withAttributeNames(RECEIVE_COUNT_ATTRIBUTE)).getMessages());
+            for (com.amazonaws.services.sqs.model.Message message : messages) {
+                result.add(deserializeMessage(queueName, message));
+            }
+            if (messages.size() < requested) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove messages with DeleteMessageBatch requests of up to 10 entries
+     * @throws BatchException listing failed entries once all requests are sent
+     */
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += MAX_BATCH_SIZE) {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < Math.min(from + MAX_BATCH_SIZE, messages.size()); i++) {
+                entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i),
+                        (String) messages.get(i).getAttributes().get(RECEIPT_HANDLE_KEY)));
+            }
+            failed.addAll(withQueueUrl(queueName, queueUrl ->
+                    sqsClient.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries)).getFailed()));
+        }
+        checkFailed(failed, messages);
+    }
+
+    /**
+     * Change visibility timeout with ChangeMessageVisibility. SQS accepts whole seconds up to 12 hours
+     */
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        int seconds = visibilitySeconds(timeout, unit);
+        try {
+            withQueueUrl(queueName, queueUrl -> {
+                sqsClient.changeMessageVisibility(new ChangeMessageVisibilityRequest(queueUrl,
+                        (String) message.getAttributes().get(RECEIPT_HANDLE_KEY), seconds));
+                return null;
+            });
+        } catch (ReceiptHandleIsInvalidException | MessageNotInflightException e) {
+            throw new QueueException(String.format("Message [%s] is not in flight", message.getUuid()), e);
+        }
+    }
+
+    /**
+     * Approximate number of visible messages. Cached up to the attributes TTL
+     */
     @Override
     public long messagesInQueue(String queueName) {
         return Long.parseLong(getAttribute(queueName, QueueAttributeName.ApproximateNumberOfMessages));
     }
 
+    /**
+     * Approximate number of in flight messages. Cached up to the attributes TTL
+     */
     @Override
     public long pendingMessages(String queueName) {
         return Long.parseLong(getAttribute(queueName, QueueAttributeName.ApproximateNumberOfMessagesNotVisible));
@@ -72,6 +397,9 @@ public class SqsQueueService implements QueueService {
         sqsClient.listQueues().getQueueUrls().forEach(url ->
             sqsClient.deleteQueue(url)
         );
+        queueUrls.clear();
+        attributes.clear();
+        held.removeIf(message -> message.queueName.equals(queueName));
     }
 
     @Override
@@ -80,24 +408,99 @@ public class SqsQueueService implements QueueService {
     }
 
     /**
-     * Get queue attribute
+     * Get queue attribute. Both depth attributes are fetched with a single request and cached
      * @param queueName
      * @param attributeName
      * @return String value of an attribute
      */
     private String getAttribute(String queueName, QueueAttributeName attributeName){
-        return sqsClient.getQueueAttributes(queueName, Arrays.asList(attributeName.toString()))
-                .getAttributes().get(attributeName.toString());
+        CachedAttributes cached = attributes.get(queueName);
+        long now = System.nanoTime();
+        if (cached == null || now - cached.fetched >= attributesTtl) {
+            Map<String, String> values = withQueueUrl(queueName, queueUrl ->
+                    sqsClient.getQueueAttributes(queueUrl, DEPTH_ATTRIBUTES).getAttributes());
+            cached = new CachedAttributes(values, now);
+            if (attributesTtl > 0) {
+                attributes.put(queueName, cached);
+            }
+        }
+        return cached.values.get(attributeName.toString());
     }
 
     /**
-     * Get a Queue url or create if absent
+     * Run a request with a cached queue url. If the queue turns out to be missing,
+     * the url is resolved again, creating the queue, and the request is retried once
+     */
+    private <T> T withQueueUrl(String queueName, Function<String, T> request) {
+        String queueUrl = getQueueUri(queueName);
+        try {
+            return request.apply(queueUrl);
+        } catch (QueueDoesNotExistException e) {
+            invalidateQueueUri(queueName, queueUrl);
+            return request.apply(getQueueUri(queueName));
+        }
+    }
+
+    /**
+     * Drop cached data of a queue that turned out to be missing
+     */
+    void invalidateQueueUri(String queueName, String queueUrl) {
+        queueUrls.remove(queueName, queueUrl);
+        attributes.remove(queueName);
+    }
+
+    /**
+     * Visibility timeout in whole seconds, rounded up and limited by SQS max
+     */
+    static int visibilitySeconds(long timeout, TimeUnit unit) {
+        return (int) Math.min((unit.toMillis(timeout) + 999) / 1000, MAX_VISIBILITY_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Fail if some entries of a batch request were not processed
+     * @param failed - failed entries of batch results, ids are indexes of messages
+     * @param messages - messages of the batch call
+     * @throws BatchException listing messages of the failed entries
+     */
+    static void checkFailed(List<BatchResultErrorEntry> failed, List<Message> messages) {
+        if (!failed.isEmpty()) {
+            BatchResultErrorEntry first = failed.get(0);
+            throw new BatchException(String.format("%s batch entries failed, first: [%s] %s",
+                    failed.size(), first.getCode(), first.getMessage()), failedMessages(failed, messages));
+        }
+    }
+
+    private static List<Message> failedMessages(List<BatchResultErrorEntry> failed, List<Message> messages) {
+        List<Message> result = new ArrayList<>(failed.size());
+        for (BatchResultErrorEntry entry : failed) {
+            result.add(messages.get(Integer.parseInt(entry.getId())));
+        }
+        return result;
+    }
+
+
+    /**
+     * Get a cached Queue url, resolve or create if absent
      * @param queueName
      * @return Existing or created queue url
      */
-    private String getQueueUri(String queueName){
-        GetQueueUrlResult queueUrl = sqsClient.getQueueUrl(queueName);
-        return queueUrl != null ? queueUrl.getQueueUrl() : createQueue(queueName);
+    String getQueueUri(String queueName){
+        String queueUrl = queueUrls.get(queueName);
+        if (queueUrl == null) {
+            queueUrl = resolveQueueUri(queueName);
+            queueUrls.put(queueName, queueUrl);
+        }
+        return queueUrl;
+    }
+
+    private String resolveQueueUri(String queueName){
+        try {
+            GetQueueUrlResult queueUrl = sqsClient.getQueueUrl(queueName);
+            return queueUrl != null ? queueUrl.getQueueUrl() : createQueue(queueName);
+        } catch (QueueDoesNotExistException e) {
+            //SQS reports a missing queue with an exception rather than an empty result
+            return createQueue(queueName);
+        }
     }
 
     /**
@@ -109,6 +512,10 @@ public class SqsQueueService implements QueueService {
         String uri;
         Map<String, String> attributes = new HashMap<>();
         attributes.put("VisibilityTimeout", Long.toString(timeout / 1000));
+        RedrivePolicy policy = redrivePolicies.get(queueName);
+        if (policy != null) {
+            attributes.put(QueueAttributeName.RedrivePolicy.toString(), redrivePolicy(policy));
+        }
         CreateQueueRequest createQueueRequest = new CreateQueueRequest()
                 .withQueueName(queueName).withAttributes(attributes);
         try {
@@ -119,19 +526,46 @@ public class SqsQueueService implements QueueService {
         return uri;
     }
 
+    /**
+     * SQS RedrivePolicy attribute. Dead-letter queue is created if absent
+     */
+    private String redrivePolicy(RedrivePolicy policy) {
+        String deadLetterArn = withQueueUrl(policy.getDeadLetterQueue(), queueUrl -> sqsClient.getQueueAttributes(queueUrl,
+                Collections.singletonList(QueueAttributeName.QueueArn.toString())).getAttributes()
+                .get(QueueAttributeName.QueueArn.toString()));
+        return String.format("{\"maxReceiveCount\":\"%s\",\"deadLetterTargetArn\":\"%s\"}",
+                policy.getMaxReceiveCount(), deadLetterArn);
+    }
+
     /**
      * Transform SQS message to Message decorator
      * @param message
      * @return Wrapped message
      */
-    private Message deserializeMessage(com.amazonaws.services.sqs.model.Message message) {
+    Message deserializeMessage(String queueName, com.amazonaws.services.sqs.model.Message message) {
+        Message result;
         try {
-            Message result = unmarshal(message.getBody(), Message.class).withUuid(message.getMessageId());
-            result.getAttributes().put(RECEIPT_HANDLE_KEY, message.getReceiptHandle());
-            return result;
+            //JSON bodies could still be in flight after an upgrade, Base64 never starts with a brace
+            if (message.getBody().startsWith("{")) {
+                result = unmarshal(message.getBody(), Message.class);
+            } else {
+                byte[] bytes = Base64.getDecoder().decode(message.getBody());
+                //SQS never carried Java serialized messages, such bodies are rejected whatever the codec is
+                if (bytes.length >= 2 && bytes[0] == JAVA_MAGIC_HIGH && bytes[1] == JAVA_MAGIC_LOW) {
+                    throw new QueueException("Java serialized messages are not accepted");
+                }
+                result = codecs.get(queueName).decode(bytes);
+            }
         } catch (Exception e) {
             throw new QueueException("Can't deserialize message", e);
         }
+        result.withUuid(message.getMessageId());
+        result.getAttributes().put(RECEIPT_HANDLE_KEY, message.getReceiptHandle());
+        String receiveCount = message.getAttributes().get(RECEIVE_COUNT_ATTRIBUTE);
+        if (receiveCount != null) {
+            result.getAttributes().put(RedrivePolicy.RECEIVE_COUNT_KEY, Integer.parseInt(receiveCount));
+        }
+        return result;
     }
 
     /**
@@ -139,12 +573,39 @@ public class SqsQueueService implements QueueService {
      * @param message
      * @return serialized message body
      */
-    private String serializeMessage(Message message) {
-        try {
-            return marshal(message);
-        } catch (Exception e) {
-            throw new QueueException("Can't serialize message", e);
+    String serializeMessage(String queueName, Message message) {
+        ByteBuffer buffer = codecs.get(queueName).encode(message, buffers.acquire());
+        buffer.flip();
+        ByteBuffer encoded = Base64.getEncoder().encode(buffer);
+        buffers.release(buffer);
+        return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Queue depth attributes fetched at a point of time
+     */
+    private static class CachedAttributes {
+        private final Map<String, String> values;
+        private final long fetched;
+
+        private CachedAttributes(Map<String, String> values, long fetched) {
+            this.values = values;
+            this.fetched = fetched;
         }
     }
 
+    /**
+     * Message waiting until its delay fits the SQS limit
+     */
+    private static class HeldMessage {
+        private final String queueName;
+        private final Message message;
+        private final long deliverAt;
+
+        private HeldMessage(String queueName, Message message, long deliverAt) {
+            this.queueName = queueName;
+            this.message = message;
+            this.deliverAt = deliverAt;
+        }
+    }
 }
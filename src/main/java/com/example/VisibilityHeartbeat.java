@@ -0,0 +1,53 @@
+package com.example;
+
+import com.example.beans.Message;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a pulled message invisible while it is processed.
+ * Visibility is extended by a timeout every half of that timeout until the heartbeat is stopped,
+ * so a short default timeout can be kept for fast recovery after a consumer crash.
+ */
+public class VisibilityHeartbeat implements AutoCloseable {
+    private final ScheduledFuture<?> future;
+
+    private VisibilityHeartbeat(ScheduledFuture<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Start extending visibility of a message
+     * @param scheduler - executor running extensions
+     * @param timeout - visibility timeout set on every beat
+     */
+    public static VisibilityHeartbeat start(QueueService service, ScheduledExecutorService scheduler,
+                                            String queueName, Message message, long timeout, TimeUnit unit) {
+        long period = Math.max(1, unit.toMillis(timeout) / 2);
+        //Task is cancelled by the runtime if it throws - beats stop once the message is not in flight
+        return new VisibilityHeartbeat(scheduler.scheduleAtFixedRate(
+                () -> service.changeVisibility(queueName, message, timeout, unit),
+                period, period, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Check if beats are still running. Beats stop if the message is not in flight anymore
+     */
+    public boolean isActive() {
+        return !future.isDone();
+    }
+
+    /**
+     * Stop extending visibility. Should be called before the message is deleted
+     */
+    public void stop() {
+        future.cancel(false);
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+}
@@ -14,6 +14,11 @@ public class Message<T> implements Serializable {
     private String uuid;
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
 
+    //Used by JSON deserialization
+    public Message() {
+        uuid = UUID.randomUUID().toString();
+    }
+
     public Message(T body) {
         this.body = body;
         uuid = UUID.randomUUID().toString();
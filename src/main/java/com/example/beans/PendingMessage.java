@@ -1,25 +1,33 @@
 package com.example.beans;
 
+import com.example.timer.TimerWheel;
+
 /**
  * Created by azee on 09.12.16.
  */
 public class PendingMessage {
     private final String queuName;
-    private boolean visited;
+    private final Message message;
+    private volatile TimerWheel.Entry<PendingMessage> expiry;
 
-    public PendingMessage(String queuName) {
+    public PendingMessage(String queuName, Message message) {
         this.queuName = queuName;
+        this.message = message;
     }
 
-    public boolean isVisited() {
-        return visited;
+    public String getQueuName() {
+        return queuName;
     }
 
-    public void setVisited(boolean visited) {
-        this.visited = visited;
+    public Message getMessage() {
+        return message;
     }
 
-    public String getQueuName() {
-        return queuName;
+    public TimerWheel.Entry<PendingMessage> getExpiry() {
+        return expiry;
+    }
+
+    public void setExpiry(TimerWheel.Entry<PendingMessage> expiry) {
+        this.expiry = expiry;
     }
 }
@@ -0,0 +1,39 @@
+package com.example.beans;
+
+/**
+ * Dead-letter policy of a queue.
+ * A message that was received maxReceiveCount times and became visible again,
+ * after a visibility timeout or a release, is moved to the dead-letter queue
+ * instead of being redelivered, so a poison message can't block the queue.
+ */
+public class RedrivePolicy {
+    //Message attribute holding the number of times a message was received
+    public static final String RECEIVE_COUNT_KEY = "receiveCount";
+
+    private final String deadLetterQueue;
+    private final int maxReceiveCount;
+
+    public RedrivePolicy(String deadLetterQueue, int maxReceiveCount) {
+        if (maxReceiveCount < 1) {
+            throw new IllegalArgumentException("Max receive count should be positive");
+        }
+        this.deadLetterQueue = deadLetterQueue;
+        this.maxReceiveCount = maxReceiveCount;
+    }
+
+    public String getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    public int getMaxReceiveCount() {
+        return maxReceiveCount;
+    }
+
+    /**
+     * Get the receive count of a pulled message, 0 if unknown
+     */
+    public static int getReceiveCount(Message message) {
+        Object count = message.getAttributes().get(RECEIVE_COUNT_KEY);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.blob;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage for message payloads that are too large to travel through a queue.
+ * Blobs are grouped by queue, so they can be dropped together with the queue.
+ * A stored blob is pending until it is committed once its message is pushed,
+ * only pending blobs are reclaimed, so blobs of queued messages are kept however long they wait.
+ * Implementations should be thread safe.
+ */
+public interface BlobStore {
+
+    /**
+     * Store a pending payload
+     * @return key to be passed through the queue instead of the payload
+     */
+    String put(String queueName, byte[] data);
+
+    /**
+     * @return payload or null if there is no blob with the key
+     */
+    byte[] get(String key);
+
+    /**
+     * Remove a blob. Missing blobs are ignored
+     */
+    void delete(String key);
+
+    /**
+     * Mark a blob as referenced by a queued message. Committed blobs are not reclaimed, committing again is a no-op
+     */
+    void commit(String key);
+
+    /**
+     * Remove all blobs of a queue
+     */
+    void deleteAll(String queueName);
+
+    /**
+     * Remove pending blobs of a queue stored longer than maxAge ago
+     * @return number of removed blobs
+     */
+    int reclaim(String queueName, long maxAge, TimeUnit unit);
+}
@@ -0,0 +1,127 @@
+package com.example.blob;
+
+import com.example.error.QueueException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blob store on a local or shared file system.
+ * Each queue is a directory, each blob is a file named by a random uuid. Keys look like "queue/uuid".
+ * Blobs are written to a temporary file and renamed, so a reader never sees a partial blob.
+ * A pending blob has an empty marker file "uuid.pending" created before the blob and removed on commit,
+ * so a process stopped in between leaves a blob that is still reclaimed.
+ */
+public class LocalBlobStore implements BlobStore {
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private final File baseDir;
+
+    public LocalBlobStore(String baseDir) {
+        this.baseDir = new File(baseDir);
+        if (!this.baseDir.exists()){
+            this.baseDir.mkdirs();
+        }
+    }
+
+    @Override
+    public String put(String queueName, byte[] data) {
+        File queueDir = new File(baseDir, queueName);
+        if (!queueDir.exists()){
+            queueDir.mkdirs();
+        }
+        String name = UUID.randomUUID().toString();
+        File tmp = new File(queueDir, name + TMP_SUFFIX);
+        try {
+            Files.createFile(new File(queueDir, name + PENDING_SUFFIX).toPath());
+            Files.write(tmp.toPath(), data);
+            Files.move(tmp.toPath(), new File(queueDir, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            new File(queueDir, name + PENDING_SUFFIX).delete();
+            throw new QueueException(String.format("Couldn't store blob for queue [%s]", queueName), e);
+        }
+        return queueName + "/" + name;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        try {
+            return Files.readAllBytes(getFile(key).toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't read blob [%s]", key), e);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        File file = getFile(key);
+        file.delete();
+        new File(file.getPath() + PENDING_SUFFIX).delete();
+    }
+
+    @Override
+    public void commit(String key) {
+        new File(getFile(key).getPath() + PENDING_SUFFIX).delete();
+    }
+
+    @Override
+    public void deleteAll(String queueName) {
+        File queueDir = new File(baseDir, queueName);
+        if (queueDir.exists()){
+            try {
+                FileUtils.deleteDirectory(queueDir);
+            } catch (IOException e) {
+                throw new QueueException(String.format("Couldn't remove blobs of queue [%s]", queueName), e);
+            }
+        }
+    }
+
+    @Override
+    public int reclaim(String queueName, long maxAge, TimeUnit unit) {
+        File[] files = new File(baseDir, queueName).listFiles();
+        if (files == null){
+            return 0;
+        }
+        long threshold = System.currentTimeMillis() - unit.toMillis(maxAge);
+        int reclaimed = 0;
+        for (File file : files){
+            String name = file.getName();
+            if (file.lastModified() >= threshold){
+                continue;
+            }
+            if (name.endsWith(PENDING_SUFFIX)){
+                //Blob goes first, a marker without a blob is removed by the next reclaim
+                File blob = new File(file.getParentFile(), name.substring(0, name.length() - PENDING_SUFFIX.length()));
+                if (blob.delete()){
+                    reclaimed++;
+                }
+                file.delete();
+            } else if (name.endsWith(TMP_SUFFIX)){
+                //Unfinished write
+                file.delete();
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Resolve a key checking that it points inside of the store
+     */
+    private File getFile(String key) {
+        int separator = key.indexOf('/');
+        if (separator <= 0 || key.indexOf('/', separator + 1) >= 0 || key.contains("..")){
+            throw new QueueException(String.format("Malformed blob key [%s]", key));
+        }
+        return new File(baseDir, key);
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.codec;
+
+import com.example.beans.Message;
+import com.example.error.QueueException;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary codec. Layout of an encoded message:
+ * <pre>
+ *   version:byte flags:byte uuid:string attributesCount:varint (key:string value:tagged)* body:tagged
+ * </pre>
+ * Strings are varint length prefixed UTF-8, tagged values are a serializer id followed by the serialized value.
+ * If compression is enabled, attributes and body of a large message are replaced with
+ * <pre>
+ *   rawLength:varint deflated:bytes
+ * </pre>
+ * and the deflate flag is set, so any reader decodes it regardless of its own compression settings.
+ * Values without a dedicated serializer are rejected by default. Two fallbacks can be enabled for them:
+ * Java serialization of allowed classes, which also decodes messages written with Java serialization
+ * by previous versions, and JSON, which reads values back as Maps and Lists. Java serialization goes first.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    static final byte VERSION = 1;
+    static final byte FLAG_DEFLATE = 1;
+
+    //Length header of a compressed section fits into 5 bytes
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    //First bytes of a Java serialization stream
+    private static final byte JAVA_MAGIC_HIGH = (byte) 0xAC;
+    private static final byte JAVA_MAGIC_LOW = (byte) 0xED;
+
+    /**
+     * Classes of messages written by previous versions of local queues: the message and JDK values and collections
+     */
+    public static final String[] STANDARD_CLASSES = {"com.example.beans.Message", "java.lang.*", "java.math.*", "java.util.**"};
+
+    //Java serialization is disabled if null
+    private ClassAllowList javaClasses;
+    private boolean json;
+
+    //Lookup goes through custom serializers first
+    private final List<BodySerializer> serializers = new ArrayList<>(BodySerializers.defaults());
+    private final BodySerializer[] byId = new BodySerializer[256];
+
+    //Declared size of a compressed message is checked before anything is allocated
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+    private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+    //Compression is off by default
+    private int compressionThreshold = -1;
+    private ThreadLocal<Deflater> deflaters;
+    private final CompressionStats stats = new CompressionStats();
+
+    public BinaryMessageCodec() {
+        for (BodySerializer serializer : serializers) {
+            byId[serializer.getId() & 0xFF] = serializer;
+        }
+    }
+
+    /**
+     * Register a serializer for bodies and attribute values of a custom type.
+     * Should be done before the codec is used
+     */
+    public BinaryMessageCodec withSerializer(BodySerializer serializer) {
+        if (byId[serializer.getId() & 0xFF] != null) {
+            throw new IllegalArgumentException(String.format("Serializer id [%s] is already taken", serializer.getId()));
+        }
+        byId[serializer.getId() & 0xFF] = serializer;
+        serializers.add(0, serializer);
+        return this;
+    }
+
+    /**
+     * Enable Java serialization for values of allowed classes and decoding of messages written
+     * with Java serialization by previous versions. Any class matching the patterns can be instantiated
+     * from the decoded bytes, so it should only be enabled for trusted sources, e.g. local files.
+     * Should be done before the codec is used
+     * @param allowedClasses - class patterns as in JEP 290 filters, e.g. "com.example.beans.*"
+     */
+    public BinaryMessageCodec withJavaSerialization(String... allowedClasses) {
+        ClassAllowList allowed = new ClassAllowList(allowedClasses);
+        BodySerializer fallback = BodySerializers.serializable(allowed);
+        if (byId[fallback.getId() & 0xFF] != null) {
+            throw new IllegalArgumentException("Java serialization is already enabled");
+        }
+        byId[fallback.getId() & 0xFF] = fallback;
+        //Goes after dedicated serializers, but before JSON
+        serializers.add(json ? serializers.size() - 1 : serializers.size(), fallback);
+        this.javaClasses = allowed;
+        return this;
+    }
+
+    /**
+     * Codec of local queues: Java serialization of standard classes and classes matching the patterns
+     * @param patterns - class patterns of custom bodies, e.g. "com.acme.events.*"
+     */
+    public static BinaryMessageCodec withStandardClasses(String... patterns) {
+        String[] allowed = Arrays.copyOf(STANDARD_CLASSES, STANDARD_CLASSES.length + patterns.length);
+        System.arraycopy(patterns, 0, allowed, STANDARD_CLASSES.length, patterns.length);
+        return new BinaryMessageCodec().withJavaSerialization(allowed);
+    }
+
+    /**
+     * Write values without a dedicated serializer or allowed Java serialization as JSON.
+     * Such values are read back as JSON types, e.g. a bean body becomes a Map.
+     * Should be done before the codec is used
+     */
+    public BinaryMessageCodec withJsonSerialization() {
+        if (json) {
+            throw new IllegalArgumentException("JSON serialization is already enabled");
+        }
+        byId[BodySerializers.JSON.getId() & 0xFF] = BodySerializers.JSON;
+        serializers.add(BodySerializers.JSON);
+        json = true;
+        return this;
+    }
+
+    /**
+     * Deflate attributes and body of messages that are at least threshold bytes long.
+     * Fastest compression level is used
+     */
+    public BinaryMessageCodec withCompression(int threshold) {
+        return withCompression(threshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level - deflate level from 1 (fastest) to 9 (smallest)
+     */
+    public BinaryMessageCodec withCompression(int threshold, int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold should not be negative");
+        }
+        this.compressionThreshold = threshold;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+        return this;
+    }
+
+    /**
+     * Set max size of attributes and body of a compressed message once inflated.
+     * Larger messages are rejected, so a crafted length can't exhaust memory
+     */
+    public BinaryMessageCodec withMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize < 0) {
+            throw new IllegalArgumentException("Max message size should not be negative");
+        }
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    /**
+     * Sizes of encoded messages and compression efficiency
+     */
+    public CompressionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public ByteBuffer encode(Message message, ByteBuffer buffer) {
+        CodecBuffer out = new CodecBuffer(buffer);
+        out.put(VERSION);
+        int flagsPosition = out.buffer().position();
+        out.put((byte) 0).putString(message.getUuid());
+        int start = out.buffer().position();
+        Map<String, Object> attributes = message.getAttributes();
+        out.putVarInt(attributes.size());
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            out.putString(attribute.getKey());
+            writeValue(attribute.getValue(), out);
+        }
+        writeValue(message.getBody(), out);
+        int size = out.buffer().position() - start;
+        if (compressionThreshold >= 0 && size >= compressionThreshold) {
+            return compress(out.buffer(), flagsPosition, start, size);
+        }
+        stats.recordPlain(size, false);
+        return out.buffer();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Message decode(ByteBuffer buffer) {
+        if (buffer.remaining() >= 2 && buffer.get(buffer.position()) == JAVA_MAGIC_HIGH
+                && buffer.get(buffer.position() + 1) == JAVA_MAGIC_LOW) {
+            return decodeJava(buffer);
+        }
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new QueueException(String.format("Unsupported message format version [%s]", version));
+            }
+            byte flags = buffer.get();
+            if ((flags & ~FLAG_DEFLATE) != 0) {
+                throw new QueueException(String.format("Unsupported message flags [%s]", flags));
+            }
+            String uuid = CodecBuffer.readString(buffer);
+            ByteBuffer payload = (flags & FLAG_DEFLATE) != 0 ? inflate(buffer) : buffer;
+            int attributesCount = CodecBuffer.readVarInt(payload);
+            Message message = new Message<>(null).withUuid(uuid);
+            for (int i = 0; i < attributesCount; i++) {
+                String key = CodecBuffer.readString(payload);
+                Object value = readValue(payload);
+                //Concurrent map doesn't accept nulls
+                if (value != null) {
+                    message.getAttributes().put(key, value);
+                }
+            }
+            message.setBody(readValue(payload));
+            return message;
+        } catch (RuntimeException e) {
+            if (e instanceof QueueException) {
+                throw e;
+            }
+            throw new QueueException("Couldn't decode message", e);
+        }
+    }
+
+    /**
+     * Replace size bytes from start with their deflated copy if it is smaller
+     */
+    private ByteBuffer compress(ByteBuffer buffer, int flagsPosition, int start, int size) {
+        byte[] raw = new byte[size];
+        buffer.position(start);
+        buffer.get(raw);
+        byte[] compressed = new byte[size];
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int length = deflater.deflate(compressed);
+        if (!deflater.finished() || length + 2 * MAX_VARINT_SIZE >= size) {
+            stats.recordPlain(size, true);
+            return buffer;
+        }
+        buffer.position(start);
+        CodecBuffer out = new CodecBuffer(buffer).putVarInt(size).putBytes(compressed, 0, length);
+        out.buffer().put(flagsPosition, FLAG_DEFLATE);
+        stats.recordCompressed(size, out.buffer().position() - start);
+        return out.buffer();
+    }
+
+    private ByteBuffer inflate(ByteBuffer in) {
+        int rawLength = CodecBuffer.readVarInt(in);
+        byte[] compressed = CodecBuffer.readBytes(in);
+        if (rawLength < 0) {
+            throw new QueueException(String.format("Malformed length [%s]", rawLength));
+        }
+        if (rawLength > maxMessageSize) {
+            throw new QueueException(String.format("Message size [%s] exceeds the limit [%s]", rawLength, maxMessageSize));
+        }
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int length = inflater.inflate(raw);
+            if (length != rawLength) {
+                throw new QueueException(String.format("Compressed message is shorter than declared [%s]", rawLength));
+            }
+            //A full buffer with data left in the stream means the declared length is too small
+            if (!inflater.finished() || inflater.getRemaining() > 0) {
+                throw new QueueException(String.format("Compressed message is longer than declared [%s]", rawLength));
+            }
+        } catch (DataFormatException e) {
+            throw new QueueException("Couldn't inflate message", e);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private void writeValue(Object value, CodecBuffer out) {
+        for (BodySerializer serializer : serializers) {
+            if (serializer.supports(value)) {
+                out.put(serializer.getId());
+                serializer.write(value, out);
+                return;
+            }
+        }
+        if (javaClasses != null && value instanceof Serializable) {
+            throw new QueueException(String.format("Class [%s] is not allowed for Java serialization", value.getClass().getName()));
+        }
+        throw new QueueException(String.format("No serializer for [%s]", value.getClass()));
+    }
+
+    private Object readValue(ByteBuffer in) {
+        byte id = in.get();
+        BodySerializer serializer = byId[id & 0xFF];
+        if (serializer == null) {
+            throw new QueueException(String.format("Unknown serializer id [%s]", id));
+        }
+        return serializer.read(in);
+    }
+
+    private Message decodeJava(ByteBuffer buffer) {
+        if (javaClasses == null) {
+            throw new QueueException("Java serialized messages are not accepted");
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try {
+            return (Message) javaClasses.readObject(bytes);
+        } catch (Exception e) {
+            throw new QueueException("Couldn't deserialize message", e);
+        }
+    }
+}
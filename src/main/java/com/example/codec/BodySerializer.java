@@ -0,0 +1,27 @@
+package com.example.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer of message bodies and attribute values of a certain type.
+ * Encoded values are prefixed with the serializer id, so ids should be stable and unique within a codec.
+ */
+public interface BodySerializer {
+
+    /**
+     * Type tag written before the value
+     */
+    byte getId();
+
+    /**
+     * Check if a value can be written by this serializer
+     */
+    boolean supports(Object value);
+
+    void write(Object value, CodecBuffer out);
+
+    /**
+     * Read a value written by this serializer. Should consume exactly the written bytes
+     */
+    Object read(ByteBuffer in);
+}
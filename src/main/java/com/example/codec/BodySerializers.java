@@ -0,0 +1,207 @@
+package com.example.codec;
+
+import com.amazonaws.util.json.Jackson;
+import com.example.error.QueueException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Built in body serializers.
+ * Ids 0 - 15, 126 and 127 are reserved, custom serializers should use other ids.
+ */
+public final class BodySerializers {
+    public static final BodySerializer NULL = new Simple(0, null) {
+        @Override
+        public boolean supports(Object value) {
+            return value == null;
+        }
+
+        @Override
+        public void write(Object value, CodecBuffer out) {
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return null;
+        }
+    };
+
+    public static final BodySerializer STRING = new Simple(1, String.class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.putString((String) value);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return CodecBuffer.readString(in);
+        }
+    };
+
+    public static final BodySerializer BYTES = new Simple(2, byte[].class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.putBytes((byte[]) value);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return CodecBuffer.readBytes(in);
+        }
+    };
+
+    public static final BodySerializer LONG = new Simple(3, Long.class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.putLong((Long) value);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return in.getLong();
+        }
+    };
+
+    public static final BodySerializer INTEGER = new Simple(4, Integer.class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.putInt((Integer) value);
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return in.getInt();
+        }
+    };
+
+    public static final BodySerializer BOOLEAN = new Simple(5, Boolean.class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.put((byte) ((Boolean) value ? 1 : 0));
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return in.get() != 0;
+        }
+    };
+
+    public static final BodySerializer DOUBLE = new Simple(6, Double.class) {
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            out.putLong(Double.doubleToRawLongBits((Double) value));
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            return Double.longBitsToDouble(in.getLong());
+        }
+    };
+
+    //Ids of the fallbacks
+    static final byte JSON_ID = 126;
+    static final byte SERIALIZABLE_ID = 127;
+
+    /**
+     * Fallback writing any other value as JSON, as SqsQueueService did before codecs.
+     * Values are read back as JSON types: objects become Maps, arrays become Lists.
+     * No classes are instantiated from the input, so it is safe for untrusted sources
+     */
+    public static final BodySerializer JSON = new Simple(JSON_ID, Object.class) {
+        @Override
+        public boolean supports(Object value) {
+            return value != null;
+        }
+
+        @Override
+        public void write(Object value, CodecBuffer out) {
+            try {
+                out.putString(Jackson.toJsonString(value));
+            } catch (Exception e) {
+                throw new QueueException(String.format("Couldn't serialize [%s] to JSON", value.getClass()), e);
+            }
+        }
+
+        @Override
+        public Object read(ByteBuffer in) {
+            try {
+                return Jackson.fromJsonString(CodecBuffer.readString(in), Object.class);
+            } catch (Exception e) {
+                throw new QueueException("Couldn't deserialize JSON value", e);
+            }
+        }
+    };
+
+    private BodySerializers() {
+    }
+
+    /**
+     * Fallback for other Serializable values of allowed classes. Slow and bulky, register a dedicated
+     * serializer for types that are sent often. Values of classes that are not allowed are neither written nor read,
+     * so only classes safe to instantiate from the input should be allowed
+     */
+    public static BodySerializer serializable(ClassAllowList allowed) {
+        return new Simple(SERIALIZABLE_ID, Serializable.class) {
+            @Override
+            public boolean supports(Object value) {
+                return value instanceof Serializable && allowed.allows(value.getClass());
+            }
+
+            @Override
+            public void write(Object value, CodecBuffer out) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                    oos.writeObject(value);
+                } catch (IOException e) {
+                    throw new QueueException(String.format("Couldn't serialize [%s]", value.getClass()), e);
+                }
+                out.putBytes(bytes.toByteArray());
+            }
+
+            @Override
+            public Object read(ByteBuffer in) {
+                try {
+                    return allowed.readObject(CodecBuffer.readBytes(in));
+                } catch (IOException | ClassNotFoundException e) {
+                    throw new QueueException("Couldn't deserialize value", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Built in serializers in lookup order. Fallbacks are not among them, they are enabled per codec
+     */
+    static List<BodySerializer> defaults() {
+        return Arrays.asList(NULL, STRING, BYTES, LONG, INTEGER, BOOLEAN, DOUBLE);
+    }
+
+    /**
+     * Serializer of values of an exact class
+     */
+    private abstract static class Simple implements BodySerializer {
+        private final byte id;
+        private final Class<?> type;
+
+        private Simple(int id, Class<?> type) {
+            this.id = (byte) id;
+            this.type = type;
+        }
+
+        @Override
+        public byte getId() {
+            return id;
+        }
+
+        @Override
+        public boolean supports(Object value) {
+            return value != null && value.getClass() == type;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per thread encode buffers, so encoding a message doesn't allocate in a steady state.
+ * Buffers that grew beyond the max size to fit a large message are not retained.
+ */
+public final class BufferCache {
+    private static final int INITIAL_SIZE = 4096;
+    private static final int DEFAULT_MAX_RETAINED_SIZE = 1 << 20;
+
+    private final int maxRetainedSize;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_SIZE));
+
+    public BufferCache() {
+        this(DEFAULT_MAX_RETAINED_SIZE);
+    }
+
+    public BufferCache(int maxRetainedSize) {
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * Get an empty buffer of the current thread
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Keep a buffer returned by a codec for the next encoding of the current thread
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() <= maxRetainedSize) {
+            buffers.set(buffer);
+        }
+    }
+}
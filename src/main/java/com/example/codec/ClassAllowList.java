@@ -0,0 +1,101 @@
+package com.example.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Classes allowed to be read with Java serialization.
+ * Patterns follow JEP 290 filters: "pkg.Class" - a class, "pkg.*" - classes of a package,
+ * "pkg.**" - classes of a package and its subpackages. Classes not matched by any pattern are rejected
+ * before they are loaded, so gadget classes of the classpath are never instantiated.
+ * Checked in resolveClass as ObjectInputFilter is not available on Java 8.
+ */
+public class ClassAllowList {
+    //Dot separated identifiers, optionally followed by .* or .**
+    private static final Pattern PATTERN = Pattern.compile("[\\w$]+(\\.[\\w$]+)*(\\.\\*\\*?)?");
+
+    private final List<String> patterns;
+
+    public ClassAllowList(String... patterns) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("At least one allowed class pattern is required");
+        }
+        for (String pattern : patterns) {
+            if (pattern == null || !PATTERN.matcher(pattern).matches()) {
+                throw new IllegalArgumentException(String.format("Malformed class pattern [%s]", pattern));
+            }
+        }
+        this.patterns = Arrays.asList(patterns.clone());
+    }
+
+    /**
+     * Check a class name. Arrays are allowed if their component is, arrays of primitives always are
+     */
+    public boolean allows(String className) {
+        String name = className;
+        while (name.startsWith("[")) {
+            name = name.substring(1);
+        }
+        if (name.length() != className.length()) {
+            if (!name.startsWith("L")) {
+                return true;
+            }
+            name = name.substring(1, name.length() - 1);
+        }
+        for (String pattern : patterns) {
+            if (matches(pattern, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean allows(Class<?> type) {
+        return allows(type.getName());
+    }
+
+    /**
+     * Read a single object, failing on the first class that is not allowed
+     */
+    public Object readObject(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new FilteringObjectInputStream(bytes)) {
+            return ois.readObject();
+        }
+    }
+
+    private static boolean matches(String pattern, String name) {
+        if (pattern.endsWith(".**")) {
+            return name.startsWith(pattern.substring(0, pattern.length() - 2));
+        }
+        if (pattern.endsWith(".*")) {
+            String pkg = pattern.substring(0, pattern.length() - 1);
+            return name.startsWith(pkg) && name.indexOf('.', pkg.length()) < 0;
+        }
+        return pattern.equals(name);
+    }
+
+    private class FilteringObjectInputStream extends ObjectInputStream {
+        private FilteringObjectInputStream(byte[] bytes) throws IOException {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!allows(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class is not allowed to be deserialized");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed to be deserialized");
+        }
+    }
+}
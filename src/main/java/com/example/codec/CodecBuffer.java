@@ -0,0 +1,129 @@
+package com.example.codec;
+
+import com.example.error.QueueException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable write buffer used by codecs and body serializers.
+ * Lengths and counts are written as unsigned varints, so short strings cost a single byte of overhead.
+ * Static methods read values written by the corresponding put methods.
+ */
+public final class CodecBuffer {
+    private ByteBuffer buffer;
+
+    public CodecBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Underlying buffer. Could be replaced by a larger one while writing
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public CodecBuffer put(byte value) {
+        ensureRemaining(1);
+        buffer.put(value);
+        return this;
+    }
+
+    public CodecBuffer putInt(int value) {
+        ensureRemaining(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public CodecBuffer putLong(long value) {
+        ensureRemaining(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    public CodecBuffer putVarInt(int value) {
+        ensureRemaining(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+        return this;
+    }
+
+    /**
+     * Write bytes prefixed with their length
+     */
+    public CodecBuffer putBytes(byte[] value) {
+        return putBytes(value, 0, value.length);
+    }
+
+    public CodecBuffer putBytes(byte[] value, int offset, int length) {
+        putVarInt(length);
+        ensureRemaining(length);
+        buffer.put(value, offset, length);
+        return this;
+    }
+
+    /**
+     * Write an UTF-8 string prefixed with its length in bytes
+     */
+    public CodecBuffer putString(String value) {
+        return putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new QueueException("Malformed varint");
+    }
+
+    public static byte[] readBytes(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new QueueException(String.format("Malformed length [%s]", length));
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new QueueException(String.format("Malformed length [%s]", length));
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int required = buffer.position() + length;
+        while (capacity < required) {
+            capacity = capacity < (1 << 30) ? Math.max(capacity * 2, 64) : Integer.MAX_VALUE;
+        }
+        ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codecs of queues. Queues without a codec of their own use the default one
+ */
+public class CodecRegistry {
+    private volatile MessageCodec defaultCodec;
+    private final Map<String, MessageCodec> codecs = new ConcurrentHashMap<>();
+
+    public CodecRegistry(MessageCodec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+    }
+
+    public void setDefault(MessageCodec codec) {
+        this.defaultCodec = codec;
+    }
+
+    public void register(String queueName, MessageCodec codec) {
+        codecs.put(queueName, codec);
+    }
+
+    public MessageCodec get(String queueName) {
+        MessageCodec codec = codecs.get(queueName);
+        return codec != null ? codec : defaultCodec;
+    }
+}
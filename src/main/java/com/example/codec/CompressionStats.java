@@ -0,0 +1,80 @@
+package com.example.codec;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Payload size and compression counters of a codec. Cheap enough to be always on
+ */
+public class CompressionStats {
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder incompressible = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    /**
+     * Record an encoded payload that was not compressed
+     * @param attempted - true if compression was tried but didn't reduce the size
+     */
+    void recordPlain(int size, boolean attempted) {
+        messages.increment();
+        payloadBytes.add(size);
+        if (attempted) {
+            incompressible.increment();
+        }
+    }
+
+    void recordCompressed(int rawSize, int compressedSize) {
+        messages.increment();
+        payloadBytes.add(compressedSize);
+        compressed.increment();
+        rawBytes.add(rawSize);
+        compressedBytes.add(compressedSize);
+    }
+
+    /**
+     * Number of encoded messages
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Average size of attributes and body as stored, after compression if applied
+     */
+    public long getAveragePayloadSize() {
+        long count = messages.sum();
+        return count == 0 ? 0 : payloadBytes.sum() / count;
+    }
+
+    /**
+     * Number of messages stored compressed
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * Number of messages above the threshold that didn't get smaller.
+     * A high share suggests raising the threshold or disabling compression for the queue
+     */
+    public long getIncompressible() {
+        return incompressible.sum();
+    }
+
+    /**
+     * Compressed to raw size ratio of compressed messages. 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 1 : (double) compressedBytes.sum() / raw;
+    }
+
+    /**
+     * Bytes saved by compression
+     */
+    public long getSavedBytes() {
+        return rawBytes.sum() - compressedBytes.sum();
+    }
+}
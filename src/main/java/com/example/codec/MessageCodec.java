@@ -0,0 +1,38 @@
+package com.example.codec;
+
+import com.example.beans.Message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts messages to bytes and back.
+ * Used by persistent and remote queue services to store and transfer messages.
+ * Implementations should be thread safe.
+ */
+public interface MessageCodec {
+
+    /**
+     * Encode a message at the current buffer position.
+     * Buffer can be reused between calls to avoid allocations.
+     * @return the same buffer or a larger copy of it if the message didn't fit,
+     * positioned right after the encoded message
+     */
+    ByteBuffer encode(Message message, ByteBuffer buffer);
+
+    /**
+     * Decode a message from the buffer position up to its limit
+     */
+    Message decode(ByteBuffer buffer);
+
+    default byte[] encode(Message message) {
+        ByteBuffer buffer = encode(message, ByteBuffer.allocate(256));
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    default Message decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.dedup;
+
+import com.example.beans.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers deduplication ids for a time window.
+ * Producers set an id in the "deduplicationId" message attribute, so a retried push is dropped.
+ * Ids are kept in insertion order, so expired ones are evicted from the head in O(1) per id.
+ * Number of ids is bounded - once it is reached the oldest id is forgotten before its window ends,
+ * so memory stays bounded under any push rate at the cost of a shorter effective window.
+ */
+public class DeduplicationCache {
+    public static final String DEDUPLICATION_ID_KEY = "deduplicationId";
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private final long windowNanos;
+    private final int maxEntries;
+
+    //Id to the time it was added, guarded by this
+    private final LinkedHashMap<String, Long> ids = new LinkedHashMap<>();
+
+    public DeduplicationCache(long window, TimeUnit unit) {
+        this(window, unit, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries - max number of remembered ids
+     */
+    public DeduplicationCache(long window, TimeUnit unit, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Max number of entries should be positive");
+        }
+        this.windowNanos = unit.toNanos(window);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Remember an id
+     * @return false if the id was already seen within the window
+     */
+    public synchronized boolean add(String id) {
+        long now = System.nanoTime();
+        evict(now);
+        if (ids.containsKey(id)) {
+            return false;
+        }
+        ids.put(id, now);
+        if (ids.size() > maxEntries) {
+            Iterator<String> eldest = ids.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Remember a deduplication id of a message pushed to a queue. Ids are scoped by queue,
+     * so e.g. a dead-lettered message is not a duplicate of its original push
+     * @return false if the message is a duplicate. Messages without an id are never duplicates
+     */
+    public boolean add(String queueName, Message message) {
+        String id = getDeduplicationId(message);
+        return id == null || add(key(queueName, id));
+    }
+
+    /**
+     * Remember an id of a message pushed to a queue, e.g. a hash of its content
+     * @return false if the id was already seen for the queue within the window
+     */
+    public boolean add(String queueName, String id) {
+        return add(key(queueName, id));
+    }
+
+    /**
+     * Forget an id of a message that failed to be pushed to a queue
+     */
+    public void remove(String queueName, String id) {
+        remove(key(queueName, id));
+    }
+
+    /**
+     * Remember deduplication ids of messages pushed to a queue
+     * @return messages that are not duplicates, including duplicates within the list
+     */
+    public List<Message> unique(String queueName, List<Message> messages) {
+        List<Message> unique = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (add(queueName, message)) {
+                unique.add(message);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Forget deduplication ids of messages that failed to be pushed to a queue
+     */
+    public void remove(String queueName, List<Message> messages) {
+        for (Message message : messages) {
+            String id = getDeduplicationId(message);
+            if (id != null) {
+                remove(key(queueName, id));
+            }
+        }
+    }
+
+    /**
+     * Forget an id, e.g. when a push failed and is going to be retried
+     */
+    public synchronized void remove(String id) {
+        ids.remove(id);
+    }
+
+    public synchronized int size() {
+        evict(System.nanoTime());
+        return ids.size();
+    }
+
+    /**
+     * Get a deduplication id of a message, null if it has none
+     */
+    public static String getDeduplicationId(Message message) {
+        Object id = message.getAttributes().get(DEDUPLICATION_ID_KEY);
+        return id == null ? null : id.toString();
+    }
+
+    //Zero char is not valid in file or SQS queue names, so keys of different queues don't collide
+    private static String key(String queueName, String id) {
+        return queueName + '\u0000' + id;
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = ids.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() < windowNanos) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+}
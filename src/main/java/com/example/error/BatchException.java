@@ -0,0 +1,31 @@
+package com.example.error;
+
+import com.example.beans.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch call where only some entries failed. Entries that are not listed succeeded
+ */
+public class BatchException extends QueueException {
+    private final List<Message> failed;
+
+    public BatchException(String message, List<Message> failed) {
+        super(message);
+        this.failed = Collections.unmodifiableList(new ArrayList<>(failed));
+    }
+
+    public BatchException(String message, List<Message> failed, Throwable cause) {
+        super(message, cause);
+        this.failed = Collections.unmodifiableList(new ArrayList<>(failed));
+    }
+
+    /**
+     * Messages of failed entries, same instances as passed to the batch call
+     */
+    public List<Message> getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.journal;
+
+/**
+ * Location and state of a message file tracked by a queue journal.
+ * A visible entry has no uuid and no deadline, both are set once the message is pulled.
+ */
+public class JournalEntry {
+    private final String fileName;
+    private String uuid;
+    private int receives;
+    private long deadline;
+    private boolean inFlight;
+
+    JournalEntry(String fileName, int receives) {
+        this.fileName = fileName;
+        this.receives = receives;
+    }
+
+    /**
+     * Name of the message file in the queue messages directory
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Uuid of an in-flight message
+     */
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Number of times the message was pulled
+     */
+    public int getReceives() {
+        return receives;
+    }
+
+    /**
+     * Wall clock time in milliseconds the message becomes visible again at
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isInFlight() {
+        return inFlight;
+    }
+
+    void pulled(String uuid, int receives, long deadline) {
+        this.uuid = uuid;
+        this.receives = receives;
+        this.deadline = deadline;
+        this.inFlight = true;
+    }
+
+    void released() {
+        this.deadline = 0;
+        this.inFlight = false;
+    }
+}
@@ -0,0 +1,512 @@
+package com.example.journal;
+
+import com.example.error.QueueException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of message state transitions of a file queue and an index rebuilt from it.
+ * Transitions (enqueued, in flight, expired, acknowledged) are appended as records
+ * of a 4 bytes length, a 4 bytes CRC32 checksum and a payload. The index gives O(1) lookups
+ * of in-flight messages by uuid and exact visibility deadlines without listing directories,
+ * a restarted process recovers it by replaying the journal.
+ * Processes sharing a queue directory catch up with records appended by others on refresh.
+ * Once the journal holds much more records than live entries it is compacted into
+ * a snapshot written as the next generation file journal.[generation].
+ * Not thread safe - guarded by the owning queue lock.
+ */
+public class QueueJournal {
+    public static final int DEFAULT_COMPACT_THRESHOLD = 10000;
+
+    static final String FILE_PREFIX = "journal.";
+    static final String TMP_SUFFIX = ".tmp";
+
+    private static final int HEADER_SIZE = 8;
+    private static final byte ENQUEUED = 1;
+    private static final byte IN_FLIGHT = 2;
+    private static final byte EXPIRED = 3;
+    private static final byte ACKED = 4;
+
+    private final File dir;
+    private final int compactThreshold;
+
+    private long generation;
+    private File file;
+    private FileChannel channel;
+    private boolean created;
+
+    //Bytes and records of the current file reflected by the index
+    private long position;
+    private long records;
+
+    //Records appended since the last flush
+    private final ByteArrayOutputStream appended = new ByteArrayOutputStream();
+    private int appendedRecords;
+
+    //Entries by file name, visible ones in FIFO order and in-flight ones by uuid and deadline
+    private final Map<String, JournalEntry> entries = new HashMap<>();
+    private final NavigableMap<String, JournalEntry> visible = new TreeMap<>();
+    private final Map<String, JournalEntry> inFlight = new HashMap<>();
+    private final NavigableSet<JournalEntry> deadlines = new TreeSet<>(
+            Comparator.comparingLong(JournalEntry::getDeadline).thenComparing(JournalEntry::getFileName));
+
+    //Read without the lock by sweeps and counters
+    private volatile long nextDeadline = Long.MAX_VALUE;
+    private volatile int visibleCount;
+    private volatile int inFlightCount;
+
+    /**
+     * Open the latest journal in a directory or create an empty one
+     */
+    public QueueJournal(File dir) {
+        this(dir, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param compactThreshold - min number of records in the journal before it is compacted
+     */
+    public QueueJournal(File dir, int compactThreshold) {
+        this.dir = dir;
+        this.compactThreshold = compactThreshold;
+        open();
+    }
+
+    /**
+     * Apply records appended by other processes. Reopens the journal if it was compacted or cleared
+     */
+    public void refresh() {
+        if (!file.exists()) {
+            closeChannel();
+            clearIndex();
+            open();
+            return;
+        }
+        replay();
+    }
+
+    /**
+     * Add a visible message file
+     * @param receives - number of times the message was already pulled
+     */
+    public JournalEntry enqueue(String fileName, int receives) {
+        append(ENQUEUED, fileName, null, receives, 0);
+        JournalEntry entry = applyEnqueued(fileName, receives);
+        updateCounters();
+        return entry;
+    }
+
+    /**
+     * Mark a message as pulled or replace the visibility deadline of an in-flight message
+     */
+    public void markInFlight(JournalEntry entry, String uuid, int receives, long deadline) {
+        append(IN_FLIGHT, entry.getFileName(), uuid, receives, deadline);
+        applyInFlight(entry, uuid, receives, deadline);
+        updateCounters();
+    }
+
+    /**
+     * Make an in-flight message visible again
+     */
+    public void expire(JournalEntry entry) {
+        append(EXPIRED, entry.getFileName(), null, 0, 0);
+        applyExpired(entry);
+        updateCounters();
+    }
+
+    /**
+     * Remove a message
+     */
+    public void ack(JournalEntry entry) {
+        append(ACKED, entry.getFileName(), null, 0, 0);
+        applyAcked(entry);
+        updateCounters();
+    }
+
+    /**
+     * Write records appended since the last flush with a single write.
+     * Compacts the journal once it holds twice as many records as live entries
+     */
+    public void flush() {
+        created = false;
+        if (appendedRecords == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(appended.toByteArray());
+        appended.reset();
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't write journal [%s]", file), e);
+        }
+        records += appendedRecords;
+        appendedRecords = 0;
+        if (records > compactThreshold && records > 2L * entries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Drop all entries. An empty journal replaces the current one
+     */
+    public void clear() {
+        clearIndex();
+        appended.reset();
+        appendedRecords = 0;
+        compact();
+        updateCounters();
+    }
+
+    /**
+     * Get up to max visible entries in FIFO order
+     */
+    public List<JournalEntry> firstVisible(int max) {
+        List<JournalEntry> first = new ArrayList<>(Math.min(max, visible.size()));
+        for (JournalEntry entry : visible.values()) {
+            if (first.size() >= max) {
+                break;
+            }
+            first.add(entry);
+        }
+        return first;
+    }
+
+    /**
+     * Get in-flight entries with visibility deadlines not later than now
+     */
+    public List<JournalEntry> due(long now) {
+        List<JournalEntry> due = new ArrayList<>();
+        for (JournalEntry entry : deadlines) {
+            if (entry.getDeadline() > now) {
+                break;
+            }
+            due.add(entry);
+        }
+        return due;
+    }
+
+    /**
+     * Get an entry by message file name
+     */
+    public JournalEntry get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    /**
+     * Get an in-flight entry by message uuid
+     */
+    public JournalEntry getInFlight(String uuid) {
+        return inFlight.get(uuid);
+    }
+
+    /**
+     * Earliest visibility deadline of in-flight messages, can be read without the lock
+     */
+    public long getNextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * Number of visible messages, can be read without the lock
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * Number of in-flight messages, can be read without the lock
+     */
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * Journal file was created by this instance and nothing was flushed yet.
+     * Owner may import entries existing before journaling
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void close() {
+        flush();
+        closeChannel();
+    }
+
+    /**
+     * Open the latest generation, removing leftovers of interrupted compactions
+     */
+    private void open() {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX));
+        files = files == null ? new File[0] : files;
+        long latest = -1;
+        for (File candidate : files) {
+            String suffix = candidate.getName().substring(FILE_PREFIX.length());
+            if (!suffix.endsWith(TMP_SUFFIX)) {
+                try {
+                    latest = Math.max(latest, Long.parseLong(suffix));
+                } catch (NumberFormatException e) {
+                    //Not a journal file
+                }
+            }
+        }
+        for (File candidate : files) {
+            if (!candidate.getName().equals(FILE_PREFIX + latest)) {
+                candidate.delete();
+            }
+        }
+        created = latest < 0;
+        generation = Math.max(latest, 0);
+        file = fileOf(generation);
+        channel = openChannel(file);
+        position = 0;
+        records = 0;
+        replay();
+        updateCounters();
+    }
+
+    /**
+     * Apply records following the last applied one. Cuts off a record torn by a crashed writer
+     */
+    private void replay() {
+        try {
+            long size = channel.size();
+            if (size <= position) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (size - position));
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+            }
+            buffer.flip();
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int offset = buffer.position();
+                int length = buffer.getInt(offset);
+                if (length <= 0 || buffer.remaining() < HEADER_SIZE + length) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.array(), offset + HEADER_SIZE, length);
+                if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(buffer.array(), offset + HEADER_SIZE, length)));
+                buffer.position(offset + HEADER_SIZE + length);
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            if (position < size) {
+                channel.truncate(position);
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't replay journal [%s]", file), e);
+        }
+        updateCounters();
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String fileName = in.readUTF();
+        if (type == ENQUEUED) {
+            applyEnqueued(fileName, in.readInt());
+            return;
+        }
+        JournalEntry entry = entries.get(fileName);
+        if (type == IN_FLIGHT) {
+            String uuid = in.readUTF();
+            int receives = in.readInt();
+            long deadline = in.readLong();
+            if (entry != null) {
+                applyInFlight(entry, uuid, receives, deadline);
+            }
+        } else if (type == EXPIRED) {
+            if (entry != null) {
+                applyExpired(entry);
+            }
+        } else if (type == ACKED) {
+            if (entry != null) {
+                applyAcked(entry);
+            }
+        } else {
+            throw new QueueException(String.format("Unknown record type [%s] in journal [%s]", type, file));
+        }
+    }
+
+    private JournalEntry applyEnqueued(String fileName, int receives) {
+        JournalEntry entry = new JournalEntry(fileName, receives);
+        JournalEntry replaced = entries.put(fileName, entry);
+        if (replaced != null) {
+            detach(replaced);
+        }
+        visible.put(fileName, entry);
+        return entry;
+    }
+
+    private void applyInFlight(JournalEntry entry, String uuid, int receives, long deadline) {
+        detach(entry);
+        entry.pulled(uuid, receives, deadline);
+        inFlight.put(uuid, entry);
+        deadlines.add(entry);
+    }
+
+    private void applyExpired(JournalEntry entry) {
+        detach(entry);
+        entry.released();
+        visible.put(entry.getFileName(), entry);
+    }
+
+    private void applyAcked(JournalEntry entry) {
+        detach(entry);
+        entries.remove(entry.getFileName());
+    }
+
+    /**
+     * Remove an entry from the visible or in-flight index. Deadline index is ordered
+     * by the deadline, so an entry is detached before the deadline changes
+     */
+    private void detach(JournalEntry entry) {
+        if (entry.isInFlight()) {
+            deadlines.remove(entry);
+            inFlight.remove(entry.getUuid(), entry);
+        } else {
+            visible.remove(entry.getFileName());
+        }
+    }
+
+    private void append(byte type, String fileName, String uuid, int receives, long deadline) {
+        byte[] record = encode(type, fileName, uuid, receives, deadline);
+        appended.write(record, 0, record.length);
+        appendedRecords++;
+    }
+
+    /**
+     * Write a snapshot of live entries as the next generation and switch to it.
+     * Snapshot is synced and renamed before the previous generation is removed,
+     * so a crash leaves one of the two complete
+     */
+    private void compact() {
+        long next = generation + 1;
+        File tmp = new File(dir, FILE_PREFIX + next + TMP_SUFFIX);
+        long size = 0;
+        long count = 0;
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp);
+                 BufferedOutputStream buffered = new BufferedOutputStream(out)) {
+                for (JournalEntry entry : entries.values()) {
+                    byte[] record = encode(ENQUEUED, entry.getFileName(), null, entry.getReceives(), 0);
+                    buffered.write(record);
+                    size += record.length;
+                    count++;
+                    if (entry.isInFlight()) {
+                        record = encode(IN_FLIGHT, entry.getFileName(), entry.getUuid(), entry.getReceives(), entry.getDeadline());
+                        buffered.write(record);
+                        size += record.length;
+                        count++;
+                    }
+                }
+                buffered.flush();
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), fileOf(next).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new QueueException(String.format("Couldn't compact journal [%s]", file), e);
+        }
+        closeChannel();
+        file.delete();
+        generation = next;
+        file = fileOf(next);
+        channel = openChannel(file);
+        position = size;
+        records = count;
+    }
+
+    private void clearIndex() {
+        entries.clear();
+        visible.clear();
+        inFlight.clear();
+        deadlines.clear();
+    }
+
+    private void updateCounters() {
+        visibleCount = visible.size();
+        inFlightCount = deadlines.size();
+        nextDeadline = deadlines.isEmpty() ? Long.MAX_VALUE : deadlines.first().getDeadline();
+    }
+
+    private File fileOf(long generation) {
+        return new File(dir, FILE_PREFIX + generation);
+    }
+
+    private static FileChannel openChannel(File file) {
+        try {
+            return new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't open journal [%s]", file), e);
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't close journal [%s]", file), e);
+        }
+    }
+
+    /**
+     * Frame a record with its length and checksum
+     */
+    private static byte[] encode(byte type, String fileName, String uuid, int receives, long deadline) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(0);
+            out.writeByte(type);
+            out.writeUTF(fileName);
+            if (type == ENQUEUED) {
+                out.writeInt(receives);
+            } else if (type == IN_FLIGHT) {
+                out.writeUTF(uuid);
+                out.writeInt(receives);
+                out.writeLong(deadline);
+            }
+        } catch (IOException e) {
+            throw new QueueException("Couldn't encode journal record", e);
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(record.length - HEADER_SIZE).putInt((int) crc.getValue());
+        return record;
+    }
+}
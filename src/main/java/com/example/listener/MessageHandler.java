@@ -0,0 +1,13 @@
+package com.example.listener;
+
+import com.example.beans.Message;
+
+/**
+ * Processes messages consumed by a MessageListenerContainer.
+ * A message is deleted once the handler returns, a message is left
+ * for redelivery if the handler throws.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+    void onMessage(Message message) throws Exception;
+}
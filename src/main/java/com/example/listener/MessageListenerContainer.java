@@ -0,0 +1,287 @@
+package com.example.listener;
+
+import com.example.QueueService;
+import com.example.VisibilityHeartbeat;
+import com.example.beans.Message;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a pull - process - delete loop of a queue on a number of consumers.
+ * Idle consumers wait for messages with a blocking pull, the wait time grows from min to max
+ * backoff while the queue stays empty and drops back once a message arrives,
+ * so an empty SQS queue is not polled in a tight loop.
+ * Visibility of a message is extended while the handler runs.
+ * Stopping lets consumers finish messages they've already pulled.
+ */
+public class MessageListenerContainer implements AutoCloseable {
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 10;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private final QueueService service;
+    private final String queueName;
+    private final MessageHandler handler;
+
+    private int concurrency = 1;
+    private ExecutorService executor;
+    private long minBackoffMillis = DEFAULT_MIN_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long visibilityExtensionMillis;
+    private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+
+    private volatile boolean running;
+    private boolean ownsExecutor;
+    private ScheduledExecutorService heartbeats;
+    private CountDownLatch stopped;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong pullFailures = new AtomicLong();
+
+    public MessageListenerContainer(QueueService service, String queueName, MessageHandler handler) {
+        this.service = service;
+        this.queueName = queueName;
+        this.handler = handler;
+        this.visibilityExtensionMillis = service.getTimeout();
+    }
+
+    /**
+     * Number of consumers processing messages in parallel
+     */
+    public MessageListenerContainer withConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Run consumers on a given executor, e.g. a virtual thread per task executor on Java 21+.
+     * Executor should be able to run all consumers at once and is not shut down on stop.
+     * By default consumers run on an own fixed pool of daemon threads
+     */
+    public MessageListenerContainer withExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Range of pull wait time of an idle consumer
+     */
+    public MessageListenerContainer withBackoff(long min, long max, TimeUnit unit) {
+        this.minBackoffMillis = Math.max(1, unit.toMillis(min));
+        this.maxBackoffMillis = Math.max(minBackoffMillis, unit.toMillis(max));
+        return this;
+    }
+
+    /**
+     * Visibility timeout kept on a message while it is processed. Defaults to the service timeout, 0 disables
+     */
+    public MessageListenerContainer withVisibilityExtension(long timeout, TimeUnit unit) {
+        this.visibilityExtensionMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Max time close() waits for consumers to finish pulled messages
+     */
+    public MessageListenerContainer withDrainTimeout(long timeout, TimeUnit unit) {
+        this.drainTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Start consumers. A stopped container can be started again once consumers of the previous run have finished
+     * @throws IllegalStateException if consumers of the previous run are still processing messages
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (stopped != null && stopped.getCount() > 0) {
+            throw new IllegalStateException(String.format(
+                    "Consumers of queue [%s] are still finishing the previous run, await termination first", queueName));
+        }
+        //Release resources of the previous run if nobody awaited its termination
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        if (heartbeats != null) {
+            heartbeats.shutdown();
+            heartbeats = null;
+        }
+        if (executor == null || ownsExecutor) {
+            executor = Executors.newFixedThreadPool(concurrency, new ListenerThreadFactory(queueName));
+            ownsExecutor = true;
+        }
+        if (visibilityExtensionMillis > 0) {
+            heartbeats = Executors.newSingleThreadScheduledExecutor(new ListenerThreadFactory(queueName + "-heartbeat"));
+        }
+        stopped = new CountDownLatch(concurrency);
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            executor.execute(this::consume);
+        }
+    }
+
+    /**
+     * Stop pulling messages. Consumers finish messages they are processing
+     */
+    public synchronized void stop() {
+        running = false;
+    }
+
+    /**
+     * Wait for consumers to finish after stop
+     * @return true if all consumers have finished
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (this) {
+            latch = stopped;
+        }
+        if (latch == null || !latch.await(timeout, unit)) {
+            return latch == null;
+        }
+        synchronized (this) {
+            if (ownsExecutor) {
+                executor.shutdown();
+            }
+            if (heartbeats != null) {
+                heartbeats.shutdown();
+                heartbeats = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop and drain. Consumers that didn't finish within drain timeout are interrupted
+     */
+    @Override
+    public void close() {
+        stop();
+        try {
+            if (!awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    if (ownsExecutor) {
+                        executor.shutdownNow();
+                    }
+                    if (heartbeats != null) {
+                        heartbeats.shutdownNow();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Number of messages handled and deleted
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Number of handler failures. Failed messages are redelivered after their visibility timeout
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of failed pulls, e.g. while the service was unavailable. Consumers back off and keep pulling
+     */
+    public long getPullFailures() {
+        return pullFailures.get();
+    }
+
+    /**
+     * Consumer loop
+     */
+    private void consume() {
+        long backoff = minBackoffMillis;
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                Message message;
+                try {
+                    message = service.pull(queueName, backoff, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    //Service is unavailable, e.g. an SDK client error - back off as if the queue was empty
+                    pullFailures.incrementAndGet();
+                    message = null;
+                    sleep(backoff);
+                }
+                if (message == null) {
+                    backoff = Math.min(maxBackoffMillis, backoff * 2);
+                    continue;
+                }
+                backoff = minBackoffMillis;
+                process(message);
+            }
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void process(Message message) {
+        VisibilityHeartbeat heartbeat = null;
+        if (heartbeats != null) {
+            heartbeat = VisibilityHeartbeat.start(service, heartbeats, queueName, message,
+                    visibilityExtensionMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            handler.onMessage(message);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            return;
+        } finally {
+            if (heartbeat != null) {
+                heartbeat.stop();
+            }
+        }
+        try {
+            service.delete(queueName, message);
+            processed.incrementAndGet();
+        } catch (RuntimeException e) {
+            //Message will be redelivered, handlers are supposed to be idempotent
+            failed.incrementAndGet();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ListenerThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private ListenerThreadFactory(String queueName) {
+            this.prefix = "listener-" + queueName + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.lock;
+
+import com.example.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock acquisition counters. Cheap enough to be always on
+ */
+public class LockStats {
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    /**
+     * Record a lock acquisition
+     * @param waited - time spent waiting for the lock
+     */
+    void record(long waited) {
+        acquisitions.increment();
+        waits.record(waited);
+        if (waited > 0) {
+            contended.increment();
+            waitNanos.add(waited);
+            long max;
+            while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited)) {
+            }
+        }
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Number of acquisitions that had to wait for another thread or process
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Distribution of wait times of all acquisitions, uncontended ones are recorded as 0
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waits;
+    }
+
+    public long getAverageWaitTime(TimeUnit unit) {
+        long count = acquisitions.sum();
+        return count == 0 ? 0 : unit.convert(waitNanos.sum() / count, TimeUnit.NANOSECONDS);
+    }
+}
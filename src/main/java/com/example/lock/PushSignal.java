@@ -0,0 +1,125 @@
+package com.example.lock;
+
+import com.example.error.QueueException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process notification of pushes, per queue.
+ * Consumers read a version, check the queue and park until the version changes.
+ * Producers bump the version and touch the lock only if somebody is parked,
+ * so pushes stay cheap when there are no waiting consumers.
+ * Asynchronous consumers register one-shot callbacks instead of parking.
+ */
+public class PushSignal {
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * Current version of a queue. Should be read before checking the queue
+     */
+    public long version(String queueName) {
+        return slot(queueName).version.get();
+    }
+
+    /**
+     * Wake up consumers waiting on a queue
+     */
+    public void signal(String queueName) {
+        Slot slot = slot(queueName);
+        slot.version.incrementAndGet();
+        if (!slot.listeners.isEmpty()) {
+            runListeners(slot);
+        }
+        if (slot.waiters.get() > 0) {
+            slot.lock.lock();
+            try {
+                slot.changed.signalAll();
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Park until the queue version differs from a seen one or timeout expires
+     * @return true if the version has changed
+     */
+    public boolean await(String queueName, long seenVersion, long timeoutNanos) {
+        Slot slot = slot(queueName);
+        slot.lock.lock();
+        slot.waiters.incrementAndGet();
+        try {
+            long remaining = timeoutNanos;
+            while (slot.version.get() == seenVersion) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = slot.changed.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        } finally {
+            slot.waiters.decrementAndGet();
+            slot.lock.unlock();
+        }
+    }
+
+    /**
+     * Run a callback once the queue version differs from a seen one, right away if it already does.
+     * Callbacks are run by signalling threads and should be short
+     */
+    public void onChange(String queueName, long seenVersion, Runnable callback) {
+        Slot slot = slot(queueName);
+        slot.listeners.add(callback);
+        //Signal could come before the callback was added
+        if (slot.version.get() != seenVersion) {
+            runListeners(slot);
+        }
+    }
+
+    /**
+     * Remove a callback that is not needed anymore, e.g. after its wait timed out
+     */
+    public void removeListener(String queueName, Runnable callback) {
+        slot(queueName).listeners.remove(callback);
+    }
+
+    /**
+     * Run callbacks registered so far. Callbacks registering themselves again,
+     * e.g. a consumer that found the queue empty, are left for the next signal
+     */
+    private void runListeners(Slot slot) {
+        List<Runnable> ready = new ArrayList<>();
+        Runnable listener;
+        while ((listener = slot.listeners.poll()) != null) {
+            ready.add(listener);
+        }
+        for (Runnable callback : ready) {
+            callback.run();
+        }
+    }
+
+    private Slot slot(String queueName) {
+        Slot slot = slots.get(queueName);
+        return slot != null ? slot : slots.computeIfAbsent(queueName, name -> new Slot());
+    }
+
+    private static class Slot {
+        private final AtomicLong version = new AtomicLong();
+        private final AtomicInteger waiters = new AtomicInteger();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Queue<Runnable> listeners = new ConcurrentLinkedQueue<>();
+    }
+}
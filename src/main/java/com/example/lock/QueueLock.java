@@ -0,0 +1,124 @@
+package com.example.lock;
+
+import com.example.error.QueueException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Two level queue lock.
+ * Threads of one process are serialized by a ReentrantLock, so in-process contention
+ * costs a park/unpark instead of a polling interval. The owner thread then takes
+ * an exclusive FileChannel lock on a lock file to exclude other processes sharing the directory.
+ * OS releases file locks of a crashed process, so there are no stale locks to clean up
+ * except a lock directory left by previous mkdir based locking - it is removed on creation.
+ * File locks are held on behalf of the whole JVM, so there is a single instance per lock file in a process.
+ */
+public class QueueLock {
+    //Locks by canonical path of their files, shared by all services of the process
+    private static final Map<String, QueueLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LockStats stats = new LockStats();
+
+    //Guarded by lock
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    /**
+     * Get the lock of a file, services of one process using the same directory wait for each other
+     */
+    public static QueueLock forFile(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't resolve lock [%s]", file), e);
+        }
+        QueueLock lock = LOCKS.get(path);
+        return lock != null ? lock : LOCKS.computeIfAbsent(path, key -> new QueueLock(new File(key)));
+    }
+
+    private QueueLock(File file) {
+        this.file = file;
+        if (file.isDirectory()) {
+            try {
+                FileUtils.deleteDirectory(file);
+            } catch (IOException e) {
+                throw new QueueException(String.format("Couldn't remove stale lock [%s]", file), e);
+            }
+        }
+    }
+
+    /**
+     * Acquire the lock. Reentrant for the owner thread
+     */
+    public void lock() {
+        long started = System.nanoTime();
+        boolean waited = !lock.tryLock();
+        if (waited) {
+            try {
+                lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueueException("Thread was interrupted", e);
+            }
+        }
+        if (lock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            fileLock = channel().tryLock();
+            if (fileLock == null) {
+                waited = true;
+                fileLock = channel().lock();
+            }
+        } catch (ClosedChannelException e) {
+            //Channel is closed if a thread is interrupted while waiting - reopen on the next attempt
+            channel = null;
+            lock.unlock();
+            throw new QueueException("Thread was interrupted", e);
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw new QueueException(String.format("Couldn't lock [%s]", file), e);
+        }
+        stats.record(waited ? System.nanoTime() - started : 0);
+    }
+
+    /**
+     * Release the lock. File lock is released when the owner leaves the last nested section
+     */
+    public void unlock() {
+        try {
+            if (lock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            channel = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LockStats getStats() {
+        return stats;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            file.getParentFile().mkdirs();
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        return channel;
+    }
+}
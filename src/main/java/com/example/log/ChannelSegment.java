@@ -0,0 +1,84 @@
+package com.example.log;
+
+import com.example.error.QueueException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Segment accessed through positional FileChannel reads and writes
+ */
+public class ChannelSegment extends Segment {
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+    public ChannelSegment(File dir, long id) {
+        super(dir, id);
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't open segment [%s]", file), e);
+        }
+        recover();
+    }
+
+    @Override
+    public boolean hasRoom(int payloadLength, long maxSegmentSize) {
+        return records() == 0 || size() + HEADER_SIZE + payloadLength <= maxSegmentSize;
+    }
+
+    @Override
+    protected void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    @Override
+    protected int readLength(long position) throws IOException {
+        header.clear();
+        readFully(header, position);
+        return header.getInt(0);
+    }
+
+    @Override
+    protected ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    protected long capacity() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    protected void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    protected void truncate(long position) throws IOException {
+        if (position < channel.size()) {
+            channel.truncate(position);
+        }
+    }
+
+    @Override
+    protected void closeFile() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new QueueException(String.format("Unexpected end of segment [%s]", file));
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.log;
+
+/**
+ * How segment files are accessed
+ */
+public enum IoMode {
+    /**
+     * Positional FileChannel reads and writes
+     */
+    CHANNEL,
+
+    /**
+     * Segments are preallocated and mapped into memory. Reads return
+     * slices of the mapping without copying
+     */
+    MAPPED
+}
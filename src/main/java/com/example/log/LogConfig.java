@@ -0,0 +1,53 @@
+package com.example.log;
+
+/**
+ * Storage settings of a segmented log
+ */
+public class LogConfig {
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_TICK = 10;
+
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private IoMode ioMode = IoMode.CHANNEL;
+    private SyncPolicy syncPolicy = SyncPolicy.os();
+    private long tick = DEFAULT_TICK;
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public LogConfig withSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public LogConfig withIoMode(IoMode ioMode) {
+        this.ioMode = ioMode;
+        return this;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public LogConfig withSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    /**
+     * Precision of visibility timeouts in milliseconds
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public LogConfig withTick(long tick) {
+        this.tick = tick;
+        return this;
+    }
+}
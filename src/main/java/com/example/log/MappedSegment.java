@@ -0,0 +1,87 @@
+package com.example.log;
+
+import com.example.error.QueueException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Segment preallocated to a fixed capacity and mapped into memory.
+ * Writes go to the mapping directly, reads return read-only slices of it without copying.
+ * Unused tail of the file is zero filled, so zero length header marks the end of records.
+ */
+public class MappedSegment extends Segment {
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param capacity - min size of the file. Existing bigger files are mapped as is
+     */
+    public MappedSegment(File dir, long id, long capacity) {
+        super(dir, id);
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            long length = Math.max(channel.size(), capacity);
+            if (length > Integer.MAX_VALUE) {
+                throw new QueueException(String.format("Segment [%s] is too big to be mapped", file));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't map segment [%s]", file), e);
+        }
+        recover();
+    }
+
+    @Override
+    public boolean hasRoom(int payloadLength, long maxSegmentSize) {
+        return size() + HEADER_SIZE + payloadLength <= buffer.capacity();
+    }
+
+    @Override
+    protected void write(ByteBuffer source, long position) {
+        ByteBuffer target = buffer.duplicate();
+        target.position((int) position);
+        target.put(source);
+    }
+
+    @Override
+    protected int readLength(long position) {
+        return buffer.getInt((int) position);
+    }
+
+    @Override
+    protected ByteBuffer read(long position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position((int) position).limit((int) position + length);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    protected long capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void force() {
+        buffer.force();
+    }
+
+    /**
+     * Mapped file keeps its size, the torn tail is zeroed instead
+     */
+    @Override
+    protected void truncate(long position) {
+        for (int i = (int) position; i < buffer.capacity() && i < position + HEADER_SIZE; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    @Override
+    protected void closeFile() throws IOException {
+        channel.close();
+    }
+}
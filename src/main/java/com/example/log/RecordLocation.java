@@ -0,0 +1,40 @@
+package com.example.log;
+
+/**
+ * Address of a record inside a segmented log: segment id and byte offset of the record header
+ */
+public final class RecordLocation {
+    private final long segmentId;
+    private final long position;
+
+    public RecordLocation(long segmentId, long position) {
+        this.segmentId = segmentId;
+        this.position = position;
+    }
+
+    public long getSegmentId() {
+        return segmentId;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RecordLocation)) return false;
+        RecordLocation that = (RecordLocation) o;
+        return segmentId == that.segmentId && position == that.position;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(segmentId) + Long.hashCode(position);
+    }
+
+    @Override
+    public String toString() {
+        return segmentId + ":" + position;
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.log;
+
+import com.example.error.QueueException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A single append-only log file.
+ * Each record is stored as a 4 bytes length header followed by a non empty payload.
+ * Acknowledged records are tracked in a sidecar file holding 8 bytes positions,
+ * so a segment can be dropped as soon as all of its records were read and acknowledged.
+ * Subclasses define how the log file itself is accessed.
+ * Not thread safe - guarded by the owning queue lock.
+ */
+public abstract class Segment {
+    static final String LOG_SUFFIX = ".log";
+    static final String ACK_SUFFIX = ".ack";
+    static final int HEADER_SIZE = 4;
+
+    private final long id;
+    protected final File file;
+    private final File ackFile;
+    private FileChannel ackChannel;
+    private final ByteBuffer ackBuffer = ByteBuffer.allocate(8);
+
+    private long size;
+    private long records;
+    private long acked;
+
+    protected Segment(File dir, long id) {
+        this.id = id;
+        this.file = new File(dir, fileName(id, LOG_SUFFIX));
+        this.ackFile = new File(dir, fileName(id, ACK_SUFFIX));
+        if (ackFile.exists()) {
+            acked = ackFile.length() / 8;
+        }
+    }
+
+    /**
+     * Open or create a segment accessed in a given mode
+     * @param capacity - min size to preallocate for mapped segments
+     */
+    public static Segment open(File dir, long id, IoMode mode, long capacity) {
+        return mode == IoMode.MAPPED ? new MappedSegment(dir, id, capacity) : new ChannelSegment(dir, id);
+    }
+
+    /**
+     * Write bytes at position
+     */
+    protected abstract void write(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Read a record length stored at position
+     */
+    protected abstract int readLength(long position) throws IOException;
+
+    /**
+     * Get a buffer with length bytes stored at position
+     */
+    protected abstract ByteBuffer read(long position, int length) throws IOException;
+
+    /**
+     * Number of bytes that can be stored in the file
+     */
+    protected abstract long capacity() throws IOException;
+
+    /**
+     * Force written data to the storage device
+     */
+    protected abstract void force() throws IOException;
+
+    /**
+     * Cut the log file at position
+     */
+    protected abstract void truncate(long position) throws IOException;
+
+    protected abstract void closeFile() throws IOException;
+
+    /**
+     * Check if a record with given payload fits into the segment
+     */
+    public abstract boolean hasRoom(int payloadLength, long maxSegmentSize);
+
+    /**
+     * Append a record with remaining bytes of the payload
+     * @return position of the record header
+     */
+    public long append(ByteBuffer payload) {
+        long position = size;
+        int length = payload.remaining();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length);
+        buffer.putInt(length).put(payload).flip();
+        try {
+            write(buffer, position);
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't write to segment [%s]", file), e);
+        }
+        size += HEADER_SIZE + length;
+        records++;
+        return position;
+    }
+
+    /**
+     * Read a record payload stored at position
+     */
+    public ByteBuffer read(long position) {
+        try {
+            return read(position + HEADER_SIZE, readLength(position));
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't read segment [%s]", file), e);
+        }
+    }
+
+    /**
+     * Get position of a record that follows the one at position
+     */
+    public long next(long position) {
+        try {
+            return position + HEADER_SIZE + readLength(position);
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't read segment [%s]", file), e);
+        }
+    }
+
+    /**
+     * Force appended records to the storage device
+     */
+    public void sync() {
+        try {
+            force();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't sync segment [%s]", file), e);
+        }
+    }
+
+    /**
+     * Mark a record as acknowledged
+     */
+    public void ack(long position) {
+        try {
+            if (ackChannel == null) {
+                ackChannel = new RandomAccessFile(ackFile, "rw").getChannel();
+                ackChannel.position(ackChannel.size());
+            }
+            ackBuffer.clear();
+            ackBuffer.putLong(position).flip();
+            while (ackBuffer.hasRemaining()) {
+                ackChannel.write(ackBuffer);
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't write acknowledgement for [%s]", file), e);
+        }
+        acked++;
+    }
+
+    /**
+     * Load positions of acknowledged records. Used on recovery only.
+     */
+    public Set<Long> loadAcks() {
+        Set<Long> acks = new HashSet<>();
+        if (!ackFile.exists()) {
+            return acks;
+        }
+        try (FileChannel acksChannel = new RandomAccessFile(ackFile, "r").getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) acksChannel.size());
+            while (buffer.hasRemaining() && acksChannel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            while (buffer.remaining() >= 8) {
+                acks.add(buffer.getLong());
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't read acknowledgements for [%s]", file), e);
+        }
+        return acks;
+    }
+
+    public boolean isFullyAcked() {
+        return acked >= records;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    public void close() {
+        try {
+            closeFile();
+            if (ackChannel != null) {
+                ackChannel.close();
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't close segment [%s]", file), e);
+        }
+    }
+
+    /**
+     * Close and remove segment files
+     */
+    public void delete() {
+        close();
+        file.delete();
+        ackFile.delete();
+    }
+
+    static String fileName(long id, String suffix) {
+        return String.format("%020d%s", id, suffix);
+    }
+
+    /**
+     * Count records and cut off a torn tail.
+     * Should be called by subclasses once the file is open.
+     */
+    protected void recover() {
+        try {
+            long capacity = capacity();
+            long position = 0;
+            while (position + HEADER_SIZE <= capacity) {
+                int length = readLength(position);
+                if (length <= 0 || position + HEADER_SIZE + length > capacity) {
+                    break;
+                }
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            truncate(position);
+            size = position;
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't recover segment [%s]", file), e);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.log;
+
+import com.example.error.QueueException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Append-only log split into segments of a limited size.
+ * Producers append to the last segment, consumers move a persistent read cursor.
+ * A segment is rolled over when it is full and removed once the cursor passed it
+ * and all of its records were acknowledged.
+ * Appended records are forced to the storage device according to the sync policy.
+ * Not thread safe - guarded by the owning queue lock.
+ */
+public class SegmentedLog {
+    static final String CURSOR_FILE = "cursor";
+
+    private final File dir;
+    private final LogConfig config;
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final FileChannel cursorChannel;
+    private final ByteBuffer cursorBuffer = ByteBuffer.allocate(16);
+
+    private Segment head;
+    private long readSegment;
+    private long readPosition;
+    private long unread;
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+
+    //Records that were read but not acknowledged before the log was reopened
+    private final List<RecordLocation> unacked = new ArrayList<>();
+
+    /**
+     * Open a log in a directory or create an empty one
+     */
+    public SegmentedLog(File dir, LogConfig config) {
+        this.dir = dir;
+        this.config = config;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(Segment.LOG_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                long id = Long.parseLong(file.getName().substring(0, file.getName().length() - Segment.LOG_SUFFIX.length()));
+                segments.put(id, openSegment(id, 0));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, openSegment(0, 0));
+        }
+        head = segments.lastEntry().getValue();
+        try {
+            cursorChannel = new RandomAccessFile(new File(dir, CURSOR_FILE), "rw").getChannel();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't open cursor in [%s]", dir), e);
+        }
+        loadCursor();
+        recover();
+    }
+
+    /**
+     * Append remaining bytes of the payload as a record to the head segment. Rolls over to a new segment if the head is full.
+     */
+    public RecordLocation append(ByteBuffer payload) {
+        if (!head.hasRoom(payload.remaining(), config.getSegmentSize())) {
+            sync();
+            head = openSegment(head.getId() + 1, Segment.HEADER_SIZE + payload.remaining());
+            segments.put(head.getId(), head);
+        }
+        long position = head.append(payload);
+        unread++;
+        unsynced++;
+        if (config.getSyncPolicy().shouldSync(unsynced, System.currentTimeMillis() - lastSync)) {
+            sync();
+        }
+        return new RecordLocation(head.getId(), position);
+    }
+
+    /**
+     * Force unsynced records of the head segment to the storage device.
+     * Called on rollover, by the sync policy on append and periodically for group sync.
+     */
+    public void sync() {
+        if (unsynced > 0 && config.getSyncPolicy().getMode() != SyncPolicy.Mode.OS) {
+            head.sync();
+        }
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Sync if group sync interval has passed
+     */
+    public void syncIfDue() {
+        if (config.getSyncPolicy().shouldSync(unsynced, System.currentTimeMillis() - lastSync)) {
+            sync();
+        }
+    }
+
+    /**
+     * Move the read cursor to the next record
+     * @return location of the record or null if there is nothing to read
+     */
+    public RecordLocation next() {
+        Segment segment = segments.get(readSegment);
+        while (readPosition >= segment.size()) {
+            if (segment == head) {
+                return null;
+            }
+            Segment passed = segment;
+            segment = segments.higherEntry(readSegment).getValue();
+            readSegment = segment.getId();
+            readPosition = 0;
+            compact(passed);
+        }
+        RecordLocation location = new RecordLocation(readSegment, readPosition);
+        readPosition = segment.next(readPosition);
+        unread--;
+        saveCursor();
+        return location;
+    }
+
+    /**
+     * Read a record payload. Mapped segments return a read-only view of the mapping
+     */
+    public ByteBuffer read(RecordLocation location) {
+        return segment(location).read(location.getPosition());
+    }
+
+    /**
+     * Acknowledge a record. Drops its segment if nothing is left to consume there.
+     */
+    public void ack(RecordLocation location) {
+        Segment segment = segment(location);
+        segment.ack(location.getPosition());
+        compact(segment);
+    }
+
+    /**
+     * Number of records behind the read cursor
+     */
+    public long unread() {
+        return unread;
+    }
+
+    /**
+     * Records that were read but not acknowledged when the log was opened.
+     * Should be redelivered by the owner.
+     */
+    public List<RecordLocation> getUnacked() {
+        return unacked;
+    }
+
+    public int segmentsCount() {
+        return segments.size();
+    }
+
+    public void close() {
+        sync();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        try {
+            cursorChannel.close();
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't close cursor in [%s]", dir), e);
+        }
+    }
+
+    private Segment segment(RecordLocation location) {
+        Segment segment = segments.get(location.getSegmentId());
+        if (segment == null) {
+            throw new QueueException(String.format("Segment [%s] was already removed from [%s]", location.getSegmentId(), dir));
+        }
+        return segment;
+    }
+
+    private Segment openSegment(long id, long minCapacity) {
+        return Segment.open(dir, id, config.getIoMode(), Math.max(config.getSegmentSize(), minCapacity));
+    }
+
+    private void compact(Segment segment) {
+        if (segment.getId() < readSegment && segment.isFullyAcked()) {
+            segments.remove(segment.getId());
+            segment.delete();
+        }
+    }
+
+    private void loadCursor() {
+        readSegment = segments.firstKey();
+        readPosition = 0;
+        try {
+            if (cursorChannel.size() >= 16) {
+                cursorBuffer.clear();
+                while (cursorBuffer.hasRemaining() && cursorChannel.read(cursorBuffer, cursorBuffer.position()) >= 0) {
+                }
+                long segmentId = cursorBuffer.getLong(0);
+                long position = cursorBuffer.getLong(8);
+                Segment segment = segments.get(segmentId);
+                if (segment != null && position <= segment.size()) {
+                    readSegment = segmentId;
+                    readPosition = position;
+                }
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't read cursor in [%s]", dir), e);
+        }
+    }
+
+    private void saveCursor() {
+        cursorBuffer.clear();
+        cursorBuffer.putLong(readSegment).putLong(readPosition).flip();
+        try {
+            while (cursorBuffer.hasRemaining()) {
+                cursorChannel.write(cursorBuffer, cursorBuffer.position());
+            }
+        } catch (IOException e) {
+            throw new QueueException(String.format("Couldn't write cursor in [%s]", dir), e);
+        }
+    }
+
+    /**
+     * Collect read but unacknowledged records, drop consumed segments and count unread records
+     */
+    private void recover() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            long limit = segment.getId() < readSegment ? segment.size() :
+                    segment.getId() == readSegment ? readPosition : 0;
+            if (limit > 0) {
+                Set<Long> acks = segment.loadAcks();
+                for (long position = 0; position < limit; position = segment.next(position)) {
+                    if (!acks.contains(position)) {
+                        unacked.add(new RecordLocation(segment.getId(), position));
+                    }
+                }
+            }
+            for (long position = limit; position < segment.size(); position = segment.next(position)) {
+                unread++;
+            }
+            compact(segment);
+        }
+    }
+}
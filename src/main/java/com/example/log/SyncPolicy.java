@@ -0,0 +1,79 @@
+package com.example.log;
+
+/**
+ * Durability policy of a log - when appended records are forced to the storage device
+ */
+public final class SyncPolicy {
+
+    public enum Mode {
+        /**
+         * Force after every append
+         */
+        ALWAYS,
+
+        /**
+         * Force after a number of appends or a time interval, whatever comes first
+         */
+        GROUP,
+
+        /**
+         * Never force explicitly, let the OS flush dirty pages
+         */
+        OS
+    }
+
+    private final Mode mode;
+    private final long intervalMillis;
+    private final int messages;
+
+    private SyncPolicy(Mode mode, long intervalMillis, int messages) {
+        this.mode = mode;
+        this.intervalMillis = intervalMillis;
+        this.messages = messages;
+    }
+
+    public static SyncPolicy always() {
+        return new SyncPolicy(Mode.ALWAYS, 0, 1);
+    }
+
+    /**
+     * @param intervalMillis - max time an appended record can stay unsynced
+     * @param messages - max number of unsynced records
+     */
+    public static SyncPolicy group(long intervalMillis, int messages) {
+        if (intervalMillis <= 0 || messages <= 0) {
+            throw new IllegalArgumentException("Group sync interval and messages count should be positive");
+        }
+        return new SyncPolicy(Mode.GROUP, intervalMillis, messages);
+    }
+
+    public static SyncPolicy os() {
+        return new SyncPolicy(Mode.OS, 0, 0);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * Check if unsynced records should be forced now
+     */
+    boolean shouldSync(int unsynced, long sinceLastSyncMillis) {
+        switch (mode) {
+            case ALWAYS:
+                return unsynced > 0;
+            case GROUP:
+                return unsynced >= messages || (unsynced > 0 && sinceLastSyncMillis >= intervalMillis);
+            default:
+                return false;
+        }
+    }
+}
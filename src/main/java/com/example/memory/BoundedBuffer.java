@@ -0,0 +1,107 @@
+package com.example.memory;
+
+import com.example.beans.Message;
+import com.example.error.QueueException;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded buffer on a preallocated ring, pushes and pulls don't allocate.
+ * Redelivered messages go to a small side deque ahead of the ring - they were already
+ * accepted once and are never rejected or dropped.
+ */
+public class BoundedBuffer implements MessageBuffer {
+    private final RingBuffer<Message> ring;
+    private final OverflowPolicy policy;
+
+    private final Deque<Message> redelivered = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger redeliveredSize = new AtomicInteger();
+
+    //Producers waiting for space with BLOCK policy
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    public BoundedBuffer(int capacity, OverflowPolicy policy) {
+        this.ring = new RingBuffer<>(capacity);
+        this.policy = policy;
+    }
+
+    @Override
+    public void add(Message message) {
+        if (ring.offer(message)) {
+            return;
+        }
+        switch (policy) {
+            case REJECT:
+                throw new QueueException(String.format("Queue is full, capacity [%s]", ring.capacity()));
+            case DROP_OLDEST:
+                while (!ring.offer(message)) {
+                    ring.poll();
+                }
+                return;
+            default:
+                await(message);
+        }
+    }
+
+    @Override
+    public void addFirst(Message message) {
+        redelivered.addFirst(message);
+        redeliveredSize.incrementAndGet();
+    }
+
+    @Override
+    public Message poll() {
+        Message message = redelivered.pollFirst();
+        if (message != null) {
+            redeliveredSize.decrementAndGet();
+            return message;
+        }
+        message = ring.poll();
+        if (message != null && waiters.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public long size() {
+        return ring.size() + Math.max(0, redeliveredSize.get());
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+
+    /**
+     * Park a producer until the message fits
+     */
+    private void await(Message message) {
+        lock.lock();
+        waiters.incrementAndGet();
+        try {
+            //Consumers signal only if they see a waiter - check again after registering
+            while (!ring.offer(message)) {
+                notFull.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueueException("Thread was interrupted", e);
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+}
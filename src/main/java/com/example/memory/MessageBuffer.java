@@ -0,0 +1,32 @@
+package com.example.memory;
+
+import com.example.beans.Message;
+
+/**
+ * Storage of visible messages of an in-memory queue
+ */
+public interface MessageBuffer {
+
+    /**
+     * Add a message to the tail
+     */
+    public void add(Message message);
+
+    /**
+     * Return a message to the head, e.g. on redelivery. Never blocks or fails on capacity
+     */
+    public void addFirst(Message message);
+
+    /**
+     * Take a message from the head
+     * @return null if empty
+     */
+    public Message poll();
+
+    /**
+     * O(1) number of messages
+     */
+    public long size();
+
+    public void clear();
+}
@@ -0,0 +1,21 @@
+package com.example.memory;
+
+/**
+ * What a bounded queue does with a push when it is full
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until consumers free some space
+     */
+    BLOCK,
+
+    /**
+     * Fail the push with QueueException
+     */
+    REJECT,
+
+    /**
+     * Discard the oldest message to make room
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,107 @@
+package com.example.memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue on a preallocated array.
+ * Every slot carries a sequence number telling whether it is ready to be written or read
+ * (D. Vyukov's bounded MPMC queue), so offer and poll are a single CAS without allocations.
+ * The array is a power of two, the exact capacity is enforced against the head position.
+ */
+public class RingBuffer<E> {
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity - max number of items. The array is rounded up to a power of two, at least 2 -
+     *                 sequence numbers can't tell a full slot from an empty one in a single slot ring
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity should be in (0, 2^30]");
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(E item) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                //Head only grows, so a stale head can reject early but never overfill
+                if (position - head.get() >= capacity) {
+                    return false;
+                }
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        items[index] = item;
+        //Publish the item to consumers
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * @return null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+        E item = (E) items[index];
+        items[index] = null;
+        //Release the slot for the next round of producers
+        sequences.lazySet(index, position + mask + 1);
+        return item;
+    }
+
+    /**
+     * O(1) number of items. Approximate while producers and consumers are active
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.memory;
+
+import com.example.beans.Message;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unbounded buffer on a concurrent deque.
+ * Size is tracked by a counter, as ConcurrentLinkedDeque.size() traverses the whole deque
+ */
+public class UnboundedBuffer implements MessageBuffer {
+
+    //Using ConcurrentLinkedDeque to avoid concurrent modification exceptions and locking
+    private final Deque<Message> messages = new ConcurrentLinkedDeque<>();
+    private final AtomicLong size = new AtomicLong();
+
+    @Override
+    public void add(Message message) {
+        messages.add(message);
+        size.incrementAndGet();
+    }
+
+    @Override
+    public void addFirst(Message message) {
+        messages.addFirst(message);
+        size.incrementAndGet();
+    }
+
+    @Override
+    public Message poll() {
+        Message message = messages.pollFirst();
+        if (message != null) {
+            size.decrementAndGet();
+        }
+        return message;
+    }
+
+    @Override
+    public long size() {
+        //Consumer can decrement before a producer increments
+        return Math.max(0, size.get());
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+        }
+    }
+}
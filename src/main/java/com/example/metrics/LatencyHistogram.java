@@ -0,0 +1,100 @@
+package com.example.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in the spirit of HdrHistogram.
+ * Values below 32 are counted exactly, above that every power of two is split into 16 linear buckets,
+ * so any recorded value is reported with an error under 6.25%. The whole long range fits into
+ * 960 counters. Recording is a few shifts and an atomic increment - cheap enough to be always on.
+ * Percentiles are read without stopping writers and are approximate while values are being recorded.
+ */
+public class LatencyHistogram {
+    private static final int EXACT = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BITS = 4;
+    private static final int BUCKETS = EXACT + (63 - 5) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(TimeUnit unit) {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : unit.convert(sum.sum() / recorded, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Value below which a given share of recorded values falls
+     * @param percentile - from 0 to 100
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return unit.convert(Math.min(upperBound(i), max.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Bucket of a value: exact for small values, 16 buckets per power of two above
+     */
+    static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return EXACT + (exponent - 5) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * Highest value counted by a bucket
+     */
+    static long upperBound(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int exponent = (index - EXACT) / SUB_BUCKETS + 5;
+        long mantissa = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        long upper = ((mantissa + 1) << (exponent - SUB_BITS)) - 1;
+        //Last bucket of the top power of two overflows
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
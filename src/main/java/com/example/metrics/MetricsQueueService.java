@@ -0,0 +1,194 @@
+package com.example.metrics;
+
+import com.example.BaseQueueService;
+import com.example.ForwardingQueueService;
+import com.example.QueueEventListener;
+import com.example.QueueService;
+import com.example.beans.Message;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics decorator. Measures latency of every call and counts messages per queue,
+ * redeliveries and dead letters are taken from service events if the service reports them.
+ * Depth gauges are offered only for such services, see QueueMetrics.
+ * Recording costs a couple of nanoTime calls and atomic increments per call,
+ * so the decorator is supposed to be left on in production.
+ */
+public class MetricsQueueService extends ForwardingQueueService implements QueueEventListener {
+    private final Map<String, QueueMetrics> metrics = new ConcurrentHashMap<>();
+    private final LatencyHistogram sweeps = new LatencyHistogram();
+    //Null if the delegate reports no events
+    private final QueueService gaugeSource;
+
+    public MetricsQueueService(QueueService delegate) {
+        super(delegate);
+        if (delegate instanceof BaseQueueService) {
+            ((BaseQueueService) delegate).addListener(this);
+            gaugeSource = delegate;
+        } else {
+            gaugeSource = null;
+        }
+    }
+
+    /**
+     * Get metrics of a queue
+     */
+    public QueueMetrics getMetrics(String queueName) {
+        QueueMetrics queueMetrics = metrics.get(queueName);
+        return queueMetrics != null ? queueMetrics : metrics.computeIfAbsent(queueName, name -> new QueueMetrics(name, gaugeSource));
+    }
+
+    /**
+     * Metrics of all queues used so far
+     */
+    public Collection<QueueMetrics> getAllMetrics() {
+        return metrics.values();
+    }
+
+    /**
+     * Durations of visibility timeout sweeps of the service
+     */
+    public LatencyHistogram getSweepLatency() {
+        return sweeps;
+    }
+
+    @Override
+    public void push(String queueName, Message message) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getPushLatency(), () -> {
+            delegate.push(queueName, message);
+            return null;
+        });
+        queue.pushed.increment();
+    }
+
+    @Override
+    public void push(String queueName, Message message, long delay, TimeUnit unit) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getPushLatency(), () -> {
+            delegate.push(queueName, message, delay, unit);
+            return null;
+        });
+        queue.pushed.increment();
+    }
+
+    @Override
+    public Message pull(String queueName) {
+        QueueMetrics queue = getMetrics(queueName);
+        return pulled(queue, time(queue, queue.getPullLatency(), () -> delegate.pull(queueName)));
+    }
+
+    @Override
+    public Message pull(String queueName, long waitTime, TimeUnit unit) {
+        QueueMetrics queue = getMetrics(queueName);
+        return pulled(queue, time(queue, queue.getPullLatency(), () -> delegate.pull(queueName, waitTime, unit)));
+    }
+
+    @Override
+    public void delete(String queueName, Message message) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getDeleteLatency(), () -> {
+            delegate.delete(queueName, message);
+            return null;
+        });
+        queue.deleted.increment();
+    }
+
+    @Override
+    public void pushBatch(String queueName, List<Message> messages) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getPushLatency(), () -> {
+            delegate.pushBatch(queueName, messages);
+            return null;
+        });
+        queue.pushed.add(messages.size());
+    }
+
+    @Override
+    public List<Message> pullBatch(String queueName, int max) {
+        QueueMetrics queue = getMetrics(queueName);
+        List<Message> messages = time(queue, queue.getPullLatency(), () -> delegate.pullBatch(queueName, max));
+        if (messages.isEmpty()) {
+            queue.emptyPulls.increment();
+        }
+        queue.pulled.add(messages.size());
+        return messages;
+    }
+
+    @Override
+    public void deleteBatch(String queueName, List<Message> messages) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getDeleteLatency(), () -> {
+            delegate.deleteBatch(queueName, messages);
+            return null;
+        });
+        queue.deleted.add(messages.size());
+    }
+
+    @Override
+    public void changeVisibility(String queueName, Message message, long timeout, TimeUnit unit) {
+        QueueMetrics queue = getMetrics(queueName);
+        time(queue, queue.getVisibilityLatency(), () -> {
+            delegate.changeVisibility(queueName, message, timeout, unit);
+            return null;
+        });
+        if (timeout <= 0) {
+            queue.released.increment();
+        }
+    }
+
+    /**
+     * Clear the queue and reset its metrics
+     */
+    @Override
+    public void clearMessages(String queueName) {
+        delegate.clearMessages(queueName);
+        metrics.remove(queueName);
+    }
+
+    @Override
+    public void onExpired(String queueName, int count) {
+        getMetrics(queueName).expired.add(count);
+    }
+
+    @Override
+    public void onDeadLettered(String queueName, String deadLetterQueue, int count) {
+        getMetrics(queueName).deadLettered.add(count);
+        getMetrics(deadLetterQueue).redriven.add(count);
+    }
+
+    @Override
+    public void onSweep(long durationNanos) {
+        sweeps.record(durationNanos);
+    }
+
+    private static Message pulled(QueueMetrics queue, Message message) {
+        if (message == null) {
+            queue.emptyPulls.increment();
+        } else {
+            queue.pulled.increment();
+        }
+        return message;
+    }
+
+    /**
+     * Run a call recording its duration, failed calls are counted as errors
+     */
+    private static <T> T time(QueueMetrics queue, LatencyHistogram latency, Supplier<T> call) {
+        long started = System.nanoTime();
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            queue.errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - started);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.metrics;
+
+import com.example.QueueService;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a single queue collected by MetricsQueueService.
+ * Latencies are histograms of call durations, counters are totals since the decorator was created.
+ * Depth gauges ask the service once on first use and then follow the counters in O(1),
+ * they are offered only for services reporting expired and dead-lettered messages.
+ */
+public class QueueMetrics {
+    private final String queueName;
+
+    private final LatencyHistogram pushLatency = new LatencyHistogram();
+    private final LatencyHistogram pullLatency = new LatencyHistogram();
+    private final LatencyHistogram deleteLatency = new LatencyHistogram();
+    private final LatencyHistogram visibilityLatency = new LatencyHistogram();
+
+    final LongAdder pushed = new LongAdder();
+    final LongAdder pulled = new LongAdder();
+    final LongAdder emptyPulls = new LongAdder();
+    final LongAdder deleted = new LongAdder();
+    final LongAdder released = new LongAdder();
+    final LongAdder expired = new LongAdder();
+    final LongAdder deadLettered = new LongAdder();
+    final LongAdder redriven = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    //Service the gauges are seeded from, null if gauges are not offered
+    private final QueueService gaugeSource;
+    private volatile boolean seeded;
+    private long visibleBase;
+    private long inFlightBase;
+
+    QueueMetrics(String queueName, QueueService gaugeSource) {
+        this.queueName = queueName;
+        this.gaugeSource = gaugeSource;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * Durations of push calls, single and batch
+     */
+    public LatencyHistogram getPushLatency() {
+        return pushLatency;
+    }
+
+    /**
+     * Durations of pull calls including waiting ones
+     */
+    public LatencyHistogram getPullLatency() {
+        return pullLatency;
+    }
+
+    public LatencyHistogram getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    public LatencyHistogram getVisibilityLatency() {
+        return visibilityLatency;
+    }
+
+    public long getPushed() {
+        return pushed.sum();
+    }
+
+    public long getPulled() {
+        return pulled.sum();
+    }
+
+    /**
+     * Number of pulls that returned nothing
+     */
+    public long getEmptyPulls() {
+        return emptyPulls.sum();
+    }
+
+    public long getDeleted() {
+        return deleted.sum();
+    }
+
+    /**
+     * Number of messages made visible again by consumers
+     */
+    public long getReleased() {
+        return released.sum();
+    }
+
+    /**
+     * Number of messages redelivered after their visibility timeout
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    /**
+     * Number of messages moved into this queue as a dead-letter queue of another one
+     */
+    public long getRedriven() {
+        return redriven.sum();
+    }
+
+    /**
+     * Number of failed calls
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Whether getVisible and getInFlight are available
+     */
+    public boolean hasGauges() {
+        return gaugeSource != null;
+    }
+
+    /**
+     * Estimated number of messages waiting in the queue, delayed ones included
+     * @throws IllegalStateException if the service doesn't report expired messages
+     */
+    public long getVisible() {
+        seed();
+        return Math.max(0, visibleBase + visibleChange());
+    }
+
+    /**
+     * Estimated number of in flight messages
+     * @throws IllegalStateException if the service doesn't report expired messages
+     */
+    public long getInFlight() {
+        seed();
+        return Math.max(0, inFlightBase + inFlightChange());
+    }
+
+    private long visibleChange() {
+        return pushed.sum() + redriven.sum() - pulled.sum() + released.sum() + expired.sum() - deadLettered.sum();
+    }
+
+    private long inFlightChange() {
+        return pulled.sum() - deleted.sum() - released.sum() - expired.sum();
+    }
+
+    /**
+     * Take the depth of the queue once, counted changes are applied on top of it from then on
+     */
+    private void seed() {
+        if (seeded) {
+            return;
+        }
+        if (gaugeSource == null) {
+            throw new IllegalStateException(String.format(
+                    "Service of queue [%s] doesn't report expired messages, ask it for the depth instead", queueName));
+        }
+        synchronized (this) {
+            if (!seeded) {
+                visibleBase = gaugeSource.messagesInQueue(queueName) - visibleChange();
+                inFlightBase = gaugeSource.pendingMessages(queueName) - inFlightChange();
+                seeded = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Releases items at their deadlines.
+ * Items are kept in a binary heap ordered by deadline, so scheduling is O(log n) and
+ * a release touches due items only - far deadlines are never scanned, unlike the timer wheel
+ * where entries beyond the horizon wrap around. Suits long and widely spread delays.
+ * A single daemon thread sleeps until the earliest deadline, it is started with the first item.
+ * Items that failed to be released are retried later.
+ */
+public class DelayScheduler<T> {
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final String name;
+    private final Consumer<T> release;
+    private final PriorityQueue<Scheduled<T>> heap = new PriorityQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition earlier = lock.newCondition();
+    private long sequence;
+    private Thread thread;
+
+    /**
+     * @param name - name of the releasing thread
+     * @param release - called with due items outside of the lock
+     */
+    public DelayScheduler(String name, Consumer<T> release) {
+        this.name = name;
+        this.release = release;
+    }
+
+    /**
+     * Schedule an item to be released at a wall clock time
+     */
+    public void schedule(T item, long deadlineMillis) {
+        lock.lock();
+        try {
+            //Sequence keeps FIFO order of items with the same deadline
+            Scheduled<T> scheduled = new Scheduled<>(item, deadlineMillis, sequence++);
+            heap.add(scheduled);
+            if (thread == null) {
+                thread = new Thread(this::run, name);
+                thread.setDaemon(true);
+                thread.start();
+            } else if (heap.peek() == scheduled) {
+                earlier.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of items waiting for their deadlines
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return heap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop items matching a condition, e.g. items of a cleared queue
+     */
+    public void removeIf(Predicate<T> filter) {
+        lock.lock();
+        try {
+            heap.removeIf(scheduled -> filter.test(scheduled.item));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        List<T> due = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                while (true) {
+                    Scheduled<T> head = heap.peek();
+                    long wait = head == null ? Long.MAX_VALUE : head.deadlineMillis - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    earlier.await(Math.min(wait, TimeUnit.DAYS.toMillis(1)), TimeUnit.MILLISECONDS);
+                }
+                long now = System.currentTimeMillis();
+                while (!heap.isEmpty() && heap.peek().deadlineMillis <= now) {
+                    due.add(heap.poll().item);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            for (T item : due) {
+                try {
+                    release.accept(item);
+                } catch (RuntimeException e) {
+                    //An item that can't be released should not stop the others
+                    schedule(item, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+                }
+            }
+            due.clear();
+        }
+    }
+
+    private static class Scheduled<T> implements Comparable<Scheduled<T>> {
+        private final T item;
+        private final long deadlineMillis;
+        private final long sequence;
+
+        private Scheduled(T item, long deadlineMillis, long sequence) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Scheduled<T> other) {
+            int byDeadline = Long.compare(deadlineMillis, other.deadlineMillis);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+}
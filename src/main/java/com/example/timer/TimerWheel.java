@@ -0,0 +1,187 @@
+package com.example.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel.
+ * Entries are placed into a bucket by their deadline tick. The sweeper visits one bucket per tick
+ * and fires entries whose deadline has come, so expiry cost is proportional to the number of
+ * expiring entries (plus entries that wrap around the wheel if deadlines go beyond its horizon).
+ * Schedule and cancel are O(1) and lock a single bucket only.
+ * Entries fire within one tick after their deadline.
+ */
+public class TimerWheel<T> {
+    private static final int MAX_WHEEL_SIZE = 1 << 16;
+
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private final Bucket<T>[] buckets;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger();
+
+    //Last processed tick. Updated under the lock of its bucket
+    private volatile long processedTick;
+
+    /**
+     * @param tickMillis - wheel resolution
+     * @param horizonMillis - typical max delay. Wheel is sized so that entries
+     *                      within the horizon never wrap around
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long horizonMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick should be positive");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long ticks = Math.max(1, horizonMillis / tickMillis + 1);
+        int wheelSize = 1;
+        while (wheelSize < ticks && wheelSize < MAX_WHEEL_SIZE) {
+            wheelSize <<= 1;
+        }
+        buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket<>();
+        }
+        mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedule an item to fire after a delay
+     * @return entry that can be cancelled
+     */
+    public Entry<T> schedule(T item, long delayMillis) {
+        long deadlineNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        //Round up not to fire before the deadline
+        Entry<T> entry = new Entry<>(item, (deadlineNanos + tickNanos - 1) / tickNanos);
+        while (true) {
+            //Deadline could already be processed - put the entry to the next tick then
+            long tick = Math.max(entry.deadlineTick, processedTick + 1);
+            Bucket<T> bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                //Sweeper could pass this tick after it was read, retry then
+                if (processedTick < tick) {
+                    bucket.add(entry);
+                    size.incrementAndGet();
+                    return entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fire all entries up to the current tick.
+     * Consumer is called outside of bucket locks
+     * @return number of fired entries
+     */
+    public int expire(Consumer<T> consumer) {
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        List<T> expired = new ArrayList<>();
+        while (processedTick < now) {
+            long tick = processedTick + 1;
+            Bucket<T> bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                bucket.expire(tick, expired);
+                processedTick = tick;
+            }
+        }
+        size.addAndGet(-expired.size());
+        for (T item : expired) {
+            consumer.accept(item);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Number of scheduled entries
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Cancel an entry
+     * @return true if the entry was scheduled and didn't fire yet
+     */
+    public boolean cancel(Entry<T> entry) {
+        Bucket<T> bucket = entry.bucket;
+        if (bucket == null) {
+            return false;
+        }
+        synchronized (bucket) {
+            if (entry.bucket != bucket) {
+                return false;
+            }
+            bucket.remove(entry);
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Scheduled item. Can be cancelled before it fires
+     */
+    public static class Entry<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        //Changed under the bucket lock
+        private volatile Bucket<T> bucket;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getItem() {
+            return item;
+        }
+    }
+
+    /**
+     * Doubly linked list of entries
+     */
+    private static class Bucket<T> {
+        private Entry<T> head;
+
+        private void add(Entry<T> entry) {
+            entry.bucket = this;
+            entry.next = head;
+            if (head != null) {
+                head.prev = entry;
+            }
+            head = entry;
+        }
+
+        private void remove(Entry<T> entry) {
+            if (entry.prev != null) {
+                entry.prev.next = entry.next;
+            } else {
+                head = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.prev = entry.prev;
+            }
+            entry.bucket = null;
+            entry.prev = null;
+            entry.next = null;
+        }
+
+        private void expire(long tick, List<T> expired) {
+            Entry<T> entry = head;
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.deadlineTick <= tick) {
+                    remove(entry);
+                    expired.add(entry.item);
+                }
+                entry = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.*;
+import com.example.beans.Message;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncQueueTest {
+    private final String QUEUE_NAME = "AsyncQueueName";
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @Test
+    public void inMemoryWaitingPullTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(30000);
+        AsyncQueueService async = new InMemoryAsyncQueueService(service, scheduler);
+
+        CompletableFuture<Message> waiting = async.pull(QUEUE_NAME, 10, TimeUnit.SECONDS);
+        assertFalse("Pull should wait for a push", waiting.isDone());
+        async.push(QUEUE_NAME, new Message<>("pushed")).get();
+        assertThat(waiting.get(1, TimeUnit.SECONDS).getBody(), is("pushed"));
+        async.delete(QUEUE_NAME, waiting.get()).get();
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+
+        assertNull(async.pull(QUEUE_NAME, 50, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS));
+        async.push(QUEUE_NAME, new Message<>("after timeout")).get();
+        assertThat("Timed out waiter shouldn't take a message", service.messagesInQueue(QUEUE_NAME), is(1L));
+    }
+
+    @Test
+    public void pushDoesNotSpinOnWaitersTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(30000);
+        AsyncQueueService async = new InMemoryAsyncQueueService(service, scheduler);
+
+        CompletableFuture<Message> first = async.pull(QUEUE_NAME, 3, TimeUnit.SECONDS);
+        CompletableFuture<Message> second = async.pull(QUEUE_NAME, 3, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        service.push(QUEUE_NAME, new Message<>("pushed"));
+        assertTrue("Push shouldn't wait for waiters to time out",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+        //One waiter takes the message, the other one keeps waiting for the next push
+        assertTrue(first.isDone() != second.isDone());
+        CompletableFuture<Message> waiting = first.isDone() ? second : first;
+        service.push(QUEUE_NAME, new Message<>("next"));
+        assertThat(waiting.get(1, TimeUnit.SECONDS).getBody(), is("next"));
+    }
+
+    @Test
+    public void executorTest() throws Exception {
+        FileQueueService service = new FileQueueService(30000, "/tmp/async-file-queues");
+        service.clearMessages(QUEUE_NAME);
+        try (ExecutorAsyncQueueService async = new ExecutorAsyncQueueService(service, 2)) {
+            async.push(QUEUE_NAME, new Message<>("file")).get();
+            Message message = async.pull(QUEUE_NAME).get();
+            assertThat(message.getBody(), is("file"));
+            async.delete(QUEUE_NAME, message).get();
+            assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+        }
+    }
+
+    @Test
+    public void sqsTest() throws Exception {
+        AsyncQueueService async = new SqsAsyncQueueService(new FakeAsyncClient(), 30000);
+        async.push(QUEUE_NAME, new Message<>("remote")).get();
+        assertThat(async.pull(QUEUE_NAME, 1, TimeUnit.SECONDS).get().getBody(), is("remote"));
+        assertNull(async.pull(QUEUE_NAME).get());
+    }
+
+    /**
+     * Async client completing requests from another thread
+     */
+    private class FakeAsyncClient extends AbstractAmazonSQSAsync {
+        private final Deque<com.amazonaws.services.sqs.model.Message> messages = new ArrayDeque<>();
+
+        @Override
+        public GetQueueUrlResult getQueueUrl(String queueName) {
+            return new GetQueueUrlResult().withQueueUrl("https://sqs.local/" + queueName);
+        }
+
+        @Override
+        public Future<SendMessageResult> sendMessageAsync(SendMessageRequest request,
+                                                          AsyncHandler<SendMessageRequest, SendMessageResult> handler) {
+            return scheduler.submit(() -> {
+                String id = UUID.randomUUID().toString();
+                synchronized (messages) {
+                    messages.add(new com.amazonaws.services.sqs.model.Message()
+                            .withMessageId(id).withReceiptHandle(id).withBody(request.getMessageBody()));
+                }
+                SendMessageResult result = new SendMessageResult().withMessageId(id);
+                handler.onSuccess(request, result);
+                return result;
+            });
+        }
+
+        @Override
+        public Future<ReceiveMessageResult> receiveMessageAsync(ReceiveMessageRequest request,
+                                                                AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult> handler) {
+            return scheduler.submit(() -> {
+                ReceiveMessageResult result = new ReceiveMessageResult();
+                synchronized (messages) {
+                    if (!messages.isEmpty()) {
+                        result.withMessages(messages.poll());
+                    }
+                }
+                handler.onSuccess(request, result);
+                return result;
+            });
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+import com.example.beans.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@RunWith(Parameterized.class)
+public class BatchTest extends CommonBaseTest {
+
+    public BatchTest(QueueService service) {
+        super(service);
+    }
+
+    @Test
+    public void batchPushPullDeleteTest(){
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(new Message("msg" + i));
+        }
+        service.pushBatch(QUEUE_NAME, batch);
+        assertThat(getMessage("Batch wasn't pushed"), service.messagesInQueue(QUEUE_NAME), is(5L));
+
+        List<Message> first = service.pullBatch(QUEUE_NAME, 3);
+        assertThat(first.size(), is(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(getMessage("Batch order is broken"), first.get(i).getBody(), is("msg" + i));
+        }
+        List<Message> rest = service.pullBatch(QUEUE_NAME, 10);
+        assertThat(rest.size(), is(2));
+        assertThat(rest.get(0).getBody(), is("msg3"));
+        assertThat(service.pullBatch(QUEUE_NAME, 10).size(), is(0));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(5L));
+
+        service.deleteBatch(QUEUE_NAME, first);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(2L));
+        service.deleteBatch(QUEUE_NAME, rest);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+import com.example.beans.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class BlockingPullTest extends CommonBaseTest {
+
+    public BlockingPullTest(QueueService service) {
+        super(service);
+    }
+
+    @Test
+    public void pullWaitsForPushTest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Message> future = executor.submit(() -> service.pull(QUEUE_NAME, 10, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        long pushed = System.nanoTime();
+        service.push(QUEUE_NAME, new Message("msg"));
+
+        assertThat(getMessage("Message wasn't received"), future.get(5, TimeUnit.SECONDS).getBody(), is("msg"));
+        assertTrue(getMessage("Consumer wasn't woken up by push"),
+                System.nanoTime() - pushed < TimeUnit.MILLISECONDS.toNanos(500));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void pullTimesOutTest() {
+        long started = System.nanoTime();
+        assertNull(service.pull(QUEUE_NAME, 200, TimeUnit.MILLISECONDS));
+        assertTrue(getMessage("Pull returned before timeout"),
+                System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
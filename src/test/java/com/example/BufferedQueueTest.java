@@ -0,0 +1,172 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.error.BatchException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BufferedQueueTest {
+    private final String QUEUE_NAME = "BufferedQueueName";
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @Test
+    public void concurrentPushesAreBatchedTest() throws Exception {
+        CountingService counting = new CountingService(new InMemoryQueueService(30000));
+        BufferedQueueService service = new BufferedQueueService(counting, scheduler)
+                .withMaxLinger(50, TimeUnit.MILLISECONDS);
+        ExecutorService producers = Executors.newFixedThreadPool(20);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int number = i;
+            futures.add(producers.submit(() -> service.push(QUEUE_NAME, new Message<>(number))));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        producers.shutdown();
+
+        assertThat(counting.messagesInQueue(QUEUE_NAME), is(100L));
+        assertTrue("Pushes should be coalesced, batches: " + counting.pushBatches.get(),
+                counting.pushBatches.get() < 100 && counting.pushBatches.get() >= 10);
+    }
+
+    @Test
+    public void lingerFlushTest() throws Exception {
+        CountingService counting = new CountingService(new InMemoryQueueService(30000));
+        BufferedQueueService service = new BufferedQueueService(counting, scheduler)
+                .withMaxLinger(20, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> first = service.pushAsync(QUEUE_NAME, new Message<>("first"));
+        CompletableFuture<Void> second = service.pushAsync(QUEUE_NAME, new Message<>("second"));
+        second.get(1, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+        assertThat(counting.pushBatches.get(), is(1));
+
+        Message message = counting.pull(QUEUE_NAME);
+        service.deleteAsync(QUEUE_NAME, message).get(1, TimeUnit.SECONDS);
+        assertThat(counting.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat(counting.deleteBatches.get(), is(1));
+    }
+
+    @Test
+    public void prefetchTest() throws Exception {
+        CountingService counting = new CountingService(new InMemoryQueueService(30000));
+        BufferedQueueService service = new BufferedQueueService(counting, scheduler).withPrefetch(10);
+        for (int i = 0; i < 20; i++) {
+            counting.push(QUEUE_NAME, new Message<>(i));
+        }
+        Set<Object> bodies = new HashSet<>();
+        Message message;
+        while ((message = service.pull(QUEUE_NAME)) != null) {
+            bodies.add(message.getBody());
+            service.delete(QUEUE_NAME, message);
+        }
+        assertThat(bodies.size(), is(20));
+        assertThat("Two refills and a miss", counting.pullBatches.get(), is(3));
+        assertThat(counting.pendingMessages(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void stalePrefetchedMessagesAreDroppedTest() throws Exception {
+        InMemoryQueueService memory = new InMemoryQueueService(200);
+        BufferedQueueService service = new BufferedQueueService(memory, scheduler).withPrefetch(10);
+        memory.push(QUEUE_NAME, new Message<>("first"));
+        memory.push(QUEUE_NAME, new Message<>("second"));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("first"));
+
+        //The second message is buffered longer than a half of the visibility timeout
+        Thread.sleep(150);
+        assertNull(service.pull(QUEUE_NAME));
+        Thread.sleep(200);
+        Message redelivered = service.pull(QUEUE_NAME);
+        assertNotNull(redelivered);
+    }
+
+    @Test
+    public void closeReleasesPrefetchedTest() {
+        InMemoryQueueService memory = new InMemoryQueueService(30000);
+        BufferedQueueService service = new BufferedQueueService(memory, scheduler).withPrefetch(10);
+        for (int i = 0; i < 5; i++) {
+            memory.push(QUEUE_NAME, new Message<>(i));
+        }
+        service.pull(QUEUE_NAME);
+        service.close();
+        assertThat(memory.messagesInQueue(QUEUE_NAME), is(4L));
+        assertThat(memory.pendingMessages(QUEUE_NAME), is(1L));
+    }
+
+    @Test
+    public void failedEntryFailsOnlyItsCallerTest() throws Exception {
+        CountingService counting = new CountingService(new InMemoryQueueService(30000));
+        counting.rejectedBody = "bad";
+        BufferedQueueService service = new BufferedQueueService(counting, scheduler).withMaxBatchSize(3);
+        CompletableFuture<Void> first = service.pushAsync(QUEUE_NAME, new Message<>("first"));
+        CompletableFuture<Void> bad = service.pushAsync(QUEUE_NAME, new Message<>("bad"));
+        CompletableFuture<Void> last = service.pushAsync(QUEUE_NAME, new Message<>("last"));
+        first.get(5, TimeUnit.SECONDS);
+        last.get(5, TimeUnit.SECONDS);
+        try {
+            bad.get(5, TimeUnit.SECONDS);
+            fail("Rejected entry should fail its caller");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BatchException);
+        }
+        assertThat(counting.pushBatches.get(), is(1));
+        assertThat(counting.messagesInQueue(QUEUE_NAME), is(2L));
+    }
+
+    private static class CountingService extends ForwardingQueueService {
+        private final AtomicInteger pushBatches = new AtomicInteger();
+        private final AtomicInteger pullBatches = new AtomicInteger();
+        private final AtomicInteger deleteBatches = new AtomicInteger();
+        private Object rejectedBody;
+
+        private CountingService(QueueService delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void pushBatch(String queueName, List<Message> messages) {
+            pushBatches.incrementAndGet();
+            List<Message> accepted = new ArrayList<>();
+            List<Message> rejected = new ArrayList<>();
+            for (Message message : messages) {
+                (message.getBody().equals(rejectedBody) ? rejected : accepted).add(message);
+            }
+            super.pushBatch(queueName, accepted);
+            if (!rejected.isEmpty()) {
+                throw new BatchException("Rejected", rejected);
+            }
+        }
+
+        @Override
+        public List<Message> pullBatch(String queueName, int max) {
+            pullBatches.incrementAndGet();
+            return super.pullBatch(queueName, max);
+        }
+
+        @Override
+        public void deleteBatch(String queueName, List<Message> messages) {
+            deleteBatches.incrementAndGet();
+            super.deleteBatch(queueName, messages);
+        }
+    }
+}
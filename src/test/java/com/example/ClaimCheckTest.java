@@ -0,0 +1,199 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.blob.LocalBlobStore;
+import com.example.error.BatchException;
+import com.example.error.QueueException;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClaimCheckTest {
+
+    private final String BLOB_DIR = "/tmp/claim-check-test";
+    private final String QUEUE_NAME = "ClaimCheckQueue";
+    private final String LARGE_BODY = new String(new char[8 * 1024]).replace('\0', 'x');
+
+    private QueueService underlying;
+    private LocalBlobStore store;
+    private ClaimCheckQueueService service;
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtils.deleteDirectory(new File(BLOB_DIR));
+        underlying = new InMemoryQueueService(30000);
+        store = new LocalBlobStore(BLOB_DIR);
+        service = new ClaimCheckQueueService(underlying, store, 1024);
+    }
+
+    @Test
+    public void offloadTest() {
+        Message<String> large = new Message<>(LARGE_BODY);
+        large.getAttributes().put("kind", "large");
+        service.pushBatch(QUEUE_NAME, Arrays.asList(new Message<>("small"), large));
+        assertThat("Body of the original message shouldn't change", large.getBody(), is(LARGE_BODY));
+        assertThat(blobs().length, is(1));
+
+        List<Message> pulled = underlying.pullBatch(QUEUE_NAME, 2);
+        assertThat(pulled.get(0).getBody(), is("small"));
+        assertThat("Only a reference should be queued", pulled.get(1).getBody(), nullValue());
+        //Released messages go to the head of the queue
+        underlying.changeVisibility(QUEUE_NAME, pulled.get(1), 0, TimeUnit.SECONDS);
+        underlying.changeVisibility(QUEUE_NAME, pulled.get(0), 0, TimeUnit.SECONDS);
+
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("small"));
+        Message restored = service.pull(QUEUE_NAME);
+        assertThat(restored.getUuid(), is(large.getUuid()));
+        assertThat(restored.getBody(), is(LARGE_BODY));
+        assertThat(restored.getAttributes().get("kind"), is("large"));
+
+        service.delete(QUEUE_NAME, restored);
+        assertThat("Blob should be removed with the message", blobs().length, is(0));
+    }
+
+    @Test
+    public void bodyWithoutSerializerIsPassedThroughTest() {
+        Map<String, Integer> body = new HashMap<>();
+        body.put("count", 1);
+        service.push(QUEUE_NAME, new Message<>(body));
+        assertThat(blobs() == null ? 0 : blobs().length, is(0));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is(body));
+    }
+
+    @Test
+    public void missingBlobTest() {
+        service.push(QUEUE_NAME, new Message<>(LARGE_BODY));
+        service.push(QUEUE_NAME, new Message<>("small"));
+        for (File blob : blobs()) {
+            blob.delete();
+        }
+        try {
+            service.pull(QUEUE_NAME);
+            fail("Missing blob should be reported");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage().contains("is missing"));
+        }
+        assertThat("Broken message should stay in flight", underlying.pendingMessages(QUEUE_NAME), is(1L));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("small"));
+    }
+
+    @Test
+    public void reclaimTest() {
+        service.push(QUEUE_NAME, new Message<>(LARGE_BODY));
+        //Blob of a push interrupted before the message was queued
+        store.put(QUEUE_NAME, new byte[]{1});
+        assertThat(service.reclaimOrphans(QUEUE_NAME, 1, TimeUnit.HOURS), is(0));
+        age(new File(BLOB_DIR, QUEUE_NAME).listFiles());
+        assertThat("Only the orphan should be reclaimed", service.reclaimOrphans(QUEUE_NAME, 1, TimeUnit.HOURS), is(1));
+        assertThat("Blob of a queued message should be kept however old",
+                service.pull(QUEUE_NAME).getBody(), is(LARGE_BODY));
+
+        service.push(QUEUE_NAME, new Message<>(LARGE_BODY));
+        service.clearMessages(QUEUE_NAME);
+        assertTrue(blobs() == null || blobs().length == 0);
+    }
+
+    @Test
+    public void scheduledReclaimTest() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ClaimCheckQueueService reclaiming = new ClaimCheckQueueService(underlying, store, 1024, scheduler)
+                    .withOrphanReclaim(TimeUnit.HOURS.toMillis(1), 50, TimeUnit.MILLISECONDS);
+            reclaiming.push(QUEUE_NAME, new Message<>(LARGE_BODY));
+            store.put(QUEUE_NAME, new byte[]{1});
+            age(new File(BLOB_DIR, QUEUE_NAME).listFiles());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (blobs().length > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat("Orphan should be reclaimed without a call", blobs().length, is(1));
+            assertThat(reclaiming.pull(QUEUE_NAME).getBody(), is(LARGE_BODY));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedBatchEntriesReleaseTheirBlobsTest() {
+        FailingService failing = new FailingService(underlying);
+        ClaimCheckQueueService service = new ClaimCheckQueueService(failing, new LocalBlobStore(BLOB_DIR), 1024);
+        Message<String> accepted = new Message<>(LARGE_BODY);
+        Message<String> rejected = new Message<>(LARGE_BODY + "rejected");
+        failing.rejectedUuid = rejected.getUuid();
+        try {
+            service.pushBatch(QUEUE_NAME, Arrays.asList(accepted, rejected));
+            fail("Rejected entry should be reported");
+        } catch (BatchException e) {
+            assertThat("Failed entries should be the messages passed", e.getFailed(), is(Arrays.<Message>asList(rejected)));
+        }
+        assertThat("Blob of the pushed message should be kept", blobs().length, is(1));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is(LARGE_BODY));
+
+        failing.failure = new QueueException("Connection reset");
+        try {
+            service.pushBatch(QUEUE_NAME, Arrays.asList(new Message<>(LARGE_BODY), new Message<>(LARGE_BODY)));
+            fail("Failure should be passed to the caller");
+        } catch (QueueException e) {
+            assertThat(e.getMessage(), is("Connection reset"));
+        }
+        assertThat("Blobs should be kept, messages may have been pushed", blobs().length, is(3));
+    }
+
+    /**
+     * Blob files without pending markers
+     */
+    private File[] blobs() {
+        return new File(BLOB_DIR, QUEUE_NAME).listFiles((dir, name) -> !name.endsWith(".pending"));
+    }
+
+    private void age(File[] files) {
+        for (File file : files) {
+            file.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        }
+    }
+
+    /**
+     * Service rejecting a message of a batch or failing whole batches
+     */
+    private static class FailingService extends ForwardingQueueService {
+        private String rejectedUuid;
+        private RuntimeException failure;
+
+        private FailingService(QueueService delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void pushBatch(String queueName, List<Message> messages) {
+            if (failure != null) {
+                throw failure;
+            }
+            List<Message> accepted = new ArrayList<>();
+            List<Message> rejected = new ArrayList<>();
+            for (Message message : messages) {
+                (message.getUuid().equals(rejectedUuid) ? rejected : accepted).add(message);
+            }
+            super.pushBatch(queueName, accepted);
+            if (!rejected.isEmpty()) {
+                throw new BatchException("Rejected", rejected);
+            }
+        }
+    }
+}
@@ -21,7 +21,8 @@ public class CommonBaseTest {
     public static Collection getServices() {
         return Arrays.asList(new Object[][]{
                 {new InMemoryQueueService(300000)},
-                {new FileQueueService(30000, "/tmp/queues")}
+                {new FileQueueService(30000, "/tmp/queues")},
+                {new LogQueueService(30000, "/tmp/log-queues")}
         });
     }
 
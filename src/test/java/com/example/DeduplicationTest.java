@@ -0,0 +1,65 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.dedup.DeduplicationCache;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+
+@RunWith(Parameterized.class)
+public class DeduplicationTest extends CommonBaseTest {
+    private final String OTHER_QUEUE = "testOtherQueueName";
+
+    public DeduplicationTest(QueueService service) {
+        super(service);
+        ((BaseQueueService) service).withDeduplication(5, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void retriedPushIsDroppedTest() {
+        service.push(QUEUE_NAME, withId("first", "id-1"));
+        service.push(QUEUE_NAME, withId("retry", "id-1"));
+        service.push(QUEUE_NAME, new Message<>("no id"));
+        service.push(QUEUE_NAME, new Message<>("no id"));
+        assertThat(getMessage("Retry should be dropped"), service.messagesInQueue(QUEUE_NAME), is(3L));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("first"));
+    }
+
+    @Test
+    public void retriedBatchIsDroppedTest() {
+        service.pushBatch(QUEUE_NAME, Arrays.asList(withId("a", "id-a"), withId("b", "id-b"), withId("a", "id-a")));
+        service.pushBatch(QUEUE_NAME, Arrays.asList(withId("a", "id-a"), withId("b", "id-b")));
+        assertThat(getMessage("Duplicates within and across batches should be dropped"),
+                service.messagesInQueue(QUEUE_NAME), is(2L));
+    }
+
+    @Test
+    public void idsAreScopedByQueueTest() {
+        service.clearMessages(OTHER_QUEUE);
+        service.push(QUEUE_NAME, withId("first", "id-2"));
+        service.push(OTHER_QUEUE, withId("first", "id-2"));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(1L));
+        assertThat(service.messagesInQueue(OTHER_QUEUE), is(1L));
+    }
+
+    @Test
+    public void delayedPushIsDeliveredOnceTest() {
+        service.push(QUEUE_NAME, withId("late", "id-3"), 200, TimeUnit.MILLISECONDS);
+        service.push(QUEUE_NAME, withId("late", "id-3"), 200, TimeUnit.MILLISECONDS);
+        assertThat(service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS).getBody(), is("late"));
+        assertNull(getMessage("Retry of a delayed push should be dropped"), service.pull(QUEUE_NAME, 500, TimeUnit.MILLISECONDS));
+    }
+
+    private static Message withId(String body, String id) {
+        Message message = new Message<>(body);
+        message.getAttributes().put(DeduplicationCache.DEDUPLICATION_ID_KEY, id);
+        return message;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example;
+
+import com.example.beans.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+
+@RunWith(Parameterized.class)
+public class DelayedDeliveryTest extends CommonBaseTest {
+
+    public DelayedDeliveryTest(QueueService service) {
+        super(service);
+    }
+
+    @Test
+    public void delayedPushTest() {
+        service.push(QUEUE_NAME, new Message<>("late"), 300, TimeUnit.MILLISECONDS);
+        service.push(QUEUE_NAME, new Message<>("now"));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("now"));
+        assertNull(getMessage("Delayed message shouldn't be visible yet"), service.pull(QUEUE_NAME));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+
+        Message message = service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS);
+        assertThat(getMessage("Delayed message should be delivered"), message.getBody(), is("late"));
+    }
+
+    @Test
+    public void deliverAtOrderTest() {
+        long now = System.currentTimeMillis();
+        service.pushAt(QUEUE_NAME, new Message<>("second"), now + 200);
+        service.pushAt(QUEUE_NAME, new Message<>("first"), now + 100);
+        assertThat(service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS).getBody(), is("first"));
+        assertThat(service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS).getBody(), is("second"));
+    }
+
+    @Test
+    public void clearDropsDelayedTest() throws InterruptedException {
+        service.push(QUEUE_NAME, new Message<>("dropped"), 100, TimeUnit.MILLISECONDS);
+        service.clearMessages(QUEUE_NAME);
+        Thread.sleep(300);
+        assertNull(service.pull(QUEUE_NAME));
+    }
+}
@@ -0,0 +1,245 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.dedup.DeduplicationCache;
+import com.example.error.QueueException;
+import com.example.lock.QueueLock;
+import com.example.utils.Order;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileQueueTest {
+
+    private final String BASE_DIR = "/tmp/file-queues-test";
+    private final String QUEUE_NAME = "FileQueueName";
+
+    private FileQueueService service;
+
+    @Before
+    public void setUp(){
+        service = new FileQueueService(30000, BASE_DIR);
+        service.clearMessages(QUEUE_NAME);
+    }
+
+    @Test
+    public void staleLockDirectoryTest() {
+        //Lock directory left by a crashed process of mkdir based locking
+        File staleLock = new File(BASE_DIR + File.separator + "StaleQueue" + File.separator + ".lock");
+        staleLock.mkdirs();
+
+        service.push("StaleQueue", new Message("msg"));
+        assertThat(service.pull("StaleQueue").getBody(), is("msg"));
+        assertTrue("Lock directory wasn't replaced with a lock file", staleLock.isFile());
+        service.clearMessages("StaleQueue");
+    }
+
+    @Test
+    public void concurrentPullDeleteTest() throws InterruptedException {
+        final int limit = 200;
+        final long acquired = service.getLockStats(QUEUE_NAME).getAcquisitions();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < limit; i++) {
+            executor.execute(() -> {
+                service.push(QUEUE_NAME, new Message("msg"));
+                service.delete(QUEUE_NAME, service.pull(QUEUE_NAME));
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat(service.getLockStats(QUEUE_NAME).getAcquisitions(), is(acquired + limit * 3));
+        assertTrue("Lock waits should be far below the old polling interval",
+                service.getLockStats(QUEUE_NAME).getMaxWaitTime(TimeUnit.MILLISECONDS) < 1000);
+    }
+
+    @Test
+    public void servicesOfOneProcessShareLocksTest() throws InterruptedException {
+        final int limit = 200;
+        FileQueueService other = new FileQueueService(30000, BASE_DIR);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < limit; i++) {
+            executor.execute(() -> service.push(QUEUE_NAME, new Message("msg")));
+            executor.execute(() -> other.push(QUEUE_NAME, new Message("msg")));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        //Counters of a service are refreshed once it takes the lock, pulls see writes of the other one
+        assertThat(service.pullBatch(QUEUE_NAME, 3 * limit).size(), is(2 * limit));
+        assertNull(other.pull(QUEUE_NAME));
+    }
+
+    @Test
+    public void failedLockForgetsDeduplicationIdTest() throws InterruptedException {
+        FileQueueService deduplicating = new FileQueueService(30000, BASE_DIR).withDeduplication(5, TimeUnit.MINUTES);
+        Message message = new Message("msg");
+        message.getAttributes().put(DeduplicationCache.DEDUPLICATION_ID_KEY, "id");
+        //Interrupted thread fails to take the lock held by another one
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            QueueLock lock = QueueLock.forFile(queueDir(QUEUE_NAME, ".lock"));
+            lock.lock();
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        holder.start();
+        locked.await();
+        Thread.currentThread().interrupt();
+        try {
+            deduplicating.push(QUEUE_NAME, message);
+            fail("Push should fail to lock");
+        } catch (QueueException e) {
+            assertThat(e.getMessage(), is("Thread was interrupted"));
+            Thread.interrupted();
+        }
+        release.countDown();
+        holder.join();
+        deduplicating.push(QUEUE_NAME, message);
+        assertThat("Retry should be accepted", deduplicating.messagesInQueue(QUEUE_NAME), is(1L));
+    }
+
+    @Test
+    public void delayedMessagesArePersistedTest() {
+        service.push(QUEUE_NAME, new Message("delayed"), 300, TimeUnit.MILLISECONDS);
+        File delayedDir = new File(BASE_DIR + File.separator + QUEUE_NAME + File.separator + "delayed");
+        assertThat("Delayed message should be kept in a delivery second directory", delayedDir.list().length, is(1));
+        assertNull(service.pull(QUEUE_NAME));
+        assertThat(service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS).getBody(), is("delayed"));
+        assertThat("Delivered second directory should be removed", delayedDir.list().length, is(0));
+    }
+
+    @Test
+    public void unparsableDelayedNamesAreSkippedTest() {
+        File delayedDir = new File(BASE_DIR + File.separator + QUEUE_NAME + File.separator + "delayed");
+        new File(delayedDir, "backup").mkdirs();
+        service.push(QUEUE_NAME, new Message("delayed"), 200, TimeUnit.MILLISECONDS);
+        File bucket = delayedDir.listFiles((dir, name) -> !name.equals("backup"))[0];
+        new File(bucket, "notes").mkdir();
+
+        Message message = service.pull(QUEUE_NAME, 5, TimeUnit.SECONDS);
+        assertThat("Sweep shouldn't stop on foreign names", message.getBody(), is("delayed"));
+        assertTrue(new File(bucket, "notes").exists());
+    }
+
+    @Test
+    public void journalRecoveryTest() {
+        for (int i = 0; i < 3; i++) {
+            service.push(QUEUE_NAME, new Message("msg" + i));
+        }
+        Message inFlight = service.pull(QUEUE_NAME);
+        service.changeVisibility(QUEUE_NAME, inFlight, 10, TimeUnit.MINUTES);
+
+        //Reopen the same directory - state and deadlines are replayed from the journal
+        FileQueueService reopened = new FileQueueService(30000, BASE_DIR);
+        assertThat(reopened.messagesInQueue(QUEUE_NAME), is(2L));
+        assertThat(reopened.pendingMessages(QUEUE_NAME), is(1L));
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is("msg1"));
+        reopened.delete(QUEUE_NAME, inFlight);
+        assertThat(reopened.pendingMessages(QUEUE_NAME), is(1L));
+        assertThat("Pulled files should stay in place", queueDir(QUEUE_NAME, "messages").list().length, is(2));
+        assertFalse(queueDir(QUEUE_NAME, "pending").exists());
+    }
+
+    @Test
+    public void expiredAtDeadlineTest() {
+        String queueName = "FileQueueDeadlines";
+        FileQueueService shortTimeout = new FileQueueService(200, BASE_DIR);
+        shortTimeout.clearMessages(queueName);
+        shortTimeout.push(queueName, new Message("msg"));
+        assertThat(shortTimeout.pull(queueName).getBody(), is("msg"));
+
+        long started = System.currentTimeMillis();
+        Message redelivered = shortTimeout.pull(queueName, 5, TimeUnit.SECONDS);
+        assertThat(RedrivePolicy.getReceiveCount(redelivered), is(2));
+        assertTrue("Message should be redelivered shortly after its deadline",
+                System.currentTimeMillis() - started < 1000);
+        shortTimeout.delete(queueName, redelivered);
+        assertThat(shortTimeout.pendingMessages(queueName), is(0L));
+    }
+
+    @Test
+    public void legacyLayoutIsImportedTest() {
+        String queueName = "FileQueueLegacy";
+        service.clearMessages(queueName);
+        Message pulled = new Message("pulled");
+        service.push(queueName, pulled);
+        service.push(queueName, new Message("visible"));
+
+        //Layout written before journaling - a pulled file in pending directory with its receive count in the name
+        File file = queueDir(queueName, "messages").listFiles((dir, name) -> name.endsWith(pulled.getUuid()))[0];
+        String time = file.getName().substring(0, file.getName().length() - pulled.getUuid().length());
+        File pendingDir = queueDir(queueName, "pending");
+        pendingDir.mkdirs();
+        assertTrue(file.renameTo(new File(pendingDir, time + ".2." + pulled.getUuid())));
+        for (File journal : new File(BASE_DIR, queueName).listFiles((dir, name) -> name.startsWith("journal."))) {
+            journal.delete();
+        }
+
+        FileQueueService reopened = new FileQueueService(30000, BASE_DIR);
+        assertThat(reopened.messagesInQueue(queueName), is(2L));
+        Message message = reopened.pull(queueName);
+        assertThat(message.getBody(), is("pulled"));
+        assertThat(RedrivePolicy.getReceiveCount(message), is(3));
+        assertThat(reopened.pull(queueName).getBody(), is("visible"));
+        assertFalse("Pending directory should be imported", pendingDir.exists());
+        reopened.clearMessages(queueName);
+    }
+
+    @Test
+    public void corruptFileIsQuarantinedTest() throws Exception {
+        service.push(QUEUE_NAME, new Message("corrupt"));
+        File[] files = queueDir(QUEUE_NAME, "messages").listFiles();
+        Files.write(files[0].toPath(), new byte[]{42, 42, 42});
+        service.push(QUEUE_NAME, new Message("first"));
+        service.push(QUEUE_NAME, new Message("second"));
+
+        List<Message> messages = service.pullBatch(QUEUE_NAME, 2);
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0).getBody(), is("first"));
+        assertThat(messages.get(1).getBody(), is("second"));
+        assertThat(queueDir(QUEUE_NAME, "corrupt").list(), is(new String[]{files[0].getName()}));
+        assertNull(service.pull(QUEUE_NAME));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void customBodyClassTest() {
+        try {
+            service.push(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+            fail("Class out of the allow list should be rejected on push");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not allowed"));
+        }
+        service.withAllowedClasses("com.example.utils.*");
+        service.push(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is(new Order("o-1", 3)));
+    }
+
+    private File queueDir(String queueName, String dir) {
+        return new File(BASE_DIR + File.separator + queueName + File.separator + dir);
+    }
+}
@@ -1,18 +1,26 @@
 package com.example;
 
 import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.error.QueueException;
+import com.example.memory.OverflowPolicy;
 import com.example.utils.Task;
 import org.junit.Test;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by azee on 24.12.16.
@@ -76,4 +84,115 @@ public class InMemoryQueueTest {
         assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
         assertThat(service.pull(QUEUE_NAME).getBody(), is("Message1"));
     }
+
+    @Test
+    public void preciseRedeliveryTest() throws InterruptedException {
+        QueueService service = new InMemoryQueueService(200, 10);
+        service.push(QUEUE_NAME, new Message("Message1"));
+        long pulled = System.currentTimeMillis();
+        service.pull(QUEUE_NAME);
+
+        Message message = service.pull(QUEUE_NAME, 2000, TimeUnit.MILLISECONDS);
+        long redelivered = System.currentTimeMillis() - pulled;
+        assertThat(message.getBody(), is("Message1"));
+        assertTrue("Message was redelivered before timeout", redelivered >= 200);
+        assertTrue("Message was redelivered too late: " + redelivered, redelivered < 390);
+    }
+
+    @Test
+    public void heartbeatTest() throws InterruptedException {
+        QueueService service = new InMemoryQueueService(100, 10);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        service.push(QUEUE_NAME, new Message("Message1"));
+        Message message = service.pull(QUEUE_NAME);
+
+        try (VisibilityHeartbeat heartbeat = VisibilityHeartbeat.start(service, scheduler, QUEUE_NAME, message, 100, TimeUnit.MILLISECONDS)) {
+            assertNull("Message was redelivered while heartbeat was running", service.pull(QUEUE_NAME, 400, TimeUnit.MILLISECONDS));
+            assertTrue(heartbeat.isActive());
+        }
+        assertThat(service.pull(QUEUE_NAME, 1000, TimeUnit.MILLISECONDS).getBody(), is("Message1"));
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void perQueuePendingsTest() {
+        QueueService service = new InMemoryQueueService(30000);
+        service.push(QUEUE_NAME, new Message("Message1"));
+        service.push("OtherQueue", new Message("Message2"));
+        Message message = service.pull(QUEUE_NAME);
+        service.pull("OtherQueue");
+
+        assertThat(service.pendingMessages(QUEUE_NAME), is(1L));
+        assertThat(service.pendingMessages("OtherQueue"), is(1L));
+
+        //A copy of a message (e.g. deserialized by a consumer) is matched by uuid
+        Message copy = new Message(message.getBody()).withUuid(message.getUuid());
+        service.delete(QUEUE_NAME, copy);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat(service.pendingMessages("OtherQueue"), is(1L));
+    }
+
+    @Test(expected = QueueException.class)
+    public void boundedRejectTest() {
+        QueueService service = new InMemoryQueueService(30000, 2, OverflowPolicy.REJECT);
+        service.push(QUEUE_NAME, new Message("Message1"));
+        service.push(QUEUE_NAME, new Message("Message2"));
+        service.push(QUEUE_NAME, new Message("Message3"));
+    }
+
+    @Test
+    public void exactCapacityTest() {
+        QueueService service = new InMemoryQueueService(30000, 3, OverflowPolicy.REJECT);
+        for (int i = 0; i < 3; i++) {
+            service.push(QUEUE_NAME, new Message("Message" + i));
+        }
+        try {
+            service.push(QUEUE_NAME, new Message("Message3"));
+            fail("Capacity shouldn't be rounded up");
+        } catch (QueueException e) {
+            assertThat(e.getMessage(), is("Queue is full, capacity [3]"));
+        }
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(3L));
+    }
+
+    @Test
+    public void boundedDropOldestTest() {
+        QueueService service = new InMemoryQueueService(30000, 2, OverflowPolicy.DROP_OLDEST);
+        service.push(QUEUE_NAME, new Message("Message1"));
+        service.push(QUEUE_NAME, new Message("Message2"));
+        service.push(QUEUE_NAME, new Message("Message3"));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(2L));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("Message2"));
+    }
+
+    @Test
+    public void boundedBlockTest() throws Exception {
+        QueueService service = new InMemoryQueueService(30000, 2, OverflowPolicy.BLOCK);
+        service.push(QUEUE_NAME, new Message("Message0"));
+        service.push(QUEUE_NAME, new Message("Message1"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> producer = executor.submit(() -> service.push(QUEUE_NAME, new Message("Message2")));
+        Thread.sleep(100);
+        assertFalse("Push to a full queue should block", producer.isDone());
+
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("Message0"));
+        producer.get(5, TimeUnit.SECONDS);
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("Message1"));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("Message2"));
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void timedOutMessageIsDeadLetteredTest() throws Exception {
+        QueueService service = new InMemoryQueueService(50)
+                .withRedrivePolicy(QUEUE_NAME, new RedrivePolicy("InmemDeadLetterQueue", 2));
+        service.push(QUEUE_NAME, new Message("poison"));
+        assertNotNull(service.pull(QUEUE_NAME));
+        assertNotNull(service.pull(QUEUE_NAME, 1, TimeUnit.SECONDS));
+
+        Message deadLetter = service.pull("InmemDeadLetterQueue", 1, TimeUnit.SECONDS);
+        assertThat(deadLetter.getBody(), is("poison"));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
 }
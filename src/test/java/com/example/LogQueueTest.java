@@ -0,0 +1,158 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.codec.BinaryMessageCodec;
+import com.example.error.QueueException;
+import com.example.log.IoMode;
+import com.example.log.LogConfig;
+import com.example.log.SyncPolicy;
+import com.example.utils.Order;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogQueueTest {
+
+    private final String BASE_DIR = "/tmp/log-queues-test";
+    private final String QUEUE_NAME = "LogQueueName";
+
+    @Before
+    public void setUp(){
+        new LogQueueService(30000, BASE_DIR).clearMessages(QUEUE_NAME);
+    }
+
+    @Test
+    public void segmentsRolloverAndCompactionTest() {
+        QueueService service = new LogQueueService(30000, BASE_DIR, 1024);
+        for (int i = 0; i < 100; i++) {
+            service.push(QUEUE_NAME, new Message("msg" + i));
+        }
+        assertTrue("Log wasn't rolled over", segmentFiles().length > 1);
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(100L));
+
+        for (int i = 0; i < 100; i++) {
+            Message message = service.pull(QUEUE_NAME);
+            assertThat(message.getBody(), is("msg" + i));
+            service.delete(QUEUE_NAME, message);
+        }
+        assertNull(service.pull(QUEUE_NAME));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat("Consumed segments weren't removed", segmentFiles().length, is(1));
+    }
+
+    @Test
+    public void recoveryTest() {
+        QueueService service = new LogQueueService(30000, BASE_DIR, 1024);
+        for (int i = 0; i < 3; i++) {
+            service.push(QUEUE_NAME, new Message("msg" + i));
+        }
+        service.delete(QUEUE_NAME, service.pull(QUEUE_NAME));
+        service.pull(QUEUE_NAME);
+
+        //Reopen the same directory - unacknowledged message goes first
+        QueueService reopened = new LogQueueService(30000, BASE_DIR, 1024);
+        assertThat(reopened.messagesInQueue(QUEUE_NAME), is(2L));
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is("msg1"));
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is("msg2"));
+        assertNull(reopened.pull(QUEUE_NAME));
+    }
+
+    @Test
+    public void mappedSegmentsTest() {
+        LogConfig config = new LogConfig().withSegmentSize(4096).withIoMode(IoMode.MAPPED).withSyncPolicy(SyncPolicy.always());
+        QueueService service = new LogQueueService(30000, BASE_DIR, config);
+        for (int i = 0; i < 100; i++) {
+            service.push(QUEUE_NAME, new Message("msg" + i));
+        }
+        assertTrue("Log wasn't rolled over", segmentFiles().length > 1);
+        for (int i = 0; i < 50; i++) {
+            Message message = service.pull(QUEUE_NAME);
+            assertThat(message.getBody(), is("msg" + i));
+            service.delete(QUEUE_NAME, message);
+        }
+
+        //Mapped segments are zero padded and can be read back through channels
+        QueueService reopened = new LogQueueService(30000, BASE_DIR,
+                new LogConfig().withSegmentSize(4096).withSyncPolicy(SyncPolicy.group(10, 10)));
+        assertThat(reopened.messagesInQueue(QUEUE_NAME), is(50L));
+        for (int i = 50; i < 100; i++) {
+            assertThat(reopened.pull(QUEUE_NAME).getBody(), is("msg" + i));
+        }
+        assertNull(reopened.pull(QUEUE_NAME));
+    }
+
+    @Test
+    public void perQueueCompressionTest() {
+        BinaryMessageCodec compressing = new BinaryMessageCodec().withCompression(512);
+        QueueService service = new LogQueueService(30000, BASE_DIR).withCodec(QUEUE_NAME, compressing);
+        String body = new String(new char[16 * 1024]).replace('\0', 'x');
+        service.push(QUEUE_NAME, new Message<>(body));
+        assertThat(compressing.getStats().getCompressed(), is(1L));
+        assertTrue("Segment should hold compressed record", segmentFiles()[0].length() < 1024);
+
+        //Default codec of another service decodes compressed records
+        QueueService reopened = new LogQueueService(30000, BASE_DIR);
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is(body));
+    }
+
+    private File[] segmentFiles() {
+        return new File(BASE_DIR + File.separator + QUEUE_NAME).listFiles((dir, name) -> name.endsWith(".log"));
+    }
+
+    @Test
+    public void customBodyClassTest() {
+        LogQueueService service = new LogQueueService(30000, BASE_DIR);
+        try {
+            service.push(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+            fail("Class out of the allow list should be rejected on push");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not allowed"));
+        }
+        service.withAllowedClasses("com.example.utils.*");
+        service.push(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is(new Order("o-1", 3)));
+    }
+
+    @Test
+    public void undecodableRecordIsQuarantinedTest() {
+        LogQueueService service = new LogQueueService(30000, BASE_DIR).withAllowedClasses("com.example.utils.*");
+        service.push(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+        service.push(QUEUE_NAME, new Message<>("after"));
+        //Records of a class that is no longer allowed can't be decoded
+        service.withCodec(BinaryMessageCodec.withStandardClasses());
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("after"));
+        assertNull(service.pull(QUEUE_NAME));
+        File[] corrupt = new File(BASE_DIR + File.separator + QUEUE_NAME, "corrupt").listFiles();
+        assertThat(corrupt.length, is(1));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void closeTest() {
+        LogQueueService service = new LogQueueService(30000, BASE_DIR,
+                new LogConfig().withSyncPolicy(SyncPolicy.group(10, 10)));
+        service.push(QUEUE_NAME, new Message<>("first"));
+        service.push(QUEUE_NAME, new Message<>("second"));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("first"));
+        //Flusher doesn't keep the JVM alive
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("log-queue-flusher")) {
+                assertTrue(thread.isDaemon());
+            }
+        }
+        service.close();
+
+        //In flight message is redelivered from the closed log
+        LogQueueService reopened = new LogQueueService(30000, BASE_DIR);
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is("first"));
+        assertThat(reopened.pull(QUEUE_NAME).getBody(), is("second"));
+        reopened.close();
+    }
+}
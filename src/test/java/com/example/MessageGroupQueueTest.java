@@ -0,0 +1,194 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.codec.BinaryMessageCodec;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MessageGroupQueueTest {
+
+    private final String QUEUE_NAME = "GroupQueueName";
+    private final String OTHER_QUEUE_NAME = "OtherGroupQueueName";
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void oneInFlightPerGroupTest() {
+        MessageGroupQueueService service = new MessageGroupQueueService(new InMemoryQueueService(30000), scheduler);
+        service.push(QUEUE_NAME, grouped("a", "a1"));
+        service.push(QUEUE_NAME, grouped("a", "a2"));
+        service.push(QUEUE_NAME, grouped("b", "b1"));
+        service.push(QUEUE_NAME, grouped("a", "a3"));
+        service.push(QUEUE_NAME, grouped("b", "b2"));
+        service.push(QUEUE_NAME, new Message("free"));
+
+        Message a1 = service.pull(QUEUE_NAME);
+        assertThat(a1.getBody(), is("a1"));
+        Message b1 = service.pull(QUEUE_NAME);
+        assertThat(b1.getBody(), is("b1"));
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("free"));
+        assertNull(service.pull(QUEUE_NAME));
+        assertThat(service.getParked(QUEUE_NAME), is(3));
+
+        service.delete(QUEUE_NAME, a1);
+        Message a2 = service.pull(QUEUE_NAME);
+        assertThat(a2.getBody(), is("a2"));
+        service.delete(QUEUE_NAME, b1);
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("b2"));
+        assertNull(service.pull(QUEUE_NAME));
+        service.delete(QUEUE_NAME, a2);
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("a3"));
+        assertThat(service.getParked(QUEUE_NAME), is(0));
+    }
+
+    @Test
+    public void returnedMessageGoesFirstTest() {
+        MessageGroupQueueService service = new MessageGroupQueueService(new InMemoryQueueService(30000), scheduler);
+        service.push(QUEUE_NAME, grouped("a", "a1"));
+        service.push(QUEUE_NAME, grouped("a", "a2"));
+
+        Message a1 = service.pull(QUEUE_NAME);
+        assertNull(service.pull(QUEUE_NAME));
+        service.changeVisibility(QUEUE_NAME, a1, 0, TimeUnit.SECONDS);
+        a1 = service.pull(QUEUE_NAME);
+        assertThat(a1.getBody(), is("a1"));
+        service.delete(QUEUE_NAME, a1);
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("a2"));
+    }
+
+    @Test
+    public void parkedMessagesStayInFlightTest() throws InterruptedException {
+        InMemoryQueueService queue = new InMemoryQueueService(200);
+        MessageGroupQueueService service = new MessageGroupQueueService(queue, scheduler);
+        service.push(QUEUE_NAME, grouped("a", "a1"));
+        service.push(QUEUE_NAME, grouped("a", "a2"));
+        Message a1 = service.pull(QUEUE_NAME);
+        assertNull(service.pull(QUEUE_NAME));
+
+        //Parked message outlives several visibility timeouts
+        for (int i = 0; i < 6; i++) {
+            service.changeVisibility(QUEUE_NAME, a1, 200, TimeUnit.MILLISECONDS);
+            Thread.sleep(100);
+        }
+        assertThat(queue.messagesInQueue(QUEUE_NAME), is(0L));
+        service.delete(QUEUE_NAME, a1);
+        assertThat(service.pull(QUEUE_NAME).getBody(), is("a2"));
+        service.close();
+    }
+
+    @Test
+    public void groupsAreConsumedInParallelTest() throws InterruptedException {
+        MessageGroupQueueService service = new MessageGroupQueueService(new InMemoryQueueService(30000), scheduler);
+        final int groups = 5;
+        final int perGroup = 40;
+        for (int i = 0; i < perGroup; i++) {
+            for (int group = 0; group < groups; group++) {
+                service.push(QUEUE_NAME, grouped("g" + group, String.valueOf(i)));
+            }
+        }
+        Map<String, AtomicInteger> next = new ConcurrentHashMap<>();
+        Set<String> inFlight = ConcurrentHashMap.newKeySet();
+        AtomicInteger violations = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int consumer = 0; consumer < 4; consumer++) {
+            executor.execute(() -> {
+                Message message;
+                while ((message = service.pull(QUEUE_NAME, 200, TimeUnit.MILLISECONDS)) != null) {
+                    String group = message.getAttributes().get(MessageGroupQueueService.GROUP_KEY).toString();
+                    if (!inFlight.add(group)) {
+                        violations.incrementAndGet();
+                    }
+                    int expected = next.computeIfAbsent(group, key -> new AtomicInteger()).getAndIncrement();
+                    if (Integer.parseInt(message.getBody().toString()) != expected) {
+                        violations.incrementAndGet();
+                    }
+                    inFlight.remove(group);
+                    service.delete(QUEUE_NAME, message);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertThat(violations.get(), is(0));
+        for (int group = 0; group < groups; group++) {
+            assertThat(next.get("g" + group).get(), is(perGroup));
+        }
+    }
+
+    @Test
+    public void contentBasedDeduplicationTest() {
+        InMemoryQueueService queue = new InMemoryQueueService(30000);
+        MessageGroupQueueService service = new MessageGroupQueueService(queue, scheduler)
+                .withContentBasedDeduplication(5, TimeUnit.MINUTES);
+        service.push(QUEUE_NAME, grouped("a", "same"));
+        service.push(QUEUE_NAME, grouped("a", "same"));
+        service.pushBatch(QUEUE_NAME, Arrays.asList(grouped("a", "same"), grouped("a", "other")));
+        assertThat(queue.messagesInQueue(QUEUE_NAME), is(2L));
+
+        //Same body in another queue is not a duplicate
+        service.push(OTHER_QUEUE_NAME, grouped("a", "same"));
+        assertThat(queue.messagesInQueue(OTHER_QUEUE_NAME), is(1L));
+    }
+
+    @Test
+    public void customBodiesAreHashedByDefaultTest() {
+        InMemoryQueueService queue = new InMemoryQueueService(30000);
+        MessageGroupQueueService service = new MessageGroupQueueService(queue, scheduler)
+                .withContentBasedDeduplication(5, TimeUnit.MINUTES);
+        service.push(QUEUE_NAME, new Message<>(new com.example.utils.Order("o-1", 3)));
+        service.push(QUEUE_NAME, new Message<>(new com.example.utils.Order("o-1", 3)));
+        service.push(QUEUE_NAME, new Message<>(new com.example.utils.Order("o-2", 3)));
+        Map<String, Object> body = new HashMap<>();
+        body.put("id", "o-1");
+        service.push(QUEUE_NAME, new Message<>(body));
+        service.push(QUEUE_NAME, new Message<>(new HashMap<>(body)));
+        assertThat(queue.messagesInQueue(QUEUE_NAME), is(3L));
+    }
+
+    @Test
+    public void encodedBodiesAreHashedTest() {
+        InMemoryQueueService queue = new InMemoryQueueService(30000);
+        MessageGroupQueueService service = new MessageGroupQueueService(queue, scheduler)
+                .withContentBasedDeduplication(5, TimeUnit.MINUTES, new BinaryMessageCodec().withJavaSerialization("com.example.**"));
+        //Bodies have identity toString, equal state gives equal encoded bytes
+        service.push(QUEUE_NAME, new Message<>(new Order(1)));
+        service.push(QUEUE_NAME, new Message<>(new Order(1)));
+        service.push(QUEUE_NAME, new Message<>(new Order(2)));
+        assertThat(queue.messagesInQueue(QUEUE_NAME), is(2L));
+    }
+
+    private static class Order implements Serializable {
+        private final int id;
+
+        private Order(int id) {
+            this.id = id;
+        }
+    }
+
+    private static Message grouped(String group, String body) {
+        Message message = new Message(body);
+        message.getAttributes().put(MessageGroupQueueService.GROUP_KEY, group);
+        return message;
+    }
+}
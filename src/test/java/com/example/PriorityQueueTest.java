@@ -0,0 +1,83 @@
+package com.example;
+
+import com.example.beans.Message;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@RunWith(Parameterized.class)
+public class PriorityQueueTest extends CommonBaseTest {
+    private final PriorityQueueService priorities;
+
+    public PriorityQueueTest(QueueService service) {
+        super(service);
+        priorities = new PriorityQueueService(service, 3);
+        priorities.clearMessages(QUEUE_NAME);
+    }
+
+    @Test
+    public void strictPriorityTest() {
+        for (int i = 0; i < 5; i++) {
+            priorities.push(QUEUE_NAME, new Message<>("bulk"));
+        }
+        priorities.push(QUEUE_NAME, message("normal", 1));
+        priorities.push(QUEUE_NAME, message("urgent", 0));
+
+        assertThat(priorities.messagesInQueue(QUEUE_NAME), is(7L));
+        assertThat(getMessage("Lane depth"), priorities.messagesInQueue(QUEUE_NAME, 2), is(5L));
+        Message urgent = priorities.pull(QUEUE_NAME);
+        assertThat(getMessage("Urgent message should go first"), urgent.getBody(), is("urgent"));
+        assertThat(priorities.pendingMessages(QUEUE_NAME, 0), is(1L));
+        priorities.delete(QUEUE_NAME, urgent);
+        assertThat(priorities.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat(priorities.pull(QUEUE_NAME).getBody(), is("normal"));
+        assertThat(priorities.pull(QUEUE_NAME).getBody(), is("bulk"));
+    }
+
+    @Test
+    public void weightedTest() {
+        priorities.withWeights(6, 3, 1);
+        for (int i = 0; i < 20; i++) {
+            priorities.push(QUEUE_NAME, message(0, 0));
+            priorities.push(QUEUE_NAME, message(1, 1));
+            priorities.push(QUEUE_NAME, message(2, 2));
+        }
+        int[] pulled = new int[3];
+        for (int i = 0; i < 10; i++) {
+            pulled[(Integer) priorities.pull(QUEUE_NAME).getBody()]++;
+        }
+        assertThat(getMessage("Pulls should follow weights"), pulled, is(new int[]{6, 3, 1}));
+
+        List<Message> batch = priorities.pullBatch(QUEUE_NAME, 10);
+        pulled = new int[3];
+        for (Message message : batch) {
+            pulled[(Integer) message.getBody()]++;
+        }
+        assertThat(getMessage("Batch should follow weights"), pulled, is(new int[]{6, 3, 1}));
+        priorities.deleteBatch(QUEUE_NAME, batch);
+        assertThat(priorities.pendingMessages(QUEUE_NAME), is(10L));
+    }
+
+    @Test
+    public void waitForAnyLaneTest() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.schedule(() -> priorities.push(QUEUE_NAME, message("late", 1)), 100, TimeUnit.MILLISECONDS);
+        Message message = priorities.pull(QUEUE_NAME, 5, TimeUnit.SECONDS);
+        assertThat(getMessage("Waiting pull should get a pushed message"), message.getBody(), is("late"));
+        scheduler.shutdown();
+    }
+
+    private static Message message(Object body, int priority) {
+        Message message = new Message<>(body);
+        message.getAttributes().put(PriorityQueueService.PRIORITY_KEY, priority);
+        return message;
+    }
+}
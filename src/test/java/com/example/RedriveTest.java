@@ -0,0 +1,42 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@RunWith(Parameterized.class)
+public class RedriveTest extends CommonBaseTest {
+    private final String DEAD_LETTER_QUEUE = "testDeadLetterQueue";
+
+    public RedriveTest(QueueService service) {
+        super(service);
+        ((BaseQueueService) service).withRedrivePolicy(QUEUE_NAME, new RedrivePolicy(DEAD_LETTER_QUEUE, 3));
+    }
+
+    @Test
+    public void poisonMessageIsDeadLetteredTest() {
+        service.clearMessages(DEAD_LETTER_QUEUE);
+        service.push(QUEUE_NAME, new Message<>("poison"));
+        service.push(QUEUE_NAME, new Message<>("healthy"));
+
+        for (int receive = 1; receive <= 3; receive++) {
+            Message message = service.pull(QUEUE_NAME);
+            assertThat(getMessage("Poison message should go first"), message.getBody(), is("poison"));
+            assertThat(RedrivePolicy.getReceiveCount(message), is(receive));
+            service.changeVisibility(QUEUE_NAME, message, 0, TimeUnit.SECONDS);
+        }
+
+        assertThat(getMessage("Healthy message should be next"), service.pull(QUEUE_NAME).getBody(), is("healthy"));
+        assertThat(service.messagesInQueue(DEAD_LETTER_QUEUE), is(1L));
+        Message deadLetter = service.pull(DEAD_LETTER_QUEUE);
+        assertThat(deadLetter.getBody(), is("poison"));
+        assertThat(getMessage("Receive count should start over"), RedrivePolicy.getReceiveCount(deadLetter), is(1));
+    }
+}
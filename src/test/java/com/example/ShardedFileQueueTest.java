@@ -0,0 +1,101 @@
+package com.example;
+
+import com.example.beans.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedFileQueueTest {
+
+    private static final String[] BASE_DIRS = {"/tmp/sharded-queues-0", "/tmp/sharded-queues-1"};
+    private final String QUEUE_NAME = "ShardedQueueName";
+
+    private final ShardedFileQueueService service = new ShardedFileQueueService(30000, 4, BASE_DIRS);
+
+    @Before
+    public void setUp(){
+        service.clearMessages(QUEUE_NAME);
+    }
+
+    @Test
+    public void shardsAreSpreadOverDirectoriesTest() {
+        for (int i = 0; i < 40; i++) {
+            service.push(QUEUE_NAME, new Message("msg" + i));
+        }
+        for (int shard = 0; shard < 4; shard++) {
+            assertThat(service.messagesInQueue(QUEUE_NAME, shard), is(10L));
+        }
+        assertTrue(new File(BASE_DIRS[0], QUEUE_NAME + "-s0").isDirectory());
+        assertTrue(new File(BASE_DIRS[1], QUEUE_NAME + "-s1").isDirectory());
+
+        //A single consumer steals from all shards
+        List<Message> pulled = new ArrayList<>();
+        Message message;
+        while ((message = service.pull(QUEUE_NAME)) != null) {
+            pulled.add(message);
+        }
+        assertThat(pulled.size(), is(40));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(40L));
+        service.deleteBatch(QUEUE_NAME, pulled);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void keyKeepsOrderTest() {
+        for (int i = 0; i < 20; i++) {
+            Message keyed = new Message("keyed" + i);
+            keyed.getAttributes().put(ShardedFileQueueService.SHARD_KEY, "customer-1");
+            service.push(QUEUE_NAME, keyed);
+            service.push(QUEUE_NAME, new Message("other" + i));
+        }
+        int next = 0;
+        for (Message message : service.pullBatch(QUEUE_NAME, 40)) {
+            if (message.getBody().toString().startsWith("keyed")) {
+                assertThat(message.getBody(), is("keyed" + next++));
+            }
+            service.delete(QUEUE_NAME, message);
+        }
+        assertThat(next, is(20));
+        assertNull(service.pull(QUEUE_NAME));
+    }
+
+    @Test
+    public void parallelProducersAndConsumersTest() throws InterruptedException {
+        final int limit = 400;
+        AtomicInteger consumed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int consumer = 0; consumer < 4; consumer++) {
+            executor.execute(() -> {
+                Message message;
+                while ((message = service.pull(QUEUE_NAME, 1, TimeUnit.SECONDS)) != null) {
+                    service.delete(QUEUE_NAME, message);
+                    consumed.incrementAndGet();
+                }
+            });
+        }
+        for (int producer = 0; producer < 4; producer++) {
+            executor.execute(() -> {
+                for (int i = 0; i < limit / 4; i++) {
+                    service.push(QUEUE_NAME, new Message("msg"));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertThat(consumed.get(), is(limit));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+}
@@ -0,0 +1,273 @@
+package com.example;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.*;
+import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import com.example.codec.BinaryMessageCodec;
+import com.example.dedup.DeduplicationCache;
+import com.example.error.BatchException;
+import com.example.error.QueueException;
+import com.example.utils.Order;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SqsQueueTest {
+    private final String QUEUE_NAME = "SqsQueueName";
+    private final String QUEUE_URL = "https://sqs.local/queue/" + QUEUE_NAME;
+
+    private CountingClient client;
+    private SqsQueueService service;
+
+    @Before
+    public void setUp() {
+        client = new CountingClient();
+        service = new SqsQueueService(client, 30000);
+    }
+
+    @Test
+    public void queueUrlCacheTest() {
+        service.push(QUEUE_NAME, new Message<>("body"));
+        service.pull(QUEUE_NAME);
+        service.delete(QUEUE_NAME, new Message<>("body"));
+        assertThat(client.urlRequests, is(1));
+        assertThat(client.requests, is(3));
+    }
+
+    @Test
+    public void queueUrlInvalidationTest() {
+        service.push(QUEUE_NAME, new Message<>("body"));
+
+        //Queue was removed and created again under a new url
+        client.url = QUEUE_URL + "-recreated";
+        service.push(QUEUE_NAME, new Message<>("body"));
+        service.push(QUEUE_NAME, new Message<>("body"));
+
+        assertThat(client.urlRequests, is(2));
+        assertThat(client.sentTo.get(client.url), is(2));
+    }
+
+    @Test
+    public void attributesCacheTest() {
+        service.withAttributesTtl(1, TimeUnit.HOURS);
+        for (int i = 0; i < 10; i++) {
+            assertThat(service.messagesInQueue(QUEUE_NAME), is(5L));
+            assertThat(service.pendingMessages(QUEUE_NAME), is(2L));
+        }
+        assertThat(client.attributeRequests, is(1));
+
+        service.withAttributesTtl(0, TimeUnit.SECONDS);
+        service.messagesInQueue(QUEUE_NAME);
+        service.messagesInQueue(QUEUE_NAME);
+        assertThat(client.attributeRequests, is(3));
+    }
+
+    @Test
+    public void redrivePolicyTest() {
+        //Fake client resolves all names to the same queue
+        service.withRedrivePolicy(QUEUE_NAME, new RedrivePolicy("DeadLetterQueue", 3));
+        assertThat(client.queueAttributes.get(QueueAttributeName.RedrivePolicy.toString()),
+                is("{\"maxReceiveCount\":\"3\",\"deadLetterTargetArn\":\"arn:aws:sqs:local:" + QUEUE_NAME + "\"}"));
+    }
+
+    @Test
+    public void delaySecondsTest() {
+        service.push(QUEUE_NAME, new Message<>("delayed"), 1500, TimeUnit.MILLISECONDS);
+        assertThat(client.delaySeconds, is(2));
+
+        //Beyond the SQS limit the message is held locally
+        service.push(QUEUE_NAME, new Message<>("held"), 1, TimeUnit.HOURS);
+        assertThat(client.sentTo.get(QUEUE_URL), is(1));
+    }
+
+    @Test
+    public void javaSerializedBodyIsRejectedTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(new Message<>("body"));
+        }
+        com.amazonaws.services.sqs.model.Message received = new com.amazonaws.services.sqs.model.Message()
+                .withBody(Base64.getEncoder().encodeToString(bytes.toByteArray())).withMessageId("id");
+        SqsQueueService javaService = new SqsQueueService(client, 30000)
+                .withCodec(new BinaryMessageCodec().withJavaSerialization(BinaryMessageCodec.STANDARD_CLASSES));
+        for (SqsQueueService sqs : Arrays.asList(service, javaService)) {
+            try {
+                sqs.deserializeMessage(QUEUE_NAME, received);
+                fail("Java serialized body should be rejected");
+            } catch (QueueException e) {
+                assertThat(e.getCause().getMessage(), is("Java serialized messages are not accepted"));
+            }
+        }
+    }
+
+    @Test
+    public void retriedPushIsDroppedTest() {
+        service.withDeduplication(5, TimeUnit.MINUTES);
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message<>("body");
+            message.getAttributes().put(DeduplicationCache.DEDUPLICATION_ID_KEY, "id");
+            service.push(QUEUE_NAME, message);
+        }
+        service.push(QUEUE_NAME, new Message<>("no id"));
+        assertThat(client.sentTo.get(QUEUE_URL), is(2));
+    }
+
+    @Test
+    public void ambiguousFailureKeepsIdTest() {
+        service.withDeduplication(5, TimeUnit.MINUTES);
+        //Send is accepted, but the response is lost
+        client.failAfterSend = new AmazonClientException("Read timed out");
+        pushWithId("timed out");
+        client.failAfterSend = null;
+        pushWithId("timed out");
+        assertThat("Retry after a timeout should be dropped", client.sentTo.get(QUEUE_URL), is(1));
+
+        //Rejected send can be retried
+        client.failAfterSend = new AmazonServiceException("Throttled");
+        pushWithId("rejected");
+        client.failAfterSend = null;
+        pushWithId("rejected");
+        assertThat(client.sentTo.get(QUEUE_URL), is(3));
+    }
+
+    @Test
+    public void failedBatchEntriesAreReportedTest() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            messages.add(new Message<>(i));
+        }
+        client.failedEntries.addAll(Arrays.asList("3", "12"));
+        try {
+            service.pushBatch(QUEUE_NAME, messages);
+            fail("Failed entries should be reported");
+        } catch (BatchException e) {
+            assertThat(e.getFailed(), is(Arrays.asList(messages.get(3), messages.get(12))));
+        }
+        assertThat("Both requests should be sent", client.sentTo.get(QUEUE_URL), is(13));
+    }
+
+    @Test
+    public void customBodyIsSentAsJsonTest() {
+        String encoded = service.serializeMessage(QUEUE_NAME, new Message<>(new Order("o-1", 3)));
+        Message received = service.deserializeMessage(QUEUE_NAME,
+                new com.amazonaws.services.sqs.model.Message().withBody(encoded).withMessageId("id").withReceiptHandle("handle"));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("id", "o-1");
+        expected.put("quantity", 3);
+        assertThat("Beans should be received as maps like before codecs", received.getBody(), is(expected));
+    }
+
+    private void pushWithId(String id) {
+        Message message = new Message<>("body");
+        message.getAttributes().put(DeduplicationCache.DEDUPLICATION_ID_KEY, id);
+        try {
+            service.push(QUEUE_NAME, message);
+        } catch (AmazonClientException e) {
+            assertThat(e, is(client.failAfterSend));
+        }
+    }
+
+    /**
+     * Client counting requests. Requests to any url except the current one fail as to a removed queue
+     */
+    private class CountingClient extends AbstractAmazonSQS {
+        private String url = QUEUE_URL;
+        private int urlRequests;
+        private int attributeRequests;
+        private int requests;
+        private final Map<String, Integer> sentTo = new HashMap<>();
+        private final Map<String, String> queueAttributes = new HashMap<>();
+        private Integer delaySeconds;
+        private RuntimeException failAfterSend;
+        private final Set<String> failedEntries = new HashSet<>();
+
+        @Override
+        public GetQueueUrlResult getQueueUrl(String queueName) {
+            urlRequests++;
+            return new GetQueueUrlResult().withQueueUrl(url);
+        }
+
+        @Override
+        public SendMessageResult sendMessage(String queueUrl, String messageBody) {
+            check(queueUrl);
+            sentTo.merge(queueUrl, 1, Integer::sum);
+            if (failAfterSend != null) {
+                throw failAfterSend;
+            }
+            return new SendMessageResult();
+        }
+
+        @Override
+        public SendMessageResult sendMessage(SendMessageRequest request) {
+            delaySeconds = request.getDelaySeconds();
+            return sendMessage(request.getQueueUrl(), request.getMessageBody());
+        }
+
+        @Override
+        public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+            check(request.getQueueUrl());
+            SendMessageBatchResult result = new SendMessageBatchResult();
+            for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                if (failedEntries.contains(entry.getId())) {
+                    result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId()).withCode("InternalError"));
+                } else {
+                    sentTo.merge(request.getQueueUrl(), 1, Integer::sum);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+            check(request.getQueueUrl());
+            return new ReceiveMessageResult();
+        }
+
+        @Override
+        public void deleteMessage(DeleteMessageRequest request) {
+            check(request.getQueueUrl());
+        }
+
+        @Override
+        public GetQueueAttributesResult getQueueAttributes(String queueUrl, List<String> attributeNames) {
+            check(queueUrl);
+            attributeRequests++;
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(QueueAttributeName.ApproximateNumberOfMessages.toString(), "5");
+            attributes.put(QueueAttributeName.ApproximateNumberOfMessagesNotVisible.toString(), "2");
+            attributes.put(QueueAttributeName.QueueArn.toString(), "arn:aws:sqs:local:" + QUEUE_NAME);
+            return new GetQueueAttributesResult().withAttributes(attributes);
+        }
+
+        @Override
+        public void setQueueAttributes(String queueUrl, Map<String, String> attributes) {
+            check(queueUrl);
+            queueAttributes.putAll(attributes);
+        }
+
+        private void check(String queueUrl) {
+            requests++;
+            if (!url.equals(queueUrl)) {
+                throw new QueueDoesNotExistException(queueUrl);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example;
+
+import com.example.beans.Message;
+import com.example.error.QueueException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+@RunWith(Parameterized.class)
+public class VisibilityTest extends CommonBaseTest {
+
+    public VisibilityTest(QueueService service) {
+        super(service);
+    }
+
+    @Test
+    public void makeVisibleTest(){
+        service.push(QUEUE_NAME, new Message("msg1"));
+        service.push(QUEUE_NAME, new Message("msg2"));
+        Message message = service.pull(QUEUE_NAME);
+
+        service.changeVisibility(QUEUE_NAME, message, 0, TimeUnit.SECONDS);
+        assertThat(getMessage("Message wasn't returned to queue"), service.messagesInQueue(QUEUE_NAME), is(2L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+        assertThat(getMessage("Message should go first"), service.pull(QUEUE_NAME).getBody(), is("msg1"));
+    }
+
+    @Test
+    public void extendVisibilityTest(){
+        service.push(QUEUE_NAME, new Message("msg1"));
+        Message message = service.pull(QUEUE_NAME);
+        service.changeVisibility(QUEUE_NAME, message, 10, TimeUnit.MINUTES);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(1L));
+        service.delete(QUEUE_NAME, message);
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+
+    @Test(expected = QueueException.class)
+    public void deletedMessageTest(){
+        Message message = new Message("msg1");
+        service.push(QUEUE_NAME, message);
+        service.delete(QUEUE_NAME, service.pull(QUEUE_NAME));
+        service.changeVisibility(QUEUE_NAME, message, 1, TimeUnit.SECONDS);
+    }
+}
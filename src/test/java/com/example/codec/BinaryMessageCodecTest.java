@@ -0,0 +1,326 @@
+package com.example.codec;
+
+import com.example.beans.Message;
+import com.example.error.QueueException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryMessageCodecTest {
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+    private final BinaryMessageCodec javaCodec = new BinaryMessageCodec().withJavaSerialization(BinaryMessageCodec.STANDARD_CLASSES);
+
+    @Test
+    public void roundTripTest() {
+        Message<String> message = new Message<>("Hello, мир");
+        message.getAttributes().put("count", 3L);
+        message.getAttributes().put("flag", true);
+        message.getAttributes().put("raw", new byte[]{1, 2, 3});
+        message.getAttributes().put("list", new ArrayList<>(Arrays.asList("a", "b")));
+
+        Message decoded = javaCodec.decode(javaCodec.encode(message));
+        assertThat(decoded.getUuid(), is(message.getUuid()));
+        assertThat(decoded.getBody(), is("Hello, мир"));
+        assertThat(decoded.getAttributes().get("count"), is(3L));
+        assertThat(decoded.getAttributes().get("flag"), is(true));
+        assertTrue(Arrays.equals((byte[]) decoded.getAttributes().get("raw"), new byte[]{1, 2, 3}));
+        assertThat(decoded.getAttributes().get("list"), is(Arrays.asList("a", "b")));
+
+        assertThat(codec.decode(codec.encode(new Message<>(null))).getBody(), nullValue());
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+        Message<String> message = new Message<>("body");
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(java)) {
+            oos.writeObject(message);
+        }
+        //Version, flags, uuid, attributes count and a tagged 4 bytes string
+        assertThat(codec.encode(message).length, is(2 + 1 + 36 + 1 + 1 + 1 + 4));
+        assertTrue(codec.encode(message).length * 5 < java.size());
+    }
+
+    @Test
+    public void reusableBufferTest() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        List<Message> messages = Arrays.asList(new Message<>("first"), new Message<>(new String(new char[1000])));
+        List<Integer> ends = new ArrayList<>();
+        for (Message message : messages) {
+            buffer = codec.encode(message, buffer);
+            ends.add(buffer.position());
+        }
+        assertTrue("Buffer should grow", buffer.capacity() >= ends.get(1));
+
+        buffer.flip();
+        buffer.limit(ends.get(0));
+        assertThat(codec.decode(buffer).getBody(), is("first"));
+        buffer.limit(ends.get(1));
+        assertThat(codec.decode(buffer).getUuid(), is(messages.get(1).getUuid()));
+    }
+
+    @Test
+    public void customSerializerTest() {
+        BinaryMessageCodec custom = new BinaryMessageCodec().withSerializer(new BodySerializer() {
+            @Override
+            public byte getId() {
+                return 20;
+            }
+
+            @Override
+            public boolean supports(Object value) {
+                return value instanceof StringBuilder;
+            }
+
+            @Override
+            public void write(Object value, CodecBuffer out) {
+                out.putString(value.toString());
+            }
+
+            @Override
+            public Object read(ByteBuffer in) {
+                return new StringBuilder(CodecBuffer.readString(in));
+            }
+        });
+        Message decoded = custom.decode(custom.encode(new Message<>(new StringBuilder("built"))));
+        assertThat(decoded.getBody().toString(), is("built"));
+        assertThat(decoded.getBody().getClass().getName(), is(StringBuilder.class.getName()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void serializerIdConflictTest() {
+        codec.withSerializer(BodySerializers.STRING);
+    }
+
+    @Test
+    public void legacyJavaSerializationTest() throws Exception {
+        Message<String> message = new Message<>("legacy");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(message);
+        }
+        Message decoded = javaCodec.decode(bytes.toByteArray());
+        assertThat(decoded.getUuid(), is(message.getUuid()));
+        assertThat(decoded.getBody(), is("legacy"));
+    }
+
+    @Test
+    public void javaSerializationIsOptInTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(new Message<>("legacy"));
+        }
+        try {
+            codec.decode(bytes.toByteArray());
+            fail("Java serialized message should be rejected");
+        } catch (QueueException e) {
+            assertThat(e.getMessage(), is("Java serialized messages are not accepted"));
+        }
+        try {
+            codec.encode(new Message<>(new ArrayList<>()));
+            fail("Serializable body should have no serializer");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage().startsWith("No serializer"));
+        }
+    }
+
+    @Test
+    public void notAllowedClassIsRejectedTest() {
+        BinaryMessageCodec writer = new BinaryMessageCodec().withJavaSerialization("com.example.**");
+        byte[] encoded = writer.encode(new Message<>(new Payload("value")));
+        assertThat(((Payload) writer.decode(encoded).getBody()).value, is("value"));
+        try {
+            javaCodec.decode(encoded);
+            fail("Class out of the allow list should not be deserialized");
+        } catch (QueueException e) {
+            assertTrue(e.getCause() instanceof InvalidClassException);
+        }
+        //Not allowed values are not written either
+        try {
+            javaCodec.encode(new Message<>(new Payload("value")));
+            fail("Class out of the allow list should not be serialized");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is not allowed for Java serialization"));
+        }
+    }
+
+    @Test
+    public void allowListPatternsTest() {
+        ClassAllowList allowed = new ClassAllowList("java.lang.String", "java.util.*", "com.example.**");
+        assertTrue(allowed.allows(String.class));
+        assertFalse(allowed.allows(Integer.class));
+        assertTrue(allowed.allows(ArrayList.class));
+        assertFalse(allowed.allows("java.util.concurrent.ConcurrentHashMap"));
+        assertTrue(allowed.allows(Payload.class));
+        assertTrue(allowed.allows(String[][].class));
+        assertTrue(allowed.allows(int[].class));
+        assertFalse(allowed.allows(Integer[].class));
+    }
+
+    @Test
+    public void jsonFallbackTest() {
+        BinaryMessageCodec jsonCodec = new BinaryMessageCodec().withJsonSerialization();
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("name", "order");
+        expected.put("items", Arrays.asList(1, 2));
+        Message decoded = jsonCodec.decode(jsonCodec.encode(new Message<>(new Bean("order", Arrays.asList(1, 2)))));
+        assertThat("Beans should be read back as maps", decoded.getBody(), is(expected));
+        assertThat(jsonCodec.decode(jsonCodec.encode(new Message<>("plain"))).getBody(), is("plain"));
+
+        //Allowed classes still go through Java serialization
+        BinaryMessageCodec both = new BinaryMessageCodec().withJsonSerialization().withJavaSerialization("com.example.**");
+        assertTrue(both.decode(both.encode(new Message<>(new Payload("value")))).getBody() instanceof Payload);
+    }
+
+    @Test
+    public void malformedPatternFailsFastTest() {
+        for (String pattern : new String[]{"", "com.example.", "com.*.Bean", "com.example.***"}) {
+            try {
+                new ClassAllowList(pattern);
+                fail("Pattern should be rejected: " + pattern);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("Malformed class pattern"));
+            }
+        }
+    }
+
+    @Test(expected = QueueException.class)
+    public void unknownVersionTest() {
+        codec.decode(new byte[]{42, 0});
+    }
+
+    @Test
+    public void compressionTest() {
+        BinaryMessageCodec compressing = new BinaryMessageCodec().withCompression(1024);
+        String body = new String(new char[64 * 1024]).replace('\0', 'a');
+        Message<String> large = new Message<>(body);
+        large.getAttributes().put("type", "large");
+
+        byte[] encoded = compressing.encode(large);
+        assertTrue("Message should be compressed", encoded.length < 1024);
+        assertThat(encoded[1], is(BinaryMessageCodec.FLAG_DEFLATE));
+
+        //Reader doesn't need compression to be enabled
+        Message decoded = codec.decode(encoded);
+        assertThat(decoded.getUuid(), is(large.getUuid()));
+        assertThat(decoded.getBody(), is(body));
+        assertThat(decoded.getAttributes().get("type"), is("large"));
+
+        //Small messages are stored as is
+        assertThat(compressing.encode(new Message<>("small"))[1], is((byte) 0));
+
+        CompressionStats stats = compressing.getStats();
+        assertThat(stats.getMessages(), is(2L));
+        assertThat(stats.getCompressed(), is(1L));
+        assertTrue(stats.getCompressionRatio() < 0.05);
+        assertTrue(stats.getSavedBytes() > 60 * 1024);
+    }
+
+    @Test
+    public void incompressibleTest() {
+        BinaryMessageCodec compressing = new BinaryMessageCodec().withCompression(0);
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        byte[] encoded = compressing.encode(new Message<>(random));
+        assertThat(encoded[1], is((byte) 0));
+        assertTrue(Arrays.equals((byte[]) codec.decode(encoded).getBody(), random));
+        assertThat(compressing.getStats().getIncompressible(), is(1L));
+        assertThat(compressing.getStats().getCompressionRatio(), is(1.0));
+    }
+
+    @Test
+    public void declaredSizeIsCheckedTest() {
+        BinaryMessageCodec compressing = new BinaryMessageCodec().withCompression(0);
+        String body = new String(new char[4096]).replace('\0', 'a');
+        byte[] encoded = compressing.encode(new Message<>(body));
+        assertThat(encoded[1], is(BinaryMessageCodec.FLAG_DEFLATE));
+        assertThat(new BinaryMessageCodec().withMaxMessageSize(8192).decode(encoded).getBody(), is(body));
+        assertDecodeFails(new BinaryMessageCodec().withMaxMessageSize(1024), encoded, "exceeds the limit");
+
+        //Crafted length is rejected before anything is allocated
+        ByteBuffer huge = new CodecBuffer(ByteBuffer.allocate(64)).put(BinaryMessageCodec.VERSION)
+                .put(BinaryMessageCodec.FLAG_DEFLATE).putString("uuid").putVarInt(Integer.MAX_VALUE).putBytes(new byte[1]).buffer();
+        assertDecodeFails(codec, Arrays.copyOf(huge.array(), huge.position()), "exceeds the limit");
+
+        //Raw length follows the version, flags and uuid
+        int lengthPosition = 2 + 1 + 36;
+
+        byte[] shorter = withRawLength(encoded, lengthPosition, 4000);
+        assertDecodeFails(codec, shorter, "longer than declared");
+        byte[] longer = withRawLength(encoded, lengthPosition, 5000);
+        assertDecodeFails(codec, longer, "shorter than declared");
+    }
+
+    /**
+     * Replace a 2 bytes varint raw length of a compressed message
+     */
+    private static byte[] withRawLength(byte[] encoded, int position, int rawLength) {
+        byte[] copy = Arrays.copyOf(encoded, encoded.length);
+        copy[position] = (byte) (rawLength & 0x7F | 0x80);
+        copy[position + 1] = (byte) (rawLength >>> 7);
+        return copy;
+    }
+
+    private static void assertDecodeFails(MessageCodec codec, byte[] encoded, String reason) {
+        try {
+            codec.decode(encoded);
+            fail("Decoding should fail");
+        } catch (QueueException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    private static class Payload implements Serializable {
+        private final String value;
+
+        private Payload(String value) {
+            this.value = value;
+        }
+    }
+
+    public static class Bean {
+        private String name;
+        private List<Integer> items;
+
+        public Bean() {
+        }
+
+        private Bean(String name, List<Integer> items) {
+            this.name = name;
+            this.items = items;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<Integer> getItems() {
+            return items;
+        }
+
+        public void setItems(List<Integer> items) {
+            this.items = items;
+        }
+    }
+}
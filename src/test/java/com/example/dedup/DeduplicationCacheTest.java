@@ -0,0 +1,56 @@
+package com.example.dedup;
+
+import com.example.beans.Message;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DeduplicationCacheTest {
+
+    @Test
+    public void idsExpireAfterWindowTest() throws InterruptedException {
+        DeduplicationCache cache = new DeduplicationCache(100, TimeUnit.MILLISECONDS);
+        assertTrue(cache.add("id"));
+        assertFalse(cache.add("id"));
+        Thread.sleep(150);
+        assertThat(cache.size(), is(0));
+        assertTrue(cache.add("id"));
+    }
+
+    @Test
+    public void sizeIsBoundedTest() {
+        DeduplicationCache cache = new DeduplicationCache(5, TimeUnit.MINUTES, 100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.add("id" + i));
+        }
+        assertThat(cache.size(), is(100));
+        //The oldest ids are forgotten first
+        assertTrue(cache.add("id0"));
+        assertFalse(cache.add("id999"));
+    }
+
+    @Test
+    public void messageIdsAreScopedByQueueTest() {
+        DeduplicationCache cache = new DeduplicationCache(5, TimeUnit.MINUTES);
+        Message first = withId("a", "id");
+        Message retry = withId("a", "id");
+        assertThat(cache.unique("queue", Arrays.asList(first, retry, new Message<>("no id"))).size(), is(2));
+        assertFalse(cache.add("queue", retry));
+        assertTrue(cache.add("other", retry));
+
+        cache.remove("queue", Arrays.asList(first));
+        assertTrue(cache.add("queue", retry));
+    }
+
+    private static Message withId(String body, String id) {
+        Message message = new Message<>(body);
+        message.getAttributes().put(DeduplicationCache.DEDUPLICATION_ID_KEY, id);
+        return message;
+    }
+}
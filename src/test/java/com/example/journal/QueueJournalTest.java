@@ -0,0 +1,89 @@
+package com.example.journal;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class QueueJournalTest {
+
+    private final File DIR = new File("/tmp/journal-test");
+
+    @Before
+    public void setUp() throws IOException {
+        FileUtils.deleteDirectory(DIR);
+    }
+
+    @Test
+    public void compactionAndReplayTest() {
+        QueueJournal journal = new QueueJournal(DIR, 100);
+        for (int i = 0; i < 300; i++) {
+            JournalEntry entry = journal.enqueue("file" + i, 0);
+            journal.markInFlight(entry, "uuid" + i, 1, 1000 + i);
+            if (i % 10 != 0) {
+                journal.ack(entry);
+            }
+            journal.flush();
+        }
+        assertTrue("Journal wasn't compacted", journal.getGeneration() > 0);
+        assertThat(DIR.list().length, is(1));
+        journal.expire(journal.getInFlight("uuid0"));
+        journal.close();
+
+        QueueJournal reopened = new QueueJournal(DIR, 100);
+        assertThat(reopened.getVisibleCount(), is(1));
+        assertThat(reopened.getInFlightCount(), is(29));
+        assertThat(reopened.getNextDeadline(), is(1010L));
+        assertThat(reopened.getInFlight("uuid20").getDeadline(), is(1020L));
+        assertNull(reopened.getInFlight("uuid21"));
+        assertThat(reopened.firstVisible(10).get(0).getReceives(), is(1));
+        assertThat(reopened.due(1030).size(), is(3));
+    }
+
+    @Test
+    public void tornTailIsCutTest() throws IOException {
+        QueueJournal journal = new QueueJournal(DIR);
+        assertTrue(journal.isCreated());
+        journal.enqueue("file0", 0);
+        journal.enqueue("file1", 0);
+        journal.close();
+        File file = new File(DIR, QueueJournal.FILE_PREFIX + 0);
+        long length = file.length();
+
+        //Writer crashed in the middle of a record
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        }
+        QueueJournal reopened = new QueueJournal(DIR);
+        assertThat(reopened.getVisibleCount(), is(2));
+        assertThat(file.length(), is(length));
+    }
+
+    @Test
+    public void refreshAppliesOtherWritersTest() {
+        QueueJournal writer = new QueueJournal(DIR);
+        QueueJournal reader = new QueueJournal(DIR);
+        writer.markInFlight(writer.enqueue("file0", 0), "uuid0", 1, 5000);
+        writer.enqueue("file1", 0);
+        writer.flush();
+
+        reader.refresh();
+        assertThat(reader.getVisibleCount(), is(1));
+        assertThat(reader.getNextDeadline(), is(5000L));
+
+        //Cleared journal is replaced with the next generation
+        writer.clear();
+        reader.refresh();
+        assertThat(reader.getVisibleCount(), is(0));
+        assertThat(reader.getInFlightCount(), is(0));
+        assertThat(reader.getGeneration(), is(writer.getGeneration()));
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.listener;
+
+import com.example.InMemoryQueueService;
+import com.example.beans.Message;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageListenerContainerTest {
+    private final String QUEUE_NAME = "ListenerQueueName";
+
+    @Test
+    public void concurrentConsumptionTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(30000);
+        Set<Object> bodies = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(100);
+        try (MessageListenerContainer container = new MessageListenerContainer(service, QUEUE_NAME, message -> {
+            bodies.add(message.getBody());
+            done.countDown();
+        }).withConcurrency(4)) {
+            container.start();
+            for (int i = 0; i < 100; i++) {
+                service.push(QUEUE_NAME, new Message<>(i));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        assertThat(bodies.size(), is(100));
+        assertThat(service.messagesInQueue(QUEUE_NAME), is(0L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void slowHandlerKeepsMessageInvisibleTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(100);
+        AtomicInteger deliveries = new AtomicInteger();
+        MessageListenerContainer container = new MessageListenerContainer(service, QUEUE_NAME, message -> {
+            deliveries.incrementAndGet();
+            Thread.sleep(500);
+        }).withConcurrency(2);
+        container.start();
+        service.push(QUEUE_NAME, new Message<>("slow"));
+        Thread.sleep(100);
+        container.close();
+
+        assertThat("Message shouldn't be redelivered while processed", deliveries.get(), is(1));
+        assertThat(container.getProcessed(), is(1L));
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+
+    @Test
+    public void failedMessageIsRedeliveredTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(50);
+        CountDownLatch succeeded = new CountDownLatch(1);
+        AtomicInteger deliveries = new AtomicInteger();
+        try (MessageListenerContainer container = new MessageListenerContainer(service, QUEUE_NAME, message -> {
+            if (deliveries.incrementAndGet() == 1) {
+                throw new IllegalStateException("First attempt fails");
+            }
+            succeeded.countDown();
+        })) {
+            container.start();
+            service.push(QUEUE_NAME, new Message<>("retried"));
+            assertTrue(succeeded.await(5, TimeUnit.SECONDS));
+            container.stop();
+            assertTrue(container.awaitTermination(5, TimeUnit.SECONDS));
+            assertThat(container.getFailed(), is(1L));
+            assertThat(container.getProcessed(), is(1L));
+        }
+    }
+
+    @Test
+    public void consumersSurvivePullFailuresTest() throws Exception {
+        AtomicInteger pulls = new AtomicInteger();
+        InMemoryQueueService service = new InMemoryQueueService(30000) {
+            @Override
+            public Message pull(String queueName, long waitTime, TimeUnit unit) {
+                //Client errors of a remote service are not QueueExceptions
+                if (pulls.incrementAndGet() <= 3) {
+                    throw new IllegalStateException("Connection reset");
+                }
+                return super.pull(queueName, waitTime, unit);
+            }
+        };
+        CountDownLatch done = new CountDownLatch(1);
+        try (MessageListenerContainer container = new MessageListenerContainer(service, QUEUE_NAME, message -> done.countDown())) {
+            container.start();
+            service.push(QUEUE_NAME, new Message<>("after failures"));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertThat(container.getPullFailures(), is(3L));
+        }
+    }
+
+    @Test
+    public void restartWaitsForPreviousRunTest() throws Exception {
+        InMemoryQueueService service = new InMemoryQueueService(30000);
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        try (MessageListenerContainer container = new MessageListenerContainer(service, QUEUE_NAME, message -> {
+            if (message.getBody().equals("first")) {
+                handling.countDown();
+                release.await();
+            } else {
+                second.countDown();
+            }
+        }).withConcurrency(2)) {
+            container.start();
+            service.push(QUEUE_NAME, new Message<>("first"));
+            assertTrue(handling.await(5, TimeUnit.SECONDS));
+            container.stop();
+            try {
+                container.start();
+                fail("Restart should be rejected while consumers of the previous run are busy");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("await termination first"));
+            }
+
+            release.countDown();
+            assertTrue(container.awaitTermination(5, TimeUnit.SECONDS));
+            container.start();
+            service.push(QUEUE_NAME, new Message<>("second"));
+            assertTrue(second.await(5, TimeUnit.SECONDS));
+        }
+        assertThat(service.pendingMessages(QUEUE_NAME), is(0L));
+    }
+}
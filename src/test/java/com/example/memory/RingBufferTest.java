@@ -0,0 +1,86 @@
+package com.example.memory;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    @Test
+    public void boundsTest() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        assertThat(ring.capacity(), is(4));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertThat(ring.size(), is(4));
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.poll(), is(i));
+        }
+        assertNull(ring.poll());
+        assertThat(ring.size(), is(0));
+    }
+
+    @Test
+    public void exactCapacityTest() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertThat("Capacity shouldn't be rounded", ring.capacity(), is(3));
+        //Several rounds, so positions wrap around the array
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(ring.offer(i));
+            }
+            assertFalse(ring.offer(3));
+            assertThat(ring.size(), is(3));
+            assertThat(ring.poll(), is(0));
+            assertTrue(ring.offer(3));
+            assertFalse(ring.offer(4));
+            for (int i = 1; i <= 3; i++) {
+                assertThat(ring.poll(), is(i));
+            }
+            assertNull(ring.poll());
+        }
+    }
+
+    @Test
+    public void concurrentProducersConsumersTest() throws InterruptedException {
+        final int perProducer = 20000;
+        final int producers = 4;
+        RingBuffer<Long> ring = new RingBuffer<>(64);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong consumed = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+        for (int p = 0; p < producers; p++) {
+            executor.execute(() -> {
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            executor.execute(() -> {
+                while (consumed.get() < (long) perProducer * producers) {
+                    Long item = ring.poll();
+                    if (item != null) {
+                        sum.addAndGet(item);
+                        consumed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertThat(consumed.get(), is((long) perProducer * producers));
+        assertThat(sum.get(), is((long) producers * perProducer * (perProducer + 1) / 2));
+    }
+}
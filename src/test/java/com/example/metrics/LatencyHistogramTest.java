@@ -0,0 +1,45 @@
+package com.example.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverLongRangeTest() {
+        int previous = -1;
+        for (long value = 0; value > 0 || value == 0; value = value < 1000 ? value + 1 : value + value / 7) {
+            int index = LatencyHistogram.index(value);
+            assertTrue("Buckets should be monotonic", index >= previous);
+            assertTrue("Value should fit its bucket", value <= LatencyHistogram.upperBound(index));
+            assertTrue("Relative error should be bounded",
+                    LatencyHistogram.upperBound(index) - value <= Math.max(1, value / 15));
+            previous = index;
+        }
+        assertThat(LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMax(TimeUnit.MICROSECONDS), is(1000L));
+        assertThat(histogram.getMean(TimeUnit.MICROSECONDS), is(500L));
+        assertWithin(histogram.getPercentile(50, TimeUnit.MICROSECONDS), 500);
+        assertWithin(histogram.getPercentile(99, TimeUnit.MICROSECONDS), 990);
+        assertThat(histogram.getPercentile(100, TimeUnit.MICROSECONDS), is(1000L));
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(String.format("Expected about %s, got %s", expected, actual),
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
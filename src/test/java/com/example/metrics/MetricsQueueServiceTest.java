@@ -0,0 +1,96 @@
+package com.example.metrics;
+
+import com.example.ForwardingQueueService;
+import com.example.InMemoryQueueService;
+import com.example.beans.Message;
+import com.example.beans.RedrivePolicy;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsQueueServiceTest {
+    private final String QUEUE_NAME = "MetricsQueueName";
+
+    @Test
+    public void countersAndGaugesTest() {
+        MetricsQueueService service = new MetricsQueueService(new InMemoryQueueService(30000));
+        service.pushBatch(QUEUE_NAME, Arrays.asList(new Message<>("1"), new Message<>("2"), new Message<>("3")));
+        Message first = service.pull(QUEUE_NAME);
+        Message second = service.pull(QUEUE_NAME);
+        service.delete(QUEUE_NAME, first);
+        service.changeVisibility(QUEUE_NAME, second, 0, TimeUnit.SECONDS);
+        service.pullBatch(QUEUE_NAME, 10);
+        service.pull(QUEUE_NAME);
+
+        QueueMetrics metrics = service.getMetrics(QUEUE_NAME);
+        assertThat(metrics.getPushed(), is(3L));
+        assertThat(metrics.getPulled(), is(4L));
+        assertThat(metrics.getEmptyPulls(), is(1L));
+        assertThat(metrics.getDeleted(), is(1L));
+        assertThat(metrics.getReleased(), is(1L));
+        assertThat(metrics.getVisible(), is(service.messagesInQueue(QUEUE_NAME)));
+        assertThat(metrics.getInFlight(), is(service.pendingMessages(QUEUE_NAME)));
+        assertThat(metrics.getPullLatency().getCount(), is(4L));
+        assertThat(metrics.getPushLatency().getCount(), is(1L));
+    }
+
+    @Test
+    public void serviceEventsTest() throws Exception {
+        InMemoryQueueService memory = new InMemoryQueueService(50)
+                .withRedrivePolicy(QUEUE_NAME, new RedrivePolicy("MetricsDeadLetterQueue", 2));
+        MetricsQueueService service = new MetricsQueueService(memory);
+        service.push(QUEUE_NAME, new Message<>("expiring"));
+        service.pull(QUEUE_NAME);
+        service.pull(QUEUE_NAME, 1, TimeUnit.SECONDS);
+        Thread.sleep(200);
+
+        QueueMetrics metrics = service.getMetrics(QUEUE_NAME);
+        assertThat(metrics.getExpired(), is(2L));
+        assertThat(metrics.getDeadLettered(), is(1L));
+        assertThat(metrics.getVisible(), is(0L));
+        assertThat(metrics.getInFlight(), is(0L));
+        assertTrue(service.getSweepLatency().getCount() > 0);
+
+        QueueMetrics deadLetters = service.getMetrics("MetricsDeadLetterQueue");
+        assertThat(deadLetters.getRedriven(), is(1L));
+        assertThat(deadLetters.getVisible(), is(1L));
+    }
+
+    @Test
+    public void existingBacklogTest() {
+        InMemoryQueueService memory = new InMemoryQueueService(30000);
+        memory.pushBatch(QUEUE_NAME, Arrays.asList(new Message<>("1"), new Message<>("2"), new Message<>("3")));
+        memory.pull(QUEUE_NAME);
+        MetricsQueueService service = new MetricsQueueService(memory);
+        service.pull(QUEUE_NAME);
+
+        QueueMetrics metrics = service.getMetrics(QUEUE_NAME);
+        assertThat(metrics.getVisible(), is(1L));
+        assertThat(metrics.getInFlight(), is(2L));
+        service.push(QUEUE_NAME, new Message<>("4"));
+        assertThat(metrics.getVisible(), is(2L));
+    }
+
+    @Test
+    public void noGaugesWithoutEventsTest() {
+        MetricsQueueService service = new MetricsQueueService(new ForwardingQueueService(new InMemoryQueueService(30000)) {
+        });
+        service.push(QUEUE_NAME, new Message<>("1"));
+        QueueMetrics metrics = service.getMetrics(QUEUE_NAME);
+        assertThat(metrics.getPushed(), is(1L));
+        assertFalse(metrics.hasGauges());
+        try {
+            metrics.getInFlight();
+            fail("Gauges should not be offered without expiry events");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("doesn't report expired messages"));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.timer;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DelaySchedulerTest {
+
+    @Test
+    public void releasesInDeadlineOrderTest() throws InterruptedException {
+        List<String> released = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        DelayScheduler<String> scheduler = new DelayScheduler<>("test-delays", item -> {
+            released.add(item);
+            done.countDown();
+        });
+        long now = System.currentTimeMillis();
+        scheduler.schedule("late", now + 150);
+        scheduler.schedule("early", now + 50);
+        scheduler.schedule("also early", now + 50);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertThat(released.get(0), is("early"));
+        assertThat(released.get(1), is("also early"));
+        assertThat(released.get(2), is("late"));
+    }
+
+    @Test
+    public void farDeadlinesAreNotReleasedTest() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        DelayScheduler<Integer> scheduler = new DelayScheduler<>("test-delays", item -> done.countDown());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100000; i++) {
+            scheduler.schedule(i, now + TimeUnit.HOURS.toMillis(1) + i);
+        }
+        scheduler.schedule(-1, now + 10);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertThat(scheduler.size(), is(100000));
+
+        scheduler.removeIf(item -> item % 2 == 0);
+        assertThat(scheduler.size(), is(50000));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.timer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    @Test
+    public void expiresOnlyDueEntriesTest() throws InterruptedException {
+        TimerWheel<String> wheel = new TimerWheel<>(5, 1000);
+        wheel.schedule("early", 20);
+        wheel.schedule("late", 500);
+        List<String> expired = new ArrayList<>();
+
+        assertThat(wheel.expire(expired::add), is(0));
+        Thread.sleep(40);
+        wheel.expire(expired::add);
+        assertThat(expired.size(), is(1));
+        assertThat(expired.get(0), is("early"));
+        assertThat(wheel.size(), is(1));
+    }
+
+    @Test
+    public void cancelTest() throws InterruptedException {
+        TimerWheel<String> wheel = new TimerWheel<>(1, 100);
+        TimerWheel.Entry<String> entry = wheel.schedule("cancelled", 5);
+        assertTrue(wheel.cancel(entry));
+        assertFalse("Entry can be cancelled only once", wheel.cancel(entry));
+        Thread.sleep(20);
+        assertThat(wheel.expire(item -> {}), is(0));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void wrapAroundTest() throws InterruptedException {
+        //Delay beyond the horizon makes the entry wait for several rotations
+        TimerWheel<String> wheel = new TimerWheel<>(1, 4);
+        wheel.schedule("wrapped", 30);
+        long started = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        while (expired.isEmpty()) {
+            wheel.expire(expired::add);
+            Thread.sleep(1);
+        }
+        assertTrue("Entry fired too early", System.currentTimeMillis() - started >= 30);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.utils;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Custom message body: Java serializable and a JSON bean
+ */
+public class Order implements Serializable {
+    private String id;
+    private int quantity;
+
+    public Order() {
+    }
+
+    public Order(String id, int quantity) {
+        this.id = id;
+        this.quantity = quantity;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Order)) {
+            return false;
+        }
+        Order order = (Order) o;
+        return quantity == order.quantity && Objects.equals(id, order.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, quantity);
+    }
+}